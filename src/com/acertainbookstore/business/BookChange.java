@@ -0,0 +1,245 @@
+package com.acertainbookstore.business;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * {@link BookChange} is the committed effect of a write on a single book, as
+ * recorded by the master and replicated to the slaves: the book was added,
+ * removed, or its mutable state changed. A change carries the state of the
+ * book after the write rather than the write itself, so that it is applied
+ * blindly, the write having been validated by the master already, and
+ * applying it again changes nothing. The changes of a book in a batch are
+ * merged into its last one, see {@link #mergeByISBN(Collection)}.
+ */
+public class BookChange {
+
+	/** The ISBN of the book. */
+	private int isbn;
+
+	/** The book added, null unless the change adds the book. */
+	private StockBook addedBook;
+
+	/** Whether the change removes the book. */
+	private boolean removed;
+
+	/** The number of copies after the change. */
+	private int numCopies;
+
+	/** The number of copies held by reservations after the change. */
+	private int numHeldCopies;
+
+	/** The total rating after the change. */
+	private long totalRating;
+
+	/** The number of times the book was rated after the change. */
+	private long numTimesRated;
+
+	/** The number of sale misses after the change. */
+	private long numSaleMisses;
+
+	/** Whether the book is an editor pick after the change. */
+	private boolean editorPick;
+
+	/**
+	 * Instantiates a new {@link BookChange}.
+	 *
+	 * @param isbn
+	 *            the ISBN of the book
+	 */
+	private BookChange(int isbn) {
+		this.isbn = isbn;
+	}
+
+	/**
+	 * Creates the change adding a book.
+	 *
+	 * @param book
+	 *            the book added
+	 * @return the change
+	 */
+	public static BookChange added(StockBook book) {
+		BookChange change = changed(book);
+		change.addedBook = book;
+		return change;
+	}
+
+	/**
+	 * Creates the change removing a book.
+	 *
+	 * @param isbn
+	 *            the ISBN of the book
+	 * @return the change
+	 */
+	public static BookChange removed(int isbn) {
+		BookChange change = new BookChange(isbn);
+		change.removed = true;
+		return change;
+	}
+
+	/**
+	 * Creates the change of the state of a book.
+	 *
+	 * @param after
+	 *            the version of the book after the change
+	 * @return the change
+	 */
+	public static BookChange changed(StockBook after) {
+		BookChange change = new BookChange(after.getISBN());
+		change.numCopies = after.getNumCopies();
+		change.numHeldCopies = after.getNumHeldCopies();
+		change.totalRating = after.getTotalRating();
+		change.numTimesRated = after.getNumTimesRated();
+		change.numSaleMisses = after.getNumSaleMisses();
+		change.editorPick = after.isEditorPick();
+		return change;
+	}
+
+	/**
+	 * Merges the changes of each book into a single change, leaving the state
+	 * the last change of the book left. The changes of different books are
+	 * independent, so that their order does not matter.
+	 *
+	 * @param changes
+	 *            the changes, in the order they were committed
+	 * @return the merged changes
+	 */
+	public static Collection<BookChange> mergeByISBN(Collection<BookChange> changes) {
+		Map<Integer, BookChange> mergedChanges = new LinkedHashMap<>();
+
+		for (BookChange change : changes) {
+			mergedChanges.merge(change.getISBN(), change, BookChange::mergeWith);
+		}
+
+		return mergedChanges.values();
+	}
+
+	/**
+	 * Merges this change with the next change of the book.
+	 *
+	 * @param next
+	 *            the next change
+	 * @return the merged change
+	 */
+	private BookChange mergeWith(BookChange next) {
+
+		// A book added and then changed is added with its last state.
+		if (addedBook != null && next.addedBook == null && !next.removed) {
+			BookChange change = changed(next.toStockBook(addedBook));
+			change.addedBook = addedBook;
+			return change;
+		}
+
+		return next;
+	}
+
+	/**
+	 * Returns the book with the state after the change.
+	 *
+	 * @param book
+	 *            the book
+	 * @return the book with its new state
+	 */
+	private StockBook toStockBook(Book book) {
+		return new ImmutableStockBook(isbn, book.getTitle(), book.getAuthor(), book.getPrice(), numCopies,
+				numHeldCopies, numSaleMisses, numTimesRated, totalRating, editorPick);
+	}
+
+	/**
+	 * Gets the ISBN of the book.
+	 *
+	 * @return the ISBN
+	 */
+	public int getISBN() {
+		return isbn;
+	}
+
+	/**
+	 * Gets the book added.
+	 *
+	 * @return the book, null unless the change adds the book
+	 */
+	public StockBook getAddedBook() {
+		return addedBook;
+	}
+
+	/**
+	 * Checks if the change removes the book.
+	 *
+	 * @return true, if the book is removed
+	 */
+	public boolean isRemoved() {
+		return removed;
+	}
+
+	/**
+	 * Gets the number of copies after the change.
+	 *
+	 * @return the number of copies
+	 */
+	public int getNumCopies() {
+		return numCopies;
+	}
+
+	/**
+	 * Gets the number of copies held by reservations after the change.
+	 *
+	 * @return the number of copies held
+	 */
+	public int getNumHeldCopies() {
+		return numHeldCopies;
+	}
+
+	/**
+	 * Gets the total rating after the change.
+	 *
+	 * @return the total rating
+	 */
+	public long getTotalRating() {
+		return totalRating;
+	}
+
+	/**
+	 * Gets the number of times the book was rated after the change.
+	 *
+	 * @return the number of times rated
+	 */
+	public long getNumTimesRated() {
+		return numTimesRated;
+	}
+
+	/**
+	 * Gets the number of sale misses after the change.
+	 *
+	 * @return the number of sale misses
+	 */
+	public long getNumSaleMisses() {
+		return numSaleMisses;
+	}
+
+	/**
+	 * Checks if the book is an editor pick after the change.
+	 *
+	 * @return true, if the book is an editor pick
+	 */
+	public boolean isEditorPick() {
+		return editorPick;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		if (removed) {
+			return "ISBN = " + isbn + " removed";
+		}
+
+		return "ISBN = " + isbn + (addedBook != null ? " added" : "") + ", copies " + numCopies + ", held "
+				+ numHeldCopies + ", rating " + totalRating + "/" + numTimesRated + ", sale misses " + numSaleMisses
+				+ ", editor pick " + editorPick;
+	}
+}
@@ -0,0 +1,87 @@
+package com.acertainbookstore.business;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@link BookReservation} is used to represent a hold on book copies: the
+ * copies are taken out of the available stock until the reservation is
+ * committed, i.e. the copies are sold, or cancelled or expired, i.e. the
+ * copies are put back in the available stock.
+ */
+public class BookReservation {
+
+	/** The reservation id. */
+	private long reservationId;
+
+	/** The book copies held. */
+	private Set<BookCopy> bookCopies;
+
+	/** The time to live of the reservation in milliseconds. */
+	private long ttlMillis;
+
+	/** The books the copies are held on by ISBN, once the copies are held. */
+	private Map<Integer, BookStoreBook> heldBooks;
+
+	/**
+	 * Instantiates a new {@link BookReservation}.
+	 *
+	 * @param reservationId
+	 *            the reservation id
+	 * @param bookCopies
+	 *            the book copies held
+	 * @param ttlMillis
+	 *            the time to live of the reservation in milliseconds
+	 */
+	public BookReservation(long reservationId, Set<BookCopy> bookCopies, long ttlMillis) {
+		this.reservationId = reservationId;
+		this.bookCopies = bookCopies;
+		this.ttlMillis = ttlMillis;
+	}
+
+	/**
+	 * Gets the reservation id.
+	 *
+	 * @return the reservation id
+	 */
+	public long getReservationId() {
+		return reservationId;
+	}
+
+	/**
+	 * Gets the book copies held.
+	 *
+	 * @return the book copies
+	 */
+	public Set<BookCopy> getBookCopies() {
+		return bookCopies;
+	}
+
+	/**
+	 * Gets the time to live of the reservation.
+	 *
+	 * @return the time to live in milliseconds
+	 */
+	public long getTTLMillis() {
+		return ttlMillis;
+	}
+
+	/**
+	 * Gets the books the copies are held on.
+	 *
+	 * @return the books by ISBN, null until the copies are held
+	 */
+	Map<Integer, BookStoreBook> getHeldBooks() {
+		return heldBooks;
+	}
+
+	/**
+	 * Sets the books the copies are held on.
+	 *
+	 * @param heldBooks
+	 *            the books by ISBN
+	 */
+	void setHeldBooks(Map<Integer, BookStoreBook> heldBooks) {
+		this.heldBooks = heldBooks;
+	}
+}
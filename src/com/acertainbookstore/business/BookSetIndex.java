@@ -0,0 +1,195 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Predicate;
+
+/**
+ * {@link BookSetIndex} keeps the books matching a predicate, e.g. the editor
+ * picks, in a dense array, so that they can be listed or sampled without
+ * scanning the catalog. The position of each book in the array is kept by slot
+ * (cf. {@link BookStoreCounters}), so that a book is added or removed in
+ * constant time.
+ *
+ * The index is thread safe, its methods synchronize on the index. The
+ * {@link CertainBookStore} only updates the books whose editor pick, sale
+ * misses or rating changed, so the buyers of a book never lock the index.
+ */
+public class BookSetIndex {
+
+	/** The initial capacity of the arrays. */
+	private static final int DEFAULT_CAPACITY = 16;
+
+	/** The predicate selecting the books of the index. */
+	private final Predicate<BookStoreBook> predicate;
+
+	/** The books of the index. */
+	private BookStoreBook[] members = new BookStoreBook[DEFAULT_CAPACITY];
+
+	/** The number of books of the index. */
+	private int numMembers = 0;
+
+	/** The position of each book in the members by slot, -1 if absent. */
+	private int[] positions = new int[DEFAULT_CAPACITY];
+
+	/** The random number generator used for sampling. */
+	private final Random random = new Random();
+
+	/**
+	 * Instantiates a new {@link BookSetIndex}.
+	 *
+	 * @param predicate
+	 *            the predicate selecting the books of the index
+	 */
+	public BookSetIndex(Predicate<BookStoreBook> predicate) {
+		this.predicate = predicate;
+		Arrays.fill(positions, -1);
+	}
+
+	/**
+	 * Adds the book to the index if it matches the predicate, and removes it
+	 * otherwise.
+	 *
+	 * @param book
+	 *            the book
+	 */
+	public synchronized void update(BookStoreBook book) {
+		if (predicate.test(book)) {
+			add(book);
+		} else {
+			remove(book);
+		}
+	}
+
+	/**
+	 * Updates the books as {@link #update(BookStoreBook)} does, locking the
+	 * index once, e.g. for the books of a snapshot once they are all loaded.
+	 *
+	 * @param books
+	 *            the books
+	 */
+	public synchronized void updateAll(Collection<BookStoreBook> books) {
+		for (BookStoreBook book : books) {
+			update(book);
+		}
+	}
+
+	/**
+	 * Removes the book from the index, if present.
+	 *
+	 * @param book
+	 *            the book
+	 */
+	public synchronized void remove(BookStoreBook book) {
+		int slot = book.getSlot();
+
+		if (slot >= positions.length || positions[slot] < 0) {
+			return;
+		}
+
+		// Fill the hole with the last book to keep the array dense.
+		int position = positions[slot];
+		BookStoreBook last = members[--numMembers];
+		members[position] = last;
+		positions[last.getSlot()] = position;
+		members[numMembers] = null;
+		positions[slot] = -1;
+	}
+
+	/**
+	 * Removes all the books from the index.
+	 */
+	public synchronized void clear() {
+		Arrays.fill(members, 0, numMembers, null);
+		Arrays.fill(positions, -1);
+		numMembers = 0;
+	}
+
+	/**
+	 * Gets the number of books of the index.
+	 *
+	 * @return the number of books
+	 */
+	public synchronized int size() {
+		return numMembers;
+	}
+
+	/**
+	 * Gets all the books of the index.
+	 *
+	 * @return the books
+	 */
+	public synchronized List<BookStoreBook> getAll() {
+		return new ArrayList<>(Arrays.asList(members).subList(0, numMembers));
+	}
+
+	/**
+	 * Samples distinct books of the index uniformly at random, or returns all
+	 * of them if there are not more than <code>numBooks</code>. Runs a partial
+	 * Fisher-Yates shuffle on the array, in O(numBooks).
+	 *
+	 * @param numBooks
+	 *            the number of books
+	 * @return the books
+	 */
+	public synchronized List<BookStoreBook> sample(int numBooks) {
+		int numSampled = Math.min(numBooks, numMembers);
+		List<BookStoreBook> sampled = new ArrayList<>(numSampled);
+
+		for (int i = 0; i < numSampled; i++) {
+			if (numSampled < numMembers) {
+				swap(i, i + random.nextInt(numMembers - i));
+			}
+
+			sampled.add(members[i]);
+		}
+
+		return sampled;
+	}
+
+	/**
+	 * Adds the book to the index, if absent.
+	 *
+	 * @param book
+	 *            the book
+	 */
+	private void add(BookStoreBook book) {
+		int slot = book.getSlot();
+
+		if (slot >= positions.length) {
+			int oldLength = positions.length;
+			positions = Arrays.copyOf(positions, Math.max(slot + 1, oldLength << 1));
+			Arrays.fill(positions, oldLength, positions.length, -1);
+		}
+
+		if (positions[slot] >= 0) {
+			return;
+		}
+
+		if (numMembers == members.length) {
+			members = Arrays.copyOf(members, numMembers << 1);
+		}
+
+		members[numMembers] = book;
+		positions[slot] = numMembers++;
+	}
+
+	/**
+	 * Swaps two books of the index.
+	 *
+	 * @param i
+	 *            the position of the first book
+	 * @param j
+	 *            the position of the second book
+	 */
+	private void swap(int i, int j) {
+		BookStoreBook book = members[i];
+		members[i] = members[j];
+		members[j] = book;
+		positions[members[i].getSlot()] = i;
+		positions[book.getSlot()] = j;
+	}
+}
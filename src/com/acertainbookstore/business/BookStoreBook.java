@@ -1,5 +1,7 @@
 package com.acertainbookstore.business;
 
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
 import com.acertainbookstore.utils.BookStoreUtility;
 
 /**
@@ -7,64 +9,68 @@ import com.acertainbookstore.utils.BookStoreUtility;
  * available in the bookstore client and stock manager, cf. the {@link Book} and
  * {@link StockBook} interfaces.
  * 
+ * The mutable state of the book lives in a slot of {@link BookStoreCounters},
+ * shared by all the books of the store, and is only accessed by writers holding
+ * the lock of the book. Readers instead read immutable versions of the book, which writers
+ * publish for each snapshot that changes the book, with a compare-and-set so
+ * that concurrent buyers of the book need no other lock.
+ * 
+ * The title, author and price never change, so the {@link ImmutableBook} view
+ * of the book is created once and shared by all the reads, as is each version
+ * until the state of the book changes.
+ * 
  * @see Book
  * @see StockBook
  * @see ImmutableBook
  */
 public class BookStoreBook extends ImmutableBook {
 
-	/** The number of copies. */
-	private int numCopies;
+	/** The counters holding the mutable state of the book. */
+	private final BookStoreCounters counters;
 
-	/** The total rating. */
-	private long totalRating;
+	/** The slot of the book in the counters. */
+	private final int slot;
 
-	/** The number of times rated. */
-	private long numTimesRated;
+	/** The updater of the latest version. */
+	private static final AtomicReferenceFieldUpdater<BookStoreBook, Version> LATEST_VERSION = AtomicReferenceFieldUpdater
+			.newUpdater(BookStoreBook.class, Version.class, "latestVersion");
 
-	/** The number of sale misses. */
-	private long numSaleMisses;
+	/** The latest published version of the book. */
+	private volatile Version latestVersion;
 
-	/** Whether the book is editor picked. */
-	private boolean editorPick;
+	/** The snapshot which published the first version of the book. */
+	private volatile long publishedSnapshotId = Long.MAX_VALUE;
+
+	/** The snapshot which removed the book from the store. */
+	private volatile long removedSnapshotId = Long.MAX_VALUE;
+
+	/** The view of the book returned to the clients. */
+	private final ImmutableBook bookView;
 
 	/**
-	 * Instantiates a new {@link BookStoreBook}.
-	 *
-	 * @param isbn
-	 *            the ISBN
-	 * @param title
-	 *            the title
-	 * @param author
-	 *            the author
-	 * @param price
-	 *            the price
-	 * @param numCopies
-	 *            the number of copies
+	 * The copies of the book if it is hot, null if they are in the counters.
 	 */
-	public BookStoreBook(int isbn, String title, String author, float price, int numCopies) {
-		super(isbn, title, author, price);
-
-		this.setNumSaleMisses(0);
-		this.setNumTimesRated(0);
-		this.setNumCopies(numCopies);
-		this.setTotalRating(0);
-		this.setEditorPick(false);
-	}
+	private volatile EscrowStock escrowStock;
 
 	/**
 	 * Instantiates a new {@link BookStoreBook} from a {@link StockBook}
-	 * instance.
+	 * instance, storing its mutable state in a new slot of the counters.
 	 *
 	 * @param bookToCopy
 	 *            the book to copy
+	 * @param counters
+	 *            the counters
 	 */
-	public BookStoreBook(StockBook bookToCopy) {
+	public BookStoreBook(StockBook bookToCopy, BookStoreCounters counters) {
 		super(bookToCopy.getISBN(), bookToCopy.getTitle(), bookToCopy.getAuthor(), bookToCopy.getPrice());
 
+		this.bookView = new ImmutableBook(getISBN(), getTitle(), getAuthor(), getPrice());
+		this.counters = counters;
+		this.slot = counters.allocate();
 		this.setNumSaleMisses(bookToCopy.getNumSaleMisses());
 		this.setNumTimesRated(bookToCopy.getNumTimesRated());
 		this.setNumCopies(bookToCopy.getNumCopies());
+		this.setNumHeldCopies(0);
 		this.setTotalRating(bookToCopy.getTotalRating());
 		this.setEditorPick(bookToCopy.isEditorPick());
 	}
@@ -75,7 +81,7 @@ public class BookStoreBook extends ImmutableBook {
 	 * @return the total rating
 	 */
 	public long getTotalRating() {
-		return totalRating;
+		return counters.getTotalRating(slot);
 	}
 
 	/**
@@ -84,7 +90,7 @@ public class BookStoreBook extends ImmutableBook {
 	 * @return the number of times rated
 	 */
 	public long getNumTimesRated() {
-		return numTimesRated;
+		return counters.getNumTimesRated(slot);
 	}
 
 	/**
@@ -93,7 +99,17 @@ public class BookStoreBook extends ImmutableBook {
 	 * @return the number of copies
 	 */
 	public int getNumCopies() {
-		return numCopies;
+		EscrowStock stock = escrowStock;
+		return stock != null ? stock.getTotal() : counters.getNumCopies(slot);
+	}
+
+	/**
+	 * Gets the number of copies held by reservations.
+	 *
+	 * @return the number of copies held
+	 */
+	public int getNumHeldCopies() {
+		return counters.getNumHeldCopies(slot);
 	}
 
 	/**
@@ -102,7 +118,7 @@ public class BookStoreBook extends ImmutableBook {
 	 * @return the number of sale misses
 	 */
 	public long getNumSaleMisses() {
-		return numSaleMisses;
+		return counters.getNumSaleMisses(slot);
 	}
 
 	/**
@@ -111,7 +127,8 @@ public class BookStoreBook extends ImmutableBook {
 	 * @return the average rating
 	 */
 	public float getAverageRating() {
-		return (numTimesRated == 0 ? -1.0f : (float) totalRating / numTimesRated);
+		long numTimesRated = getNumTimesRated();
+		return (numTimesRated == 0 ? -1.0f : (float) getTotalRating() / numTimesRated);
 	}
 
 	/**
@@ -120,7 +137,7 @@ public class BookStoreBook extends ImmutableBook {
 	 * @return true, if it is editor picked
 	 */
 	public boolean isEditorPick() {
-		return editorPick;
+		return counters.isEditorPick(slot);
 	}
 
 	/**
@@ -130,7 +147,7 @@ public class BookStoreBook extends ImmutableBook {
 	 *            the new total rating
 	 */
 	private void setTotalRating(long totalRating) {
-		this.totalRating = totalRating;
+		counters.setTotalRating(slot, totalRating);
 	}
 
 	/**
@@ -140,7 +157,7 @@ public class BookStoreBook extends ImmutableBook {
 	 *            the new number of times rated
 	 */
 	private void setNumTimesRated(long numTimesRated) {
-		this.numTimesRated = numTimesRated;
+		counters.setNumTimesRated(slot, numTimesRated);
 	}
 
 	/**
@@ -150,7 +167,23 @@ public class BookStoreBook extends ImmutableBook {
 	 *            the new number of copies
 	 */
 	private void setNumCopies(int numCopies) {
-		this.numCopies = numCopies;
+		EscrowStock stock = escrowStock;
+
+		if (stock != null) {
+			stock.setTotal(numCopies);
+		} else {
+			counters.setNumCopies(slot, numCopies);
+		}
+	}
+
+	/**
+	 * Sets the number of copies of the book held by reservations.
+	 *
+	 * @param numHeldCopies
+	 *            the new number of copies held
+	 */
+	private void setNumHeldCopies(int numHeldCopies) {
+		counters.setNumHeldCopies(slot, numHeldCopies);
 	}
 
 	/**
@@ -161,7 +194,7 @@ public class BookStoreBook extends ImmutableBook {
 	 *            the new sale misses
 	 */
 	private void setNumSaleMisses(long numSaleMisses) {
-		this.numSaleMisses = numSaleMisses;
+		counters.setNumSaleMisses(slot, numSaleMisses);
 	}
 
 	/**
@@ -172,7 +205,7 @@ public class BookStoreBook extends ImmutableBook {
 	 *            the new editor pick
 	 */
 	public void setEditorPick(boolean editorPick) {
-		this.editorPick = editorPick;
+		counters.setEditorPick(slot, editorPick);
 	}
 
 	/**
@@ -183,7 +216,7 @@ public class BookStoreBook extends ImmutableBook {
 	 * @return true, if successful
 	 */
 	public boolean areCopiesInStore(int numCopies) {
-		return this.numCopies >= numCopies;
+		return getNumCopies() >= numCopies;
 	}
 
 	/**
@@ -195,13 +228,107 @@ public class BookStoreBook extends ImmutableBook {
 	 */
 	public boolean buyCopies(int numCopies) {
 		if (!BookStoreUtility.isInvalidNoCopies(numCopies) && areCopiesInStore(numCopies)) {
-			this.numCopies -= numCopies;
+			setNumCopies(getNumCopies() - numCopies);
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Moves copies of the book from the available stock to the copies held by
+	 * reservations.
+	 *
+	 * @param numCopies
+	 *            the number of copies
+	 * @return true, if successful
+	 */
+	public boolean holdCopies(int numCopies) {
+		if (buyCopies(numCopies)) {
+			setNumHeldCopies(getNumHeldCopies() + numCopies);
 			return true;
 		}
 
 		return false;
 	}
 
+	/**
+	 * Sells copies held by a reservation.
+	 *
+	 * @param numCopies
+	 *            the number of copies
+	 */
+	public void sellHeldCopies(int numCopies) {
+		setNumHeldCopies(getNumHeldCopies() - numCopies);
+	}
+
+	/**
+	 * Puts copies held by a reservation back in the available stock.
+	 *
+	 * @param numCopies
+	 *            the number of copies
+	 */
+	public void releaseHeldCopies(int numCopies) {
+		setNumHeldCopies(getNumHeldCopies() - numCopies);
+		setNumCopies(getNumCopies() + numCopies);
+	}
+
+	/**
+	 * Reduces the number of copies of the book with a compare-and-set, so that
+	 * concurrent buyers of the book holding its lock in shared mode never lose
+	 * a sale. The copies of a hot book are taken from its escrow stock. Fails
+	 * without changing the book if less than <code>numCopies</code> copies are
+	 * available.
+	 *
+	 * @param numCopies
+	 *            the number of copies
+	 * @return true, if successful
+	 */
+	public boolean tryBuyCopies(int numCopies) {
+		EscrowStock stock = escrowStock;
+
+		if (stock != null) {
+			return stock.tryTake(numCopies);
+		}
+
+		while (true) {
+			int numCopiesInStore = getNumCopies();
+
+			if (numCopiesInStore < numCopies) {
+				return false;
+			}
+
+			if (counters.compareAndSetNumCopies(slot, numCopiesInStore, numCopiesInStore - numCopies)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Moves the copies of the book to an {@link EscrowStock}, or back to the
+	 * counters. Must be called while holding the lock of the book exclusively.
+	 *
+	 * @param hot
+	 *            true to hold the copies in an escrow stock
+	 */
+	public void setHot(boolean hot) {
+		if (hot && escrowStock == null) {
+			escrowStock = new EscrowStock(counters.getNumCopies(slot));
+		} else if (!hot && escrowStock != null) {
+			counters.setNumCopies(slot, escrowStock.getTotal());
+			escrowStock = null;
+		}
+	}
+
+	/**
+	 * Checks if the copies of the book are held in an {@link EscrowStock}.
+	 *
+	 * @return true, if the book is hot
+	 */
+	public boolean isHot() {
+		return escrowStock != null;
+	}
+
 	/**
 	 * Adds <code>newCopies</code> to the total number of copies of the book.
 	 *
@@ -210,8 +337,8 @@ public class BookStoreBook extends ImmutableBook {
 	 */
 	public void addCopies(int numNewCopies) {
 		if (!BookStoreUtility.isInvalidNoCopies(numNewCopies)) {
-			this.numCopies += numNewCopies;
-			this.numSaleMisses = 0;
+			setNumCopies(getNumCopies() + numNewCopies);
+			setNumSaleMisses(0);
 		}
 	}
 
@@ -222,7 +349,7 @@ public class BookStoreBook extends ImmutableBook {
 	 *            the number of sales misses encountered
 	 */
 	public void addSaleMiss(int numSaleMisses) {
-		this.numSaleMisses += numSaleMisses;
+		setNumSaleMisses(getNumSaleMisses() + numSaleMisses);
 	}
 
 	/**
@@ -233,11 +360,28 @@ public class BookStoreBook extends ImmutableBook {
 	 */
 	public void addRating(int rating) {
 		if (!BookStoreUtility.isInvalidRating(rating)) {
-			this.totalRating += rating;
-			this.numTimesRated++;
+			setTotalRating(getTotalRating() + rating);
+			setNumTimesRated(getNumTimesRated() + 1);
 		}
 	}
 
+	/**
+	 * Applies a change committed by the master, without checking it. The book
+	 * takes the state after the change, so that applying the change again
+	 * leaves the book as it is.
+	 *
+	 * @param change
+	 *            the change
+	 */
+	public void applyChange(BookChange change) {
+		setNumCopies(change.getNumCopies());
+		setNumHeldCopies(change.getNumHeldCopies());
+		setTotalRating(change.getTotalRating());
+		setNumTimesRated(change.getNumTimesRated());
+		setNumSaleMisses(change.getNumSaleMisses());
+		setEditorPick(change.isEditorPick());
+	}
+
 	/**
 	 * Checks if someone tried to buy the book, while the book was not in stock,
 	 * also known as having sale misses.
@@ -245,7 +389,7 @@ public class BookStoreBook extends ImmutableBook {
 	 * @return true, if successful
 	 */
 	public boolean hadSaleMiss() {
-		return this.numSaleMisses > 0;
+		return getNumSaleMisses() > 0;
 	}
 
 	/**
@@ -260,33 +404,292 @@ public class BookStoreBook extends ImmutableBook {
 	}
 
 	/**
-	 * Returns a {@link ImmutableBook} copy of the book.
+	 * Returns the {@link ImmutableBook} view of the book.
 	 *
 	 * @return the immutable book
 	 */
 	public ImmutableBook immutableBook() {
-		return new ImmutableBook(this.getISBN(), new String(this.getTitle()), new String(this.getAuthor()),
-				this.getPrice());
+		return bookView;
 	}
 
 	/**
-	 * Returns a {@link StockBook} copy of the book.
+	 * Returns a {@link StockBook} copy of the book, which is the latest
+	 * published version if the book did not change since.
 	 *
 	 * @return the stock book
 	 */
 	public StockBook immutableStockBook() {
-		return new ImmutableStockBook(this.getISBN(), new String(this.getTitle()), new String(this.getAuthor()),
-				this.getPrice(), this.numCopies, this.numSaleMisses, this.numTimesRated, this.totalRating,
-				this.editorPick);
+		Version version = latestVersion;
+
+		if (version != null && hasStateOf(version.book)) {
+			return version.book;
+		}
+
+		return new ImmutableStockBook(this.getISBN(), this.getTitle(), this.getAuthor(), this.getPrice(),
+				this.getNumCopies(), this.getNumHeldCopies(), this.getNumSaleMisses(), this.getNumTimesRated(),
+				this.getTotalRating(), this.isEditorPick());
 	}
 
 	/**
-	 * Returns a {@link BookStoreBook} copy of the book.
+	 * Checks if the mutable state of the book is the one of the version.
 	 *
-	 * @return the book store book
+	 * @param version
+	 *            the version
+	 * @return true, if it is
 	 */
-	public BookStoreBook copy() {
-		return new BookStoreBook(this.getISBN(), new String(this.getTitle()), new String(this.getAuthor()),
-				this.getPrice(), this.numCopies);
+	private boolean hasStateOf(StockBook version) {
+		return version.getNumCopies() == getNumCopies() && version.getNumHeldCopies() == getNumHeldCopies()
+				&& version.getNumSaleMisses() == getNumSaleMisses()
+				&& version.getNumTimesRated() == getNumTimesRated() && version.getTotalRating() == getTotalRating()
+				&& version.isEditorPick() == isEditorPick();
+	}
+
+	/**
+	 * Publishes the current state of the book as the version read by the
+	 * snapshots starting from <code>snapshotId</code>. The older versions are
+	 * kept for the readers of the snapshots from <code>retainedSnapshotId</code>
+	 * on, the versions only older snapshots read are dropped. Nothing is
+	 * published if the book did not change since its latest version, which the
+	 * snapshot reads.
+	 *
+	 * The versions are published with a compare-and-set of the latest version,
+	 * not necessarily in the order of their snapshots. A version published
+	 * below the versions of later snapshots takes the state of the oldest of
+	 * them, which was read after the change being published, so that a later
+	 * snapshot never reads an older state.
+	 *
+	 * @param snapshotId
+	 *            the snapshot id
+	 * @param retainedSnapshotId
+	 *            the oldest snapshot whose version is kept
+	 * @return the state published, null if the book did not change
+	 */
+	public StockBook publishVersion(long snapshotId, long retainedSnapshotId) {
+		while (true) {
+			Version head = latestVersion;
+
+			if (head != null && head.snapshotId <= snapshotId && hasStateOf(head.book)) {
+				return null;
+			}
+
+			// The state is read after the latest version, and published only
+			// if the latest version is still the same.
+			StockBook state = head != null && head.snapshotId > snapshotId ? null : immutableStockBook();
+			StockBook published = tryPublish(head, snapshotId, retainedSnapshotId, state, 0);
+
+			if (published != null) {
+				return published;
+			}
+		}
+	}
+
+	/**
+	 * Publishes the copies taken by a buyer holding the lock of the book in
+	 * shared mode, as {@link #publishVersion(long, long)} does. The new
+	 * version is the version of the previous snapshot less the copies taken,
+	 * and the versions of the later snapshots, published by concurrent buyers,
+	 * are published again less the copies taken, so that the state of the book
+	 * is not read, e.g. the shards of a hot book are not summed.
+	 *
+	 * @param snapshotId
+	 *            the snapshot id
+	 * @param retainedSnapshotId
+	 *            the oldest snapshot whose version is kept
+	 * @param numCopies
+	 *            the number of copies taken
+	 * @return the state published, null if the book did not change
+	 */
+	public StockBook publishCopiesTaken(long snapshotId, long retainedSnapshotId, int numCopies) {
+		if (numCopies == 0) {
+			return null;
+		}
+
+		while (true) {
+			StockBook published = tryPublish(latestVersion, snapshotId, retainedSnapshotId, null, numCopies);
+
+			if (published != null) {
+				return published;
+			}
+		}
+	}
+
+	/**
+	 * Tries to publish a version of the snapshot below the versions of the
+	 * later snapshots, if any, with a compare-and-set of the latest version.
+	 *
+	 * @param head
+	 *            the latest version read
+	 * @param snapshotId
+	 *            the snapshot id
+	 * @param retainedSnapshotId
+	 *            the oldest snapshot whose version is kept
+	 * @param state
+	 *            the state published, null to derive it from the versions
+	 * @param numCopiesTaken
+	 *            the number of copies taken from the versions, 0 to take the
+	 *            state of the oldest later version when there is no state
+	 * @return the state published, null if the latest version changed
+	 */
+	private StockBook tryPublish(Version head, long snapshotId, long retainedSnapshotId, StockBook state,
+			int numCopiesTaken) {
+		int numLaterVersions = 0;
+		Version previousVersion = head;
+
+		while (previousVersion != null && previousVersion.snapshotId > snapshotId) {
+			numLaterVersions++;
+			previousVersion = previousVersion.previous;
+		}
+
+		Version[] laterVersions = new Version[numLaterVersions];
+		Version version = head;
+
+		for (int i = 0; i < numLaterVersions; i++, version = version.previous) {
+			laterVersions[i] = version;
+		}
+
+		if (state == null) {
+			state = numCopiesTaken == 0 ? laterVersions[numLaterVersions - 1].book
+					: withNumCopiesTaken(previousVersion.book, numCopiesTaken);
+		}
+
+		// A write touching the book twice replaces its own version.
+		if (previousVersion != null && previousVersion.snapshotId == snapshotId) {
+			previousVersion = previousVersion.previous;
+		}
+
+		for (version = previousVersion; version != null; version = version.previous) {
+			if (version.snapshotId <= retainedSnapshotId) {
+				version.previous = null;
+				break;
+			}
+		}
+
+		Version newHead = new Version(snapshotId, state, previousVersion);
+
+		for (int i = numLaterVersions - 1; i >= 0; i--) {
+			StockBook laterState = laterVersions[i].book;
+
+			if (numCopiesTaken != 0) {
+				laterState = withNumCopiesTaken(laterState, numCopiesTaken);
+			}
+
+			newHead = new Version(laterVersions[i].snapshotId, laterState, newHead);
+		}
+
+		if (!LATEST_VERSION.compareAndSet(this, head, newHead)) {
+			return null;
+		}
+
+		if (previousVersion == null && snapshotId < publishedSnapshotId) {
+			publishedSnapshotId = snapshotId;
+		}
+
+		return state;
+	}
+
+	/**
+	 * Copies a version of the book less copies taken.
+	 *
+	 * @param book
+	 *            the version
+	 * @param numCopies
+	 *            the number of copies taken
+	 * @return the new version
+	 */
+	private static StockBook withNumCopiesTaken(StockBook book, int numCopies) {
+		return new ImmutableStockBook(book.getISBN(), book.getTitle(), book.getAuthor(), book.getPrice(),
+				book.getNumCopies() - numCopies, book.getNumHeldCopies(), book.getNumSaleMisses(),
+				book.getNumTimesRated(), book.getTotalRating(), book.isEditorPick());
+	}
+
+	/**
+	 * Records that the book is removed from the store by the snapshot.
+	 *
+	 * @param snapshotId
+	 *            the snapshot id
+	 */
+	public void unpublish(long snapshotId) {
+		removedSnapshotId = snapshotId;
+	}
+
+	/**
+	 * Checks if the book is in the snapshot, i.e. if it was added to the
+	 * store before the snapshot and removed after it.
+	 *
+	 * @param snapshotId
+	 *            the snapshot id
+	 * @return true, if the snapshot reads the book
+	 */
+	public boolean isPublishedIn(long snapshotId) {
+		return publishedSnapshotId <= snapshotId && snapshotId < removedSnapshotId;
+	}
+
+	/**
+	 * Returns the version of the book read by the snapshot, or null if that
+	 * version is no longer kept, or if the snapshot does not read the book.
+	 *
+	 * @param snapshotId
+	 *            the snapshot id
+	 * @return the stock book
+	 */
+	public StockBook getVersion(long snapshotId) {
+		for (Version version = latestVersion; version != null; version = version.previous) {
+			if (version.snapshotId <= snapshotId) {
+				return version.book;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Returns the latest published version of the book.
+	 *
+	 * @return the stock book, null if no version was published yet
+	 */
+	public StockBook getLatestVersion() {
+		Version version = latestVersion;
+		return version == null ? null : version.book;
+	}
+
+	/**
+	 * Gets the slot of the book in the counters.
+	 *
+	 * @return the slot
+	 */
+	public int getSlot() {
+		return slot;
+	}
+
+	/**
+	 * {@link Version} is an immutable version of the book published by a
+	 * snapshot.
+	 */
+	private static final class Version {
+
+		/** The snapshot which published the version. */
+		private final long snapshotId;
+
+		/** The state of the book. */
+		private final StockBook book;
+
+		/** The previous version, null once it is no longer kept. */
+		private Version previous;
+
+		/**
+		 * Instantiates a new {@link Version}.
+		 *
+		 * @param snapshotId
+		 *            the snapshot id
+		 * @param book
+		 *            the state of the book
+		 * @param previous
+		 *            the previous version
+		 */
+		private Version(long snapshotId, StockBook book, Version previous) {
+			this.snapshotId = snapshotId;
+			this.book = book;
+			this.previous = previous;
+		}
 	}
 }
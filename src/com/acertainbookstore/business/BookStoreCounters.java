@@ -0,0 +1,307 @@
+package com.acertainbookstore.business;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * {@link BookStoreCounters} stores the mutable state of the books, i.e. the
+ * number of copies, copies held, ratings, sale misses and editor picks, in one
+ * primitive array per field. Each book owns a slot of the arrays, while its
+ * immutable title, author and price stay in the {@link BookStoreBook} object.
+ *
+ * A large catalog thus costs the garbage collector a few large arrays instead
+ * of one object per book and field. The slots are dense, so the indexes over
+ * these fields (cf. {@link BookSetIndex} and {@link TopRatedIndex}) keep the
+ * entry of each book in an array by slot too. The queries over the fields are
+ * answered by these indexes, the arrays are never scanned.
+ *
+ * Slots are allocated and released while holding the catalog lock exclusively,
+ * the fields of a slot are accessed while holding the lock of its book. The
+ * number of copies is the exception, buyers of a single book decrement it
+ * with a compare-and-set while holding the lock of the book in shared mode.
+ */
+public class BookStoreCounters {
+
+	/** The initial number of slots. */
+	private static final int DEFAULT_CAPACITY = 16;
+
+	/** The number of copies. */
+	private AtomicIntegerArray numCopies;
+
+	/** The number of copies held by reservations. */
+	private int[] numHeldCopies;
+
+	/** The total rating. */
+	private long[] totalRating;
+
+	/** The number of times rated. */
+	private long[] numTimesRated;
+
+	/** The number of sale misses. */
+	private long[] numSaleMisses;
+
+	/** Whether the book is editor picked. */
+	private boolean[] editorPick;
+
+	/** The number of slots ever allocated, the others were never used. */
+	private int numSlots = 0;
+
+	/** The released slots, reused before allocating new ones. */
+	private int[] freeSlots = new int[DEFAULT_CAPACITY];
+
+	/** The number of released slots. */
+	private int numFreeSlots = 0;
+
+	/**
+	 * Instantiates a new {@link BookStoreCounters} with the default capacity.
+	 */
+	public BookStoreCounters() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Instantiates a new {@link BookStoreCounters}.
+	 *
+	 * @param capacity
+	 *            the initial number of slots
+	 */
+	public BookStoreCounters(int capacity) {
+		numCopies = new AtomicIntegerArray(capacity);
+		numHeldCopies = new int[capacity];
+		totalRating = new long[capacity];
+		numTimesRated = new long[capacity];
+		numSaleMisses = new long[capacity];
+		editorPick = new boolean[capacity];
+	}
+
+	/**
+	 * Allocates a zeroed slot.
+	 *
+	 * @return the slot
+	 */
+	public int allocate() {
+		int slot;
+
+		if (numFreeSlots > 0) {
+			slot = freeSlots[--numFreeSlots];
+		} else {
+			if (numSlots == numHeldCopies.length) {
+				grow(Math.max(DEFAULT_CAPACITY, numSlots << 1));
+			}
+
+			slot = numSlots++;
+		}
+
+		return slot;
+	}
+
+	/**
+	 * Releases the slot of a removed book.
+	 *
+	 * @param slot
+	 *            the slot
+	 */
+	public void release(int slot) {
+		numCopies.set(slot, 0);
+		numHeldCopies[slot] = 0;
+		totalRating[slot] = 0;
+		numTimesRated[slot] = 0;
+		numSaleMisses[slot] = 0;
+		editorPick[slot] = false;
+
+		if (numFreeSlots == freeSlots.length) {
+			freeSlots = Arrays.copyOf(freeSlots, numFreeSlots << 1);
+		}
+
+		freeSlots[numFreeSlots++] = slot;
+	}
+
+	/**
+	 * Releases all the slots.
+	 */
+	public void clear() {
+		numCopies = new AtomicIntegerArray(numHeldCopies.length);
+		Arrays.fill(numHeldCopies, 0, numSlots, 0);
+		Arrays.fill(totalRating, 0, numSlots, 0);
+		Arrays.fill(numTimesRated, 0, numSlots, 0);
+		Arrays.fill(numSaleMisses, 0, numSlots, 0);
+		Arrays.fill(editorPick, 0, numSlots, false);
+		numSlots = 0;
+		numFreeSlots = 0;
+	}
+
+	/**
+	 * Gets the number of copies.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @return the number of copies
+	 */
+	public int getNumCopies(int slot) {
+		return numCopies.get(slot);
+	}
+
+	/**
+	 * Sets the number of copies.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @param value
+	 *            the number of copies
+	 */
+	public void setNumCopies(int slot, int value) {
+		numCopies.set(slot, value);
+	}
+
+	/**
+	 * Sets the number of copies to <code>value</code> if it is
+	 * <code>expected</code>.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @param expected
+	 *            the expected number of copies
+	 * @param value
+	 *            the new number of copies
+	 * @return true, if the number of copies was set
+	 */
+	public boolean compareAndSetNumCopies(int slot, int expected, int value) {
+		return numCopies.compareAndSet(slot, expected, value);
+	}
+
+	/**
+	 * Gets the number of copies held by reservations.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @return the number of copies held
+	 */
+	public int getNumHeldCopies(int slot) {
+		return numHeldCopies[slot];
+	}
+
+	/**
+	 * Sets the number of copies held by reservations.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @param value
+	 *            the number of copies held
+	 */
+	public void setNumHeldCopies(int slot, int value) {
+		numHeldCopies[slot] = value;
+	}
+
+	/**
+	 * Gets the total rating.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @return the total rating
+	 */
+	public long getTotalRating(int slot) {
+		return totalRating[slot];
+	}
+
+	/**
+	 * Sets the total rating.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @param value
+	 *            the total rating
+	 */
+	public void setTotalRating(int slot, long value) {
+		totalRating[slot] = value;
+	}
+
+	/**
+	 * Gets the number of times rated.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @return the number of times rated
+	 */
+	public long getNumTimesRated(int slot) {
+		return numTimesRated[slot];
+	}
+
+	/**
+	 * Sets the number of times rated.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @param value
+	 *            the number of times rated
+	 */
+	public void setNumTimesRated(int slot, long value) {
+		numTimesRated[slot] = value;
+	}
+
+	/**
+	 * Gets the number of sale misses.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @return the number of sale misses
+	 */
+	public long getNumSaleMisses(int slot) {
+		return numSaleMisses[slot];
+	}
+
+	/**
+	 * Sets the number of sale misses.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @param value
+	 *            the number of sale misses
+	 */
+	public void setNumSaleMisses(int slot, long value) {
+		numSaleMisses[slot] = value;
+	}
+
+	/**
+	 * Checks if the book is editor picked.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @return true, if it is editor picked
+	 */
+	public boolean isEditorPick(int slot) {
+		return editorPick[slot];
+	}
+
+	/**
+	 * Sets whether the book is editor picked.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @param value
+	 *            true, if it is editor picked
+	 */
+	public void setEditorPick(int slot, boolean value) {
+		editorPick[slot] = value;
+	}
+
+	/**
+	 * Grows the arrays.
+	 *
+	 * @param capacity
+	 *            the new number of slots
+	 */
+	private void grow(int capacity) {
+		AtomicIntegerArray newNumCopies = new AtomicIntegerArray(capacity);
+
+		for (int slot = 0; slot < numSlots; slot++) {
+			newNumCopies.set(slot, numCopies.get(slot));
+		}
+
+		numCopies = newNumCopies;
+		numHeldCopies = Arrays.copyOf(numHeldCopies, capacity);
+		totalRating = Arrays.copyOf(totalRating, capacity);
+		numTimesRated = Arrays.copyOf(numTimesRated, capacity);
+		numSaleMisses = Arrays.copyOf(numSaleMisses, capacity);
+		editorPick = Arrays.copyOf(editorPick, capacity);
+	}
+}
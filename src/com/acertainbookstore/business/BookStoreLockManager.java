@@ -0,0 +1,186 @@
+package com.acertainbookstore.business;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * {@link BookStoreLockManager} hands out the locks used by
+ * {@link CertainBookStore}. The catalog lock protects the set of books in the
+ * store (adding and removing books), while the state of the individual books is
+ * protected by a fixed number of read/write locks striped by ISBN.
+ *
+ * Operations on existing books hold the catalog lock in shared mode and then
+ * lock the stripes of the ISBNs they touch. Stripes are always acquired in
+ * ascending order, so that two multi-book operations can never deadlock.
+ *
+ * Only the writers lock, the readers read the snapshots published by the
+ * writers without locking.
+ */
+public class BookStoreLockManager {
+
+	/** The default number of lock stripes. */
+	private static final int DEFAULT_NUM_STRIPES = 256;
+
+	/** The lock protecting the set of books in the store. */
+	private final ReentrantReadWriteLock catalogLock;
+
+	/** The locks protecting the books, striped by ISBN. */
+	private final ReentrantReadWriteLock[] stripes;
+
+	/** The mask used to map a hashed ISBN to a stripe. */
+	private final int stripeMask;
+
+	/**
+	 * Instantiates a new {@link BookStoreLockManager} with the default number
+	 * of stripes.
+	 */
+	public BookStoreLockManager() {
+		this(DEFAULT_NUM_STRIPES);
+	}
+
+	/**
+	 * Instantiates a new {@link BookStoreLockManager}.
+	 *
+	 * @param numStripes
+	 *            the number of stripes, rounded up to a power of two
+	 */
+	public BookStoreLockManager(int numStripes) {
+		int size = Integer.highestOneBit(Math.max(1, numStripes - 1)) << 1;
+
+		catalogLock = new ReentrantReadWriteLock();
+		stripes = new ReentrantReadWriteLock[size];
+		stripeMask = size - 1;
+
+		for (int i = 0; i < size; i++) {
+			stripes[i] = new ReentrantReadWriteLock();
+		}
+	}
+
+	/**
+	 * Locks the catalog.
+	 *
+	 * @param exclusive
+	 *            true to add or remove books, false to work on existing books
+	 */
+	public void lockCatalog(boolean exclusive) {
+		if (exclusive) {
+			catalogLock.writeLock().lock();
+		} else {
+			catalogLock.readLock().lock();
+		}
+	}
+
+	/**
+	 * Unlocks the catalog.
+	 *
+	 * @param exclusive
+	 *            whether the catalog was locked exclusively
+	 */
+	public void unlockCatalog(boolean exclusive) {
+		if (exclusive) {
+			catalogLock.writeLock().unlock();
+		} else {
+			catalogLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Locks the stripes covering the given ISBNs in ascending stripe order.
+	 *
+	 * @param isbns
+	 *            the ISBNs
+	 * @param exclusive
+	 *            true to modify the books, false to read them
+	 * @return the locked stripes, to be passed to {@link #unlockStripes}
+	 */
+	public int[] lockISBNs(int[] isbns, boolean exclusive) {
+		int[] lockedStripes = new int[isbns.length];
+
+		for (int i = 0; i < isbns.length; i++) {
+			lockedStripes[i] = stripeOf(isbns[i]);
+		}
+
+		Arrays.sort(lockedStripes);
+
+		// Remove the duplicated stripes, a stripe is locked only once.
+		int numStripes = 0;
+
+		for (int i = 0; i < lockedStripes.length; i++) {
+			if (i == 0 || lockedStripes[i] != lockedStripes[i - 1]) {
+				lockedStripes[numStripes++] = lockedStripes[i];
+			}
+		}
+
+		lockedStripes = Arrays.copyOf(lockedStripes, numStripes);
+
+		for (int stripe : lockedStripes) {
+			lockStripe(stripe, exclusive);
+		}
+
+		return lockedStripes;
+	}
+
+	/**
+	 * Locks all the stripes in ascending order.
+	 *
+	 * @param exclusive
+	 *            true to modify the books, false to read them
+	 * @return the locked stripes, to be passed to {@link #unlockStripes}
+	 */
+	public int[] lockAllISBNs(boolean exclusive) {
+		int[] lockedStripes = new int[stripes.length];
+
+		for (int i = 0; i < stripes.length; i++) {
+			lockedStripes[i] = i;
+			lockStripe(i, exclusive);
+		}
+
+		return lockedStripes;
+	}
+
+	/**
+	 * Unlocks the stripes in the reverse order of acquisition.
+	 *
+	 * @param lockedStripes
+	 *            the locked stripes
+	 * @param exclusive
+	 *            whether the stripes were locked exclusively
+	 */
+	public void unlockStripes(int[] lockedStripes, boolean exclusive) {
+		for (int i = lockedStripes.length - 1; i >= 0; i--) {
+			if (exclusive) {
+				stripes[lockedStripes[i]].writeLock().unlock();
+			} else {
+				stripes[lockedStripes[i]].readLock().unlock();
+			}
+		}
+	}
+
+	/**
+	 * Locks a single stripe.
+	 *
+	 * @param stripe
+	 *            the stripe
+	 * @param exclusive
+	 *            whether to lock the stripe exclusively
+	 */
+	private void lockStripe(int stripe, boolean exclusive) {
+		if (exclusive) {
+			stripes[stripe].writeLock().lock();
+		} else {
+			stripes[stripe].readLock().lock();
+		}
+	}
+
+	/**
+	 * Maps an ISBN to its stripe, spreading consecutive ISBNs over the stripes.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the stripe
+	 */
+	private int stripeOf(int isbn) {
+		int hash = isbn * 0x9E3779B9;
+		return (hash ^ (hash >>> 16)) & stripeMask;
+	}
+}
@@ -2,32 +2,144 @@ package com.acertainbookstore.business;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+import java.util.function.ObjIntConsumer;
+import java.util.function.ToIntFunction;
 
 import com.acertainbookstore.interfaces.BookStore;
 import com.acertainbookstore.interfaces.StockManager;
 import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreResult;
 import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.IntHashMap;
+import com.acertainbookstore.utils.TimerWheel;
 
 /**
  * {@link CertainBookStore} implements the {@link BookStore} and
  * {@link StockManager} functionalities.
  * 
+ * Adding and removing books locks the whole catalog, all the other operations
+ * only lock the ISBNs they touch (cf. {@link BookStoreLockManager}), so that
+ * operations on disjoint sets of books run in parallel. Orders of a single book
+ * only lock it in shared mode, so that concurrent buyers of a popular book do
+ * not queue behind each other.
+ * 
+ * Reserved copies are held out of the available stock until the reservation
+ * is committed or cancelled, pending reservations expiring on a timer wheel
+ * (cf. {@link TimerWheel}).
+ * 
+ * Every write that changes the store publishes a new snapshot, numbered by the
+ * snapshot id, together with the new versions of the books it changed. The
+ * writes take their snapshot ids from an atomic counter, and the snapshots
+ * become visible in order as their writes complete. Readers
+ * read the versions of the latest snapshot without taking any lock, neither
+ * the catalog lock nor the locks of the books, so they never wait for the
+ * writers. The catalog and its indexes support readers running concurrently
+ * with their writer, and the versions of the books are kept for the readers
+ * of the last RETAINED_SNAPSHOTS snapshots.
+ * 
+ * The store can record the changes its writes commit to the books (cf.
+ * {@link BookChange}), which a master replicates, and a slave applies with
+ * {@link #applyChanges(Collection)} instead of running the writes again.
+ * 
  * @see BookStore
  * @see StockManager
  */
 public class CertainBookStore implements BookStore, StockManager {
 
 	/** The mapping of books from ISBN to {@link BookStoreBook}. */
-	private Map<Integer, BookStoreBook> bookMap = null;
+	private IntHashMap<BookStoreBook> bookMap = null;
+
+	/** The mutable state of the books. */
+	private BookStoreCounters counters = null;
+
+	/** The books which are editor picks. */
+	private BookSetIndex editorPicks = null;
+
+	/** The books which had sale misses. */
+	private BookSetIndex booksInDemand = null;
+
+	/** The rated books by average rating. */
+	private TopRatedIndex topRated = null;
+
+	/** The words of the titles and authors of the books. */
+	private SearchIndex searchIndex = null;
+
+	/** The books by ISBN. */
+	private SortedBookIndex isbnIndex = null;
+
+	/** The books by price then ISBN. */
+	private SortedBookIndex priceIndex = null;
+
+	/** The pending reservations by id. */
+	private final Map<Long, BookReservation> reservations = new ConcurrentHashMap<>();
+
+	/** The id of the latest reservation. */
+	private final AtomicLong lastReservationId = new AtomicLong();
+
+	/** The timers of the pending reservations. */
+	private final TimerWheel reservationTimer = new TimerWheel(RESERVATION_TICK_MILLIS, RESERVATION_TIMER_SLOTS,
+			this::expireReservation);
+
+	/** The handler of the expired reservations, null if they never expire. */
+	private volatile LongConsumer reservationExpiryHandler = this::cancelExpiredReservation;
+
+	/** The locks protecting the catalog and the books. */
+	private BookStoreLockManager lockManager = null;
+
+	/**
+	 * The number of snapshots whose versions of the books are kept, a reader
+	 * of an older snapshot reading the latest snapshot again.
+	 */
+	private static final long RETAINED_SNAPSHOTS = 64;
+
+	/** The precision of the expiry of the reservations in milliseconds. */
+	private static final long RESERVATION_TICK_MILLIS = 100;
+
+	/** The number of slots of the reservation timer wheel. */
+	private static final int RESERVATION_TIMER_SLOTS = 512;
+
+	/** The id of the latest snapshot handed out to a commit. */
+	private final AtomicLong lastSnapshotId = new AtomicLong();
+
+	/**
+	 * The id of the latest snapshot visible to the readers, the commits of
+	 * this snapshot and of all the previous ones being complete.
+	 */
+	private volatile long snapshotId = 0;
+
+	/**
+	 * The changes committed and not drained yet by snapshot id, null unless
+	 * the changes are recorded.
+	 */
+	private volatile ConcurrentSkipListMap<Long, List<RecordedChange>> committedChanges = null;
+
+	/**
+	 * The id of the snapshot the changes were last drained up to, whose
+	 * versions are kept until the next drain. It only moves forward, so that
+	 * a commit reading an older id keeps more versions.
+	 */
+	private volatile long drainedSnapshotId = Long.MAX_VALUE;
+
+	/**
+	 * The books loaded from a snapshot and not published yet, modified while
+	 * holding the catalog lock exclusively.
+	 */
+	private final List<BookStoreBook> loadedBooks = new ArrayList<>();
+
+	/** The ISBNs of the books which are hot when they are added. */
+	private volatile Set<Integer> hotISBNs = Collections.emptySet();
 
 	/**
 	 * Instantiates a new {@link CertainBookStore}.
@@ -35,7 +147,552 @@ public class CertainBookStore implements BookStore, StockManager {
 	public CertainBookStore() {
 
 		// Constructors are not synchronized
-		bookMap = new HashMap<>();
+		bookMap = new IntHashMap<>();
+		lockManager = new BookStoreLockManager();
+		counters = new BookStoreCounters();
+		editorPicks = new BookSetIndex(BookStoreBook::isEditorPick);
+		booksInDemand = new BookSetIndex(BookStoreBook::hadSaleMiss);
+		topRated = new TopRatedIndex();
+		searchIndex = new SearchIndex();
+		isbnIndex = new SortedBookIndex(BookStoreBook::getISBN);
+		priceIndex = new SortedBookIndex(book -> BookStoreUtility.getPriceCursor(book.getPrice(), book.getISBN()));
+	}
+
+	/**
+	 * Collects the ISBNs of the elements of a collection, which are the books
+	 * to be locked by an operation.
+	 * 
+	 * @param elements
+	 *            the elements
+	 * @param isbnOf
+	 *            the function returning the ISBN of an element
+	 * @return the ISBNs
+	 */
+	private static <T> int[] isbnsOf(Collection<T> elements, ToIntFunction<T> isbnOf) {
+		int[] isbns = new int[elements.size()];
+		int i = 0;
+
+		for (T element : elements) {
+			isbns[i++] = isbnOf.applyAsInt(element);
+		}
+
+		return isbns;
+	}
+
+	/**
+	 * Gets the id of the latest snapshot visible to the readers.
+	 *
+	 * @return the snapshot id
+	 */
+	public long getSnapshotId() {
+		return snapshotId;
+	}
+
+	/**
+	 * Moves the snapshot id forward, so that the snapshot ids of a slave follow
+	 * the sequence numbers of the batches replicated by the master. The
+	 * snapshot id never moves backwards. Must not run concurrently with the
+	 * writes.
+	 *
+	 * @param newSnapshotId
+	 *            the new snapshot id
+	 */
+	public void advanceSnapshotId(long newSnapshotId) {
+		if (newSnapshotId > snapshotId) {
+			lastSnapshotId.set(newSnapshotId);
+			snapshotId = newSnapshotId;
+		}
+	}
+
+	/**
+	 * Publishes a new snapshot containing the new versions of the books, and
+	 * updates the editor picks, books in demand and top rated books
+	 * accordingly. Must be called while holding the locks of the books, or of
+	 * the catalog. The readers do not lock, and read the snapshot published
+	 * before or after the commit.
+	 *
+	 * @param books
+	 *            the books changed by the write
+	 */
+	private void commit(Collection<BookStoreBook> books) {
+		commit(books, Collections.emptyList());
+	}
+
+	/**
+	 * Publishes a new snapshot as {@link #commit(Collection)} does, removes the
+	 * removed books from the editor picks, books in demand and top rated
+	 * books, and records the changes of the books if the changes are recorded.
+	 * 
+	 * The snapshot id is handed out by an atomic counter, and the new versions
+	 * of the books are published with a compare-and-set, so that commits of
+	 * disjoint books, and buyers of the same book, run concurrently. Only the
+	 * books whose editor pick, sale misses or rating changed are updated in
+	 * the indexes, so that a buy never waits for the lock of an index.
+	 *
+	 * @param books
+	 *            the books changed or added by the write
+	 * @param removedBooks
+	 *            the books removed by the write
+	 */
+	private void commit(Collection<BookStoreBook> books, Collection<BookStoreBook> removedBooks) {
+		long commitSnapshotId = lastSnapshotId.incrementAndGet();
+
+		try {
+			List<RecordedChange> changes = new ArrayList<>();
+
+			// The removed books go first, a book added by the same write may
+			// have taken the slot of a removed book.
+			for (BookStoreBook book : removedBooks) {
+				book.unpublish(commitSnapshotId);
+				editorPicks.remove(book);
+				booksInDemand.remove(book);
+				topRated.remove(book);
+			}
+
+			for (BookStoreBook book : books) {
+				StockBook before = book.getLatestVersion();
+				StockBook after = book.publishVersion(commitSnapshotId, retainedSnapshotId(commitSnapshotId));
+
+				// An unchanged book publishes no version, and has no change.
+				if (after == null) {
+					continue;
+				}
+
+				if (before == null || isIndexedDifferently(before, after)) {
+					editorPicks.update(book);
+					booksInDemand.update(book);
+					topRated.update(book);
+				}
+
+				changes.add(new RecordedChange(book, before == null, false));
+			}
+
+			for (BookStoreBook book : removedBooks) {
+				changes.add(new RecordedChange(book, false, true));
+			}
+
+			recordChanges(commitSnapshotId, changes);
+		} finally {
+			publishSnapshot(commitSnapshotId);
+		}
+	}
+
+	/**
+	 * Publishes a new snapshot in which copies of a book were taken by a buyer
+	 * holding the lock of the book in shared mode, as {@link #commit(Collection)}
+	 * does. The state of the book is not read, so that the shards of a hot book
+	 * are not summed, and the indexes are left as they are since a buy changes
+	 * none of them.
+	 *
+	 * @param book
+	 *            the book
+	 * @param numCopies
+	 *            the number of copies taken
+	 */
+	private void commitCopiesTaken(BookStoreBook book, int numCopies) {
+		long commitSnapshotId = lastSnapshotId.incrementAndGet();
+
+		try {
+			if (book.publishCopiesTaken(commitSnapshotId, retainedSnapshotId(commitSnapshotId), numCopies) != null) {
+				recordChanges(commitSnapshotId, Collections.singletonList(new RecordedChange(book, false, false)));
+			}
+		} finally {
+			publishSnapshot(commitSnapshotId);
+		}
+	}
+
+	/**
+	 * Gets the oldest snapshot whose versions a commit keeps: the snapshots
+	 * recently read, and the snapshot being drained.
+	 *
+	 * @param commitSnapshotId
+	 *            the id of the snapshot of the commit
+	 * @return the id of the oldest snapshot kept
+	 */
+	private long retainedSnapshotId(long commitSnapshotId) {
+		return Math.min(commitSnapshotId - RETAINED_SNAPSHOTS, drainedSnapshotId);
+	}
+
+	/**
+	 * Records the changes of a commit, if the changes are recorded.
+	 *
+	 * @param commitSnapshotId
+	 *            the id of the snapshot of the commit
+	 * @param changes
+	 *            the changes
+	 */
+	private void recordChanges(long commitSnapshotId, List<RecordedChange> changes) {
+		Map<Long, List<RecordedChange>> recordedChanges = committedChanges;
+
+		if (recordedChanges != null && !changes.isEmpty()) {
+			recordedChanges.put(commitSnapshotId, changes);
+		}
+	}
+
+	/**
+	 * Checks if two versions of a book belong to different editor picks, books
+	 * in demand or top rated books.
+	 *
+	 * @param before
+	 *            the previous version
+	 * @param after
+	 *            the new version
+	 * @return true, if the indexes of the book must be updated
+	 */
+	private static boolean isIndexedDifferently(StockBook before, StockBook after) {
+		return before.isEditorPick() != after.isEditorPick()
+				|| (before.getNumSaleMisses() > 0) != (after.getNumSaleMisses() > 0)
+				|| before.getNumTimesRated() != after.getNumTimesRated()
+				|| before.getTotalRating() != after.getTotalRating();
+	}
+
+	/**
+	 * Makes a snapshot visible to the readers once the snapshots before it
+	 * are, so that the readers of a snapshot read all the commits up to it.
+	 * Returns once the snapshot is visible, so that a writer reads its own
+	 * write. The commits of the previous snapshots hold the locks they need
+	 * already, so the wait is short.
+	 *
+	 * @param commitSnapshotId
+	 *            the id of the snapshot, whose commit is complete
+	 */
+	private void publishSnapshot(long commitSnapshotId) {
+		while (snapshotId != commitSnapshotId - 1) {
+			Thread.yield();
+		}
+
+		snapshotId = commitSnapshotId;
+	}
+
+	/**
+	 * Starts or stops recording the changes committed to the books.
+	 *
+	 * @param record
+	 *            true to record the changes
+	 */
+	public void setRecordChanges(boolean record) {
+		drainedSnapshotId = record ? snapshotId : Long.MAX_VALUE;
+		committedChanges = record ? new ConcurrentSkipListMap<>() : null;
+	}
+
+	/**
+	 * Returns the changes committed by the snapshots up to a snapshot visible
+	 * to the readers, in the order of the snapshots, and forgets them. The
+	 * state of each changed book is its version in that snapshot, so that the
+	 * changes of concurrent buyers, published out of order, add up.
+	 *
+	 * @param upToSnapshotId
+	 *            the id of the latest snapshot drained, e.g. the current
+	 *            snapshot id, not older than the previous one
+	 * @return the changes, empty unless they are recorded
+	 */
+	public List<BookChange> drainCommittedChanges(long upToSnapshotId) {
+		ConcurrentSkipListMap<Long, List<RecordedChange>> recordedChanges = committedChanges;
+
+		if (recordedChanges == null) {
+			return Collections.emptyList();
+		}
+
+		// The commits reading the previous id keep the versions of the
+		// snapshot too, which is not older.
+		drainedSnapshotId = upToSnapshotId;
+		List<BookChange> changes = new ArrayList<>();
+		Map.Entry<Long, List<RecordedChange>> entry;
+
+		while ((entry = recordedChanges.firstEntry()) != null && entry.getKey() <= upToSnapshotId) {
+			for (RecordedChange change : entry.getValue()) {
+				changes.add(change.toBookChange(upToSnapshotId));
+			}
+
+			recordedChanges.remove(entry.getKey());
+		}
+
+		return changes;
+	}
+
+	/**
+	 * Applies changes committed by a master, in order, and publishes them as a
+	 * single snapshot. The changes are not checked: the writes which committed
+	 * them were validated by the master. Applying changes again is harmless,
+	 * as they set the state of the books rather than change it.
+	 * 
+	 * The catalog is locked exclusively only if books are added or removed,
+	 * the changes of the books in the catalog holding the locks of their
+	 * books, as the writes which committed them did on the master.
+	 *
+	 * @param changes
+	 *            the changes
+	 */
+	public void applyChanges(Collection<BookChange> changes) {
+		for (BookChange change : changes) {
+			if (change.getAddedBook() != null || change.isRemoved()) {
+				applyCatalogChanges(changes);
+				return;
+			}
+		}
+
+		lockManager.lockCatalog(false);
+		int[] lockedStripes = lockManager.lockISBNs(isbnsOf(changes, BookChange::getISBN), true);
+
+		try {
+			Set<BookStoreBook> updatedBooks = Collections.newSetFromMap(new IdentityHashMap<>());
+
+			for (BookChange change : changes) {
+				BookStoreBook book = bookMap.get(change.getISBN());
+
+				if (book != null) {
+					book.applyChange(change);
+					updatedBooks.add(book);
+				}
+			}
+
+			commit(updatedBooks);
+		} finally {
+			lockManager.unlockStripes(lockedStripes, true);
+			lockManager.unlockCatalog(false);
+		}
+	}
+
+	/**
+	 * Applies changes adding or removing books, as
+	 * {@link #applyChanges(Collection)} does, holding the catalog lock
+	 * exclusively.
+	 *
+	 * @param changes
+	 *            the changes
+	 */
+	private void applyCatalogChanges(Collection<BookChange> changes) {
+		lockManager.lockCatalog(true);
+
+		try {
+			Set<BookStoreBook> updatedBooks = Collections.newSetFromMap(new IdentityHashMap<>());
+			List<BookStoreBook> addedBooks = new ArrayList<>();
+			List<BookStoreBook> removedBooks = new ArrayList<>();
+			List<BookStoreBook> unindexedBooks = new ArrayList<>();
+
+			for (BookChange change : changes) {
+				if (change.getAddedBook() != null) {
+
+					// A book added again, e.g. removed and added back in a
+					// merged batch, replaces the book. The sorted indexes are
+					// updated in the order of the changes.
+					if (bookMap.containsKey(change.getISBN())) {
+						indexAddedBooks(addedBooks);
+						BookStoreBook replacedBook = unindexBook(change.getISBN());
+						removedBooks.add(replacedBook);
+						unindexedBooks.add(replacedBook);
+					}
+
+					indexRemovedBooks(removedBooks);
+					BookStoreBook book = insertBook(change.getAddedBook());
+					book.applyChange(change);
+					addedBooks.add(book);
+					updatedBooks.add(book);
+				} else if (change.isRemoved()) {
+					indexAddedBooks(addedBooks);
+					BookStoreBook book = unindexBook(change.getISBN());
+
+					if (book != null) {
+						removedBooks.add(book);
+						unindexedBooks.add(book);
+					}
+				} else {
+					BookStoreBook book = bookMap.get(change.getISBN());
+
+					if (book != null) {
+						book.applyChange(change);
+						updatedBooks.add(book);
+					}
+				}
+			}
+
+			indexAddedBooks(addedBooks);
+			indexRemovedBooks(removedBooks);
+
+			// The books removed after they were changed are not published.
+			updatedBooks.removeIf(book -> bookMap.get(book.getISBN()) != book);
+			commit(updatedBooks, unindexedBooks);
+		} finally {
+			lockManager.unlockCatalog(true);
+		}
+	}
+
+	/**
+	 * Loads books as they were in a snapshot of another store, e.g. a snapshot
+	 * of the master streamed to a slave, in that snapshot. The books are not
+	 * checked, and must not be in the store already. A snapshot is loaded in
+	 * several calls, e.g. page by page, and its books are only indexed once
+	 * they are all loaded, by {@link #publishLoadedBooks(long)}, so the store
+	 * must not be read until then.
+	 *
+	 * @param books
+	 *            the books
+	 * @param loadedSnapshotId
+	 *            the id of the snapshot the books were read from
+	 */
+	public void loadBooks(Collection<StockBook> books, long loadedSnapshotId) {
+		lockManager.lockCatalog(true);
+
+		try {
+			for (StockBook book : books) {
+				BookStoreBook loadedBook = newBook(book);
+				bookMap.put(book.getISBN(), loadedBook);
+				loadedBook.applyChange(BookChange.changed(book));
+				loadedBook.publishVersion(loadedSnapshotId, loadedSnapshotId);
+				loadedBooks.add(loadedBook);
+			}
+		} finally {
+			lockManager.unlockCatalog(true);
+		}
+	}
+
+	/**
+	 * Publishes the books loaded by {@link #loadBooks(Collection, long)} in the
+	 * snapshot they were read from. The indexes are built from all the books
+	 * at once, each sorted index being sorted a single time rather than merged
+	 * again for every page.
+	 *
+	 * @param loadedSnapshotId
+	 *            the id of the snapshot the books were read from
+	 */
+	public void publishLoadedBooks(long loadedSnapshotId) {
+		lockManager.lockCatalog(true);
+
+		try {
+			searchIndex.addAll(loadedBooks);
+			editorPicks.updateAll(loadedBooks);
+			booksInDemand.updateAll(loadedBooks);
+			topRated.updateAll(loadedBooks);
+			advanceSnapshotId(loadedSnapshotId);
+			indexAddedBooks(loadedBooks);
+		} finally {
+			lockManager.unlockCatalog(true);
+		}
+	}
+
+	/**
+	 * Inserts a new book in the catalog and in the search index, hot if its
+	 * ISBN is. Must be called while holding the catalog lock exclusively.
+	 *
+	 * @param book
+	 *            the book
+	 * @return the book inserted
+	 */
+	private BookStoreBook insertBook(StockBook book) {
+		BookStoreBook newBook = newBook(book);
+		bookMap.put(book.getISBN(), newBook);
+		searchIndex.add(newBook);
+		return newBook;
+	}
+
+	/**
+	 * Creates a new book, hot if its ISBN is.
+	 *
+	 * @param book
+	 *            the book
+	 * @return the new book
+	 */
+	private BookStoreBook newBook(StockBook book) {
+		BookStoreBook newBook = new BookStoreBook(book, counters);
+
+		if (hotISBNs.contains(book.getISBN())) {
+			newBook.setHot(true);
+		}
+
+		return newBook;
+	}
+
+	/**
+	 * Removes a book from the catalog and from the search index, the commit
+	 * removing it from the other indexes. Must be called while holding the
+	 * catalog lock exclusively.
+	 *
+	 * @param isbn
+	 *            the ISBN of the book
+	 * @return the book removed, null if there is none
+	 */
+	private BookStoreBook unindexBook(int isbn) {
+		BookStoreBook book = bookMap.remove(isbn);
+
+		if (book != null) {
+			searchIndex.remove(book);
+			counters.release(book.getSlot());
+		}
+
+		return book;
+	}
+
+	/**
+	 * Adds books to the sorted indexes, and clears the list.
+	 *
+	 * @param addedBooks
+	 *            the books added
+	 */
+	private void indexAddedBooks(List<BookStoreBook> addedBooks) {
+		isbnIndex.addAll(addedBooks);
+		priceIndex.addAll(addedBooks);
+		addedBooks.clear();
+	}
+
+	/**
+	 * Removes books from the sorted indexes, and clears the list.
+	 *
+	 * @param removedBooks
+	 *            the books removed
+	 */
+	private void indexRemovedBooks(List<BookStoreBook> removedBooks) {
+		isbnIndex.removeAll(removedBooks);
+		priceIndex.removeAll(removedBooks);
+		removedBooks.clear();
+	}
+
+	/**
+	 * Reads the versions of the books in the latest snapshot, without locking.
+	 * The books which the snapshot does not read, because they were added
+	 * since, are read as null. If the snapshot is so old that the version of a
+	 * book is no longer kept, the books are read again in the latest snapshot.
+	 *
+	 * @param books
+	 *            the books
+	 * @param versions
+	 *            the array receiving the versions of the books
+	 * @return the id of the snapshot which was read
+	 */
+	private long readVersions(List<BookStoreBook> books, StockBook[] versions) {
+		while (true) {
+			long readSnapshotId = snapshotId;
+			int i = 0;
+
+			while (i < versions.length) {
+				BookStoreBook book = books.get(i);
+
+				if (!book.isPublishedIn(readSnapshotId)) {
+					versions[i++] = null;
+				} else if ((versions[i] = book.getVersion(readSnapshotId)) != null) {
+					i++;
+				} else {
+					break;
+				}
+			}
+
+			if (i == versions.length) {
+				return readSnapshotId;
+			}
+		}
+	}
+
+	/**
+	 * Gets the book of an ISBN, if the snapshot reads it.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @param readSnapshotId
+	 *            the id of the snapshot
+	 * @return the book, null if there is none in the snapshot
+	 */
+	private BookStoreBook getPublishedBook(int isbn, long readSnapshotId) {
+		BookStoreBook book = bookMap.get(isbn);
+		return book != null && book.isPublishedIn(readSnapshotId) ? book : null;
 	}
 
 	/*
@@ -44,47 +701,59 @@ public class CertainBookStore implements BookStore, StockManager {
 	 * @see
 	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
 	 */
-	public synchronized void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
 		if (bookSet == null) {
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
-		// Check if all are there
-		for (StockBook book : bookSet) {
-			int isbn = book.getISBN();
-			String bookTitle = book.getTitle();
-			String bookAuthor = book.getAuthor();
-			int noCopies = book.getNumCopies();
-			float bookPrice = book.getPrice();
+		lockManager.lockCatalog(true);
 
-			if (BookStoreUtility.isInvalidISBN(isbn)) {
-				throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
-			}
+		try {
 
-			if (BookStoreUtility.isEmpty(bookTitle)) {
-				throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
-			}
+			// Check if all are there
+			for (StockBook book : bookSet) {
+				int isbn = book.getISBN();
+				String bookTitle = book.getTitle();
+				String bookAuthor = book.getAuthor();
+				int noCopies = book.getNumCopies();
+				float bookPrice = book.getPrice();
 
-			if (BookStoreUtility.isEmpty(bookAuthor)) {
-				throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
-			}
+				if (BookStoreUtility.isInvalidISBN(isbn)) {
+					throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+				}
 
-			if (BookStoreUtility.isInvalidNoCopies(noCopies)) {
-				throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
-			}
+				if (BookStoreUtility.isEmpty(bookTitle)) {
+					throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+				}
+
+				if (BookStoreUtility.isEmpty(bookAuthor)) {
+					throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+				}
 
-			if (bookPrice < 0.0) {
-				throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+				if (BookStoreUtility.isInvalidNoCopies(noCopies)) {
+					throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+				}
+
+				if (bookPrice < 0.0) {
+					throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+				}
+
+				if (bookMap.containsKey(isbn)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
+				}
 			}
 
-			if (bookMap.containsKey(isbn)) {
-				throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
+			List<BookStoreBook> newBooks = new ArrayList<>();
+
+			for (StockBook book : bookSet) {
+				newBooks.add(insertBook(book));
 			}
-		}
 
-		for (StockBook book : bookSet) {
-			int isbn = book.getISBN();
-			bookMap.put(isbn, new BookStoreBook(book));
+			isbnIndex.addAll(newBooks);
+			priceIndex.addAll(newBooks);
+			commit(newBooks);
+		} finally {
+			lockManager.unlockCatalog(true);
 		}
 	}
 
@@ -94,7 +763,7 @@ public class CertainBookStore implements BookStore, StockManager {
 	 * @see
 	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
 	 */
-	public synchronized void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
 		int isbn;
 		int numCopies;
 
@@ -102,31 +771,43 @@ public class CertainBookStore implements BookStore, StockManager {
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
-		for (BookCopy bookCopy : bookCopiesSet) {
-			isbn = bookCopy.getISBN();
-			numCopies = bookCopy.getNumCopies();
+		lockManager.lockCatalog(false);
+		int[] lockedStripes = lockManager.lockISBNs(isbnsOf(bookCopiesSet, BookCopy::getISBN), true);
 
-			if (BookStoreUtility.isInvalidISBN(isbn)) {
-				throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
-			}
+		try {
+			for (BookCopy bookCopy : bookCopiesSet) {
+				isbn = bookCopy.getISBN();
+				numCopies = bookCopy.getNumCopies();
 
-			if (!bookMap.containsKey(isbn)) {
-				throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.NOT_AVAILABLE);
-			}
+				if (BookStoreUtility.isInvalidISBN(isbn)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+				}
+
+				if (!bookMap.containsKey(isbn)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.NOT_AVAILABLE);
+				}
 
-			if (BookStoreUtility.isInvalidNoCopies(numCopies)) {
-				throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+				if (BookStoreUtility.isInvalidNoCopies(numCopies)) {
+					throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+				}
 			}
-		}
 
-		BookStoreBook book;
+			BookStoreBook book;
+			List<BookStoreBook> updatedBooks = new ArrayList<>();
+
+			// Update the number of copies
+			for (BookCopy bookCopy : bookCopiesSet) {
+				isbn = bookCopy.getISBN();
+				numCopies = bookCopy.getNumCopies();
+				book = bookMap.get(isbn);
+				book.addCopies(numCopies);
+				updatedBooks.add(book);
+			}
 
-		// Update the number of copies
-		for (BookCopy bookCopy : bookCopiesSet) {
-			isbn = bookCopy.getISBN();
-			numCopies = bookCopy.getNumCopies();
-			book = bookMap.get(isbn);
-			book.addCopies(numCopies);
+			commit(updatedBooks);
+		} finally {
+			lockManager.unlockStripes(lockedStripes, true);
+			lockManager.unlockCatalog(false);
 		}
 	}
 
@@ -135,15 +816,87 @@ public class CertainBookStore implements BookStore, StockManager {
 	 * 
 	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
 	 */
-	public synchronized List<StockBook> getBooks() {
+	@SuppressWarnings("unchecked")
+	public List<StockBook> getBooks() {
+		return (List<StockBook>) getStockBooksSnapshot().getList();
+	}
+
+	/**
+	 * Gets the list of books in the bookstore together with the snapshot they
+	 * were read from.
+	 *
+	 * @return the book store result
+	 */
+	public BookStoreResult getStockBooksSnapshot() {
+		List<BookStoreBook> books = bookMap.values();
+		StockBook[] versions = new StockBook[books.size()];
+		long readSnapshotId = readVersions(books, versions);
+
 		List<StockBook> listBooks = new ArrayList<>();
-		Collection<BookStoreBook> bookMapValues = bookMap.values();
 
-		for (BookStoreBook book : bookMapValues) {
-			listBooks.add(book.immutableStockBook());
+		for (StockBook version : versions) {
+			if (version != null) {
+				listBooks.add(version);
+			}
+		}
+
+		return new BookStoreResult(listBooks, readSnapshotId);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks(int, int)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<StockBook> getBooks(int afterISBN, int numBooks) throws BookStoreException {
+		return (List<StockBook>) getStockBooksSnapshot(afterISBN, numBooks).getList();
+	}
+
+	/**
+	 * Gets a page of the books in the bookstore, by increasing ISBN, together
+	 * with the snapshot they were read from. Only the books of the page are
+	 * copied. The books added since the snapshot are left out of the page, so
+	 * that a page may hold less than <code>numBooks</code> books although more
+	 * books follow it, but it is only empty after the last book.
+	 *
+	 * @param afterISBN
+	 *            the last ISBN of the previous page, or 0 for the first page
+	 * @param numBooks
+	 *            the maximum number of books in the page
+	 * @return the book store result
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public BookStoreResult getStockBooksSnapshot(int afterISBN, int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException(BookStoreConstants.NUM_BOOKS + numBooks + BookStoreConstants.INVALID);
 		}
 
-		return listBooks;
+		List<StockBook> listBooks = new ArrayList<>();
+		List<BookStoreBook> books;
+		long readSnapshotId;
+		long firstISBN = (long) afterISBN + 1;
+
+		do {
+			books = isbnIndex.getRange(firstISBN, Integer.MAX_VALUE, numBooks);
+			StockBook[] versions = new StockBook[books.size()];
+			readSnapshotId = readVersions(books, versions);
+
+			for (StockBook version : versions) {
+				if (version != null) {
+					listBooks.add(version);
+				}
+			}
+
+			// A page of books all added since the snapshot is skipped.
+			if (!books.isEmpty()) {
+				firstISBN = (long) books.get(books.size() - 1).getISBN() + 1;
+			}
+		} while (listBooks.isEmpty() && books.size() == numBooks && numBooks > 0);
+
+		return new BookStoreResult(listBooks, readSnapshotId);
 	}
 
 	/*
@@ -153,7 +906,7 @@ public class CertainBookStore implements BookStore, StockManager {
 	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
 	 * .Set)
 	 */
-	public synchronized void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
 
 		// Check that all ISBNs that we add/remove are there first.
 		if (editorPicks == null) {
@@ -162,79 +915,405 @@ public class CertainBookStore implements BookStore, StockManager {
 
 		int isbnValue;
 
-		for (BookEditorPick editorPickArg : editorPicks) {
-			isbnValue = editorPickArg.getISBN();
+		lockManager.lockCatalog(false);
+		int[] lockedStripes = lockManager.lockISBNs(isbnsOf(editorPicks, BookEditorPick::getISBN), true);
 
-			if (BookStoreUtility.isInvalidISBN(isbnValue)) {
-				throw new BookStoreException(BookStoreConstants.ISBN + isbnValue + BookStoreConstants.INVALID);
+		try {
+			for (BookEditorPick editorPickArg : editorPicks) {
+				isbnValue = editorPickArg.getISBN();
+
+				if (BookStoreUtility.isInvalidISBN(isbnValue)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + isbnValue + BookStoreConstants.INVALID);
+				}
+
+				if (!bookMap.containsKey(isbnValue)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + isbnValue + BookStoreConstants.NOT_AVAILABLE);
+				}
 			}
 
-			if (!bookMap.containsKey(isbnValue)) {
-				throw new BookStoreException(BookStoreConstants.ISBN + isbnValue + BookStoreConstants.NOT_AVAILABLE);
+			List<BookStoreBook> updatedBooks = new ArrayList<>();
+
+			for (BookEditorPick editorPickArg : editorPicks) {
+				BookStoreBook book = bookMap.get(editorPickArg.getISBN());
+				book.setEditorPick(editorPickArg.isEditorPick());
+				updatedBooks.add(book);
 			}
+
+			commit(updatedBooks);
+		} finally {
+			lockManager.unlockStripes(lockedStripes, true);
+			lockManager.unlockCatalog(false);
 		}
+	}
 
-		for (BookEditorPick editorPickArg : editorPicks) {
-			bookMap.get(editorPickArg.getISBN()).setEditorPick(editorPickArg.isEditorPick());
+	/**
+	 * Designates books as hot, or no longer hot. The copies of a hot book are
+	 * split over per-core shards (cf. {@link EscrowStock}), so that its buyers
+	 * running on different cores do not contend on a single counter. Hotness
+	 * only changes how copies are stored, the books read are the same.
+	 *
+	 * @param isbnSet
+	 *            the ISBNs of the books
+	 * @param hot
+	 *            true to designate the books as hot
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public void setHotBooks(Set<Integer> isbnSet, boolean hot) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lockManager.lockCatalog(false);
+		int[] lockedStripes = lockManager.lockISBNs(isbnsOf(isbnSet, Integer::intValue), true);
+
+		try {
+			for (Integer ISBN : isbnSet) {
+				if (BookStoreUtility.isInvalidISBN(ISBN)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+				}
+
+				if (!bookMap.containsKey(ISBN)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+				}
+			}
+
+			for (int isbn : isbnSet) {
+				bookMap.get(isbn).setHot(hot);
+			}
+		} finally {
+			lockManager.unlockStripes(lockedStripes, true);
+			lockManager.unlockCatalog(false);
 		}
 	}
 
+	/**
+	 * Sets the ISBNs of the books which are hot when they are added, e.g. the
+	 * hot books of the server properties, as if they were designated with
+	 * {@link #setHotBooks(Set, boolean)} once added.
+	 *
+	 * @param isbnSet
+	 *            the ISBNs
+	 */
+	public void setHotISBNs(Set<Integer> isbnSet) {
+		hotISBNs = new HashSet<>(isbnSet);
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
 	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
 	 */
-	public synchronized void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
 		if (bookCopiesToBuy == null) {
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
-		// Check that all ISBNs that we buy are there first.
-		int isbn;
-		BookStoreBook book;
-		Boolean saleMiss = false;
+		if (bookCopiesToBuy.size() == 1 && tryBuyBook(bookCopiesToBuy.iterator().next())) {
+			return;
+		}
+
+		takeCopies(bookCopiesToBuy, BookStoreBook::buyCopies);
+	}
+
+	/**
+	 * Takes copies of the books out of the available stock, either all of them
+	 * or none. If some copies are not available, the missing copies are
+	 * recorded as sale misses and the order fails.
+	 *
+	 * @param bookCopiesToTake
+	 *            the copies to take
+	 * @param take
+	 *            the function taking the copies from a book
+	 * @return the books the copies were taken from by ISBN
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private Map<Integer, BookStoreBook> takeCopies(Set<BookCopy> bookCopiesToTake,
+			ObjIntConsumer<BookStoreBook> take) throws BookStoreException {
+		lockManager.lockCatalog(false);
+		int[] lockedStripes = lockManager.lockISBNs(isbnsOf(bookCopiesToTake, BookCopy::getISBN), true);
 
-		Map<Integer, Integer> salesMisses = new HashMap<>();
+		try {
 
-		for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
-			isbn = bookCopyToBuy.getISBN();
+			// Check that all ISBNs that we buy are there first.
+			int isbn;
+			BookStoreBook book;
+			Boolean saleMiss = false;
 
-			if (bookCopyToBuy.getNumCopies() < 0) {
-				throw new BookStoreException(
-						BookStoreConstants.NUM_COPIES + bookCopyToBuy.getNumCopies() + BookStoreConstants.INVALID);
+			Map<Integer, Integer> salesMisses = new HashMap<>();
+
+			for (BookCopy bookCopyToTake : bookCopiesToTake) {
+				isbn = bookCopyToTake.getISBN();
+
+				if (bookCopyToTake.getNumCopies() < 0) {
+					throw new BookStoreException(
+							BookStoreConstants.NUM_COPIES + bookCopyToTake.getNumCopies() + BookStoreConstants.INVALID);
+				}
+
+				if (BookStoreUtility.isInvalidISBN(isbn)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+				}
+
+				if (!bookMap.containsKey(isbn)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.NOT_AVAILABLE);
+				}
+
+				book = bookMap.get(isbn);
+
+				if (!book.areCopiesInStore(bookCopyToTake.getNumCopies())) {
+					// If we cannot sell the copies of the book, it is a miss.
+					salesMisses.put(isbn, bookCopyToTake.getNumCopies() - book.getNumCopies());
+					saleMiss = true;
+				}
 			}
 
-			if (BookStoreUtility.isInvalidISBN(isbn)) {
-				throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+			// We throw exception now since we want to see how many books in the
+			// order incurred misses which is used by books in demand
+			List<BookStoreBook> updatedBooks = new ArrayList<>();
+
+			if (saleMiss) {
+				for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
+					book = bookMap.get(saleMissEntry.getKey());
+					book.addSaleMiss(saleMissEntry.getValue());
+					updatedBooks.add(book);
+				}
+
+				commit(updatedBooks);
+				throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
 			}
 
-			if (!bookMap.containsKey(isbn)) {
-				throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.NOT_AVAILABLE);
+			// Then take the copies.
+			Map<Integer, BookStoreBook> takenBooks = new HashMap<>();
+
+			for (BookCopy bookCopyToTake : bookCopiesToTake) {
+				book = bookMap.get(bookCopyToTake.getISBN());
+				take.accept(book, bookCopyToTake.getNumCopies());
+				updatedBooks.add(book);
+				takenBooks.put(book.getISBN(), book);
 			}
 
-			book = bookMap.get(isbn);
+			commit(updatedBooks);
+			return takenBooks;
+		} finally {
+			lockManager.unlockStripes(lockedStripes, true);
+			lockManager.unlockCatalog(false);
+		}
+	}
+
+	/**
+	 * Tries to buy the copies of a single book without locking it exclusively.
+	 * Concurrent buyers of the book only lock it in shared mode and decrement
+	 * its number of copies with a compare-and-set, while the writers changing
+	 * the book otherwise, including buyers of several books, still lock it
+	 * exclusively. Orders which cannot be served, because they are invalid or
+	 * would be sale misses, are left to the locking path, which reports them.
+	 *
+	 * @param bookCopyToBuy
+	 *            the copies to buy
+	 * @return true, if the copies were bought
+	 */
+	private boolean tryBuyBook(BookCopy bookCopyToBuy) {
+		int isbn = bookCopyToBuy.getISBN();
+		int numCopies = bookCopyToBuy.getNumCopies();
+
+		if (numCopies < 0 || BookStoreUtility.isInvalidISBN(isbn)) {
+			return false;
+		}
+
+		lockManager.lockCatalog(false);
+		int[] lockedStripes = lockManager.lockISBNs(new int[] { isbn }, false);
+
+		try {
+			BookStoreBook book = bookMap.get(isbn);
 
-			if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
-				// If we cannot sell the copies of the book, it is a miss.
-				salesMisses.put(isbn, bookCopyToBuy.getNumCopies() - book.getNumCopies());
-				saleMiss = true;
+			if (book == null || !book.tryBuyCopies(numCopies)) {
+				return false;
 			}
+
+			commitCopiesTaken(book, numCopies);
+			return true;
+		} finally {
+			lockManager.unlockStripes(lockedStripes, false);
+			lockManager.unlockCatalog(false);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStore#reserveBooks(java.util.Set,
+	 * long)
+	 */
+	public long reserveBooks(Set<BookCopy> bookCopiesToReserve, long ttlMillis) throws BookStoreException {
+		long reservationId = nextReservationId();
+		reserveBooks(new BookReservation(reservationId, bookCopiesToReserve, ttlMillis));
+		return reservationId;
+	}
+
+	/**
+	 * Reserves the copies of the books under the id of the reservation. The
+	 * copies are held, i.e. no longer available, either all of them or none,
+	 * and sale misses are recorded as for {@link #buyBooks(Set)}.
+	 *
+	 * @param reservation
+	 *            the reservation
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public void reserveBooks(BookReservation reservation) throws BookStoreException {
+		if (reservation == null || reservation.getBookCopies() == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		if (reservation.getTTLMillis() <= 0) {
+			throw new BookStoreException(
+					BookStoreConstants.TTL + reservation.getTTLMillis() + BookStoreConstants.INVALID);
+		}
+
+		if (reservations.containsKey(reservation.getReservationId())) {
+			throw new BookStoreException(
+					BookStoreConstants.RESERVATION + reservation.getReservationId() + BookStoreConstants.DUPLICATED);
+		}
+
+		reservation.setHeldBooks(takeCopies(reservation.getBookCopies(), BookStoreBook::holdCopies));
+		reservations.put(reservation.getReservationId(), reservation);
+
+		if (reservationExpiryHandler != null) {
+			reservationTimer.schedule(reservation.getReservationId(), reservation.getTTLMillis());
 		}
+	}
 
-		// We throw exception now since we want to see how many books in the
-		// order incurred misses which is used by books in demand
-		if (saleMiss) {
-			for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
-				book = bookMap.get(saleMissEntry.getKey());
-				book.addSaleMiss(saleMissEntry.getValue());
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStore#commitReservation(long)
+	 */
+	public void commitReservation(long reservationId) throws BookStoreException {
+		endReservation(reservationId, true);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStore#cancelReservation(long)
+	 */
+	public void cancelReservation(long reservationId) throws BookStoreException {
+		endReservation(reservationId, false);
+	}
+
+	/**
+	 * Ends a pending reservation, selling the copies it holds or putting them
+	 * back in the available stock. The copies held on a book removed since
+	 * the reservation went with it, even if a book with the same ISBN was
+	 * added again, so the reservation can no longer be committed: the copies
+	 * held on its other books are put back in stock and the commit fails.
+	 *
+	 * @param reservationId
+	 *            the reservation id
+	 * @param sell
+	 *            true to sell the copies, false to put them back in stock
+	 * @throws BookStoreException
+	 *             if the reservation is not pending, or if it is committed
+	 *             and one of its books was removed
+	 */
+	private void endReservation(long reservationId, boolean sell) throws BookStoreException {
+		BookReservation reservation = reservations.remove(reservationId);
+
+		if (reservation == null) {
+			throw new BookStoreException(
+					BookStoreConstants.RESERVATION + reservationId + BookStoreConstants.NOT_AVAILABLE);
+		}
+
+		Set<BookCopy> bookCopies = reservation.getBookCopies();
+		Map<Integer, BookStoreBook> heldBooks = reservation.getHeldBooks();
+		lockManager.lockCatalog(false);
+		int[] lockedStripes = lockManager.lockISBNs(isbnsOf(bookCopies, BookCopy::getISBN), true);
+
+		try {
+			Integer removedISBN = null;
+
+			for (BookCopy bookCopy : bookCopies) {
+				if (bookMap.get(bookCopy.getISBN()) != heldBooks.get(bookCopy.getISBN())) {
+					removedISBN = bookCopy.getISBN();
+				}
 			}
-			throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+
+			List<BookStoreBook> updatedBooks = new ArrayList<>();
+
+			for (BookCopy bookCopy : bookCopies) {
+				BookStoreBook book = heldBooks.get(bookCopy.getISBN());
+
+				if (bookMap.get(bookCopy.getISBN()) == book) {
+					if (sell && removedISBN == null) {
+						book.sellHeldCopies(bookCopy.getNumCopies());
+					} else {
+						book.releaseHeldCopies(bookCopy.getNumCopies());
+					}
+
+					updatedBooks.add(book);
+				}
+			}
+
+			commit(updatedBooks);
+
+			if (sell && removedISBN != null) {
+				throw new BookStoreException(BookStoreConstants.ISBN + removedISBN + BookStoreConstants.NOT_AVAILABLE);
+			}
+		} finally {
+			lockManager.unlockStripes(lockedStripes, true);
+			lockManager.unlockCatalog(false);
+		}
+	}
+
+	/**
+	 * Generates the id of a new reservation.
+	 *
+	 * @return the reservation id
+	 */
+	public long nextReservationId() {
+		return lastReservationId.incrementAndGet();
+	}
+
+	/**
+	 * Sets the handler of the reservations whose time to live elapsed. By
+	 * default they are cancelled. A null handler makes reservations never
+	 * expire, e.g. on a slave, which is told by the master when a reservation
+	 * expired.
+	 *
+	 * @param handler
+	 *            the handler of the expired reservation ids, or null
+	 */
+	public void setReservationExpiryHandler(LongConsumer handler) {
+		reservationExpiryHandler = handler;
+	}
+
+	/**
+	 * Hands an expired reservation to the expiry handler, unless it was
+	 * committed or cancelled in the meantime.
+	 *
+	 * @param reservationId
+	 *            the reservation id
+	 */
+	private void expireReservation(long reservationId) {
+		LongConsumer handler = reservationExpiryHandler;
+
+		if (handler != null && reservations.containsKey(reservationId)) {
+			handler.accept(reservationId);
 		}
+	}
 
-		// Then make the purchase.
-		for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
-			book = bookMap.get(bookCopyToBuy.getISBN());
-			book.buyCopies(bookCopyToBuy.getNumCopies());
+	/**
+	 * Cancels an expired reservation.
+	 *
+	 * @param reservationId
+	 *            the reservation id
+	 */
+	private void cancelExpiredReservation(long reservationId) {
+		try {
+			cancelReservation(reservationId);
+		} catch (BookStoreException ex) {
+			// The reservation was committed or cancelled meanwhile.
 		}
 	}
 
@@ -245,28 +1324,59 @@ public class CertainBookStore implements BookStore, StockManager {
 	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
 	 * Set)
 	 */
-	public synchronized List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+	@SuppressWarnings("unchecked")
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		return (List<StockBook>) getBooksByISBNSnapshot(isbnSet).getList();
+	}
+
+	/**
+	 * Gets the books matching the set of ISBNs given together with the snapshot
+	 * they were read from.
+	 *
+	 * @param isbnSet
+	 *            the ISBNs
+	 * @return the book store result
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public BookStoreResult getBooksByISBNSnapshot(Set<Integer> isbnSet) throws BookStoreException {
 		if (isbnSet == null) {
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
+		List<BookStoreBook> books = new ArrayList<>();
+
 		for (Integer ISBN : isbnSet) {
 			if (BookStoreUtility.isInvalidISBN(ISBN)) {
 				throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
 			}
 
-			if (!bookMap.containsKey(ISBN)) {
+			BookStoreBook book = bookMap.get(ISBN);
+
+			if (book == null) {
 				throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
 			}
+
+			books.add(book);
 		}
 
+		StockBook[] versions = new StockBook[books.size()];
+		long readSnapshotId = readVersions(books, versions);
+
 		List<StockBook> listBooks = new ArrayList<>();
 
-		for (Integer isbn : isbnSet) {
-			listBooks.add(bookMap.get(isbn).immutableStockBook());
+		for (int i = 0; i < versions.length; i++) {
+
+			// A book added since the snapshot is not in the snapshot.
+			if (versions[i] == null) {
+				throw new BookStoreException(
+						BookStoreConstants.ISBN + books.get(i).getISBN() + BookStoreConstants.NOT_AVAILABLE);
+			}
+
+			listBooks.add(versions[i]);
 		}
 
-		return listBooks;
+		return new BookStoreResult(listBooks, readSnapshotId);
 	}
 
 	/*
@@ -274,29 +1384,47 @@ public class CertainBookStore implements BookStore, StockManager {
 	 * 
 	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
 	 */
-	public synchronized List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+	@SuppressWarnings("unchecked")
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		return (List<Book>) getBooksSnapshot(isbnSet).getList();
+	}
+
+	/**
+	 * Gets the list of books corresponding to the set of ISBNs together with
+	 * the snapshot they were read from.
+	 *
+	 * @param isbnSet
+	 *            the ISBNs
+	 * @return the book store result
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public BookStoreResult getBooksSnapshot(Set<Integer> isbnSet) throws BookStoreException {
 		if (isbnSet == null) {
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
+		// The title, author and price of a book never change, so the books of
+		// the snapshot are read from the latest catalog.
+		long readSnapshotId = snapshotId;
+		List<Book> listBooks = new ArrayList<>();
+
 		// Check that all ISBNs that we rate are there to start with.
 		for (Integer ISBN : isbnSet) {
 			if (BookStoreUtility.isInvalidISBN(ISBN)) {
 				throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
 			}
 
-			if (!bookMap.containsKey(ISBN)) {
+			BookStoreBook book = getPublishedBook(ISBN, readSnapshotId);
+
+			if (book == null) {
 				throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
 			}
-		}
 
-		List<Book> listBooks = new ArrayList<>();
-
-		for (Integer isbn : isbnSet) {
-			listBooks.add(bookMap.get(isbn).immutableBook());
+			listBooks.add(book.immutableBook());
 		}
 
-		return listBooks;
+		return new BookStoreResult(listBooks, readSnapshotId);
 	}
 
 	/*
@@ -304,65 +1432,210 @@ public class CertainBookStore implements BookStore, StockManager {
 	 * 
 	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
 	 */
-	public synchronized List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+	@SuppressWarnings("unchecked")
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		return (List<Book>) getEditorPicksSnapshot(numBooks).getList();
+	}
+
+	/**
+	 * Gets the list of books containing numBooks editor picks together with the
+	 * snapshot they were read from.
+	 *
+	 * @param numBooks
+	 *            the number of books
+	 * @return the book store result
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public BookStoreResult getEditorPicksSnapshot(int numBooks) throws BookStoreException {
 		if (numBooks < 0) {
 			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
 		}
 
-		List<BookStoreBook> listAllEditorPicks = new ArrayList<>();
+		List<BookStoreBook> sampledEditorPicks = editorPicks.sample(numBooks);
 		List<Book> listEditorPicks = new ArrayList<>();
-		Iterator<Entry<Integer, BookStoreBook>> it = bookMap.entrySet().iterator();
-		BookStoreBook book;
-
-		// Get all books that are editor picks.
-		while (it.hasNext()) {
-			Entry<Integer, BookStoreBook> pair = it.next();
-			book = pair.getValue();
-
-			if (book.isEditorPick()) {
-				listAllEditorPicks.add(book);
+		StockBook[] versions = new StockBook[sampledEditorPicks.size()];
+		long readSnapshotId = readVersions(sampledEditorPicks, versions);
+
+		// The index may run ahead of the snapshot, whose versions tell the
+		// editor picks. The title, author and price of a book never change.
+		for (int i = 0; i < versions.length; i++) {
+			if (versions[i] != null && versions[i].isEditorPick()) {
+				listEditorPicks.add(sampledEditorPicks.get(i).immutableBook());
 			}
 		}
 
-		// Find numBooks random indices of books that will be picked.
-		Random rand = new Random();
-		Set<Integer> tobePicked = new HashSet<>();
-		int rangePicks = listAllEditorPicks.size();
+		return new BookStoreResult(listEditorPicks, readSnapshotId);
+	}
 
-		if (rangePicks <= numBooks) {
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		return (List<Book>) getTopRatedBooksSnapshot(numBooks).getList();
+	}
 
-			// We need to add all books.
-			for (int i = 0; i < listAllEditorPicks.size(); i++) {
-				tobePicked.add(i);
-			}
-		} else {
+	/**
+	 * Gets the numBooks books with the highest average rating together with
+	 * the snapshot they were read from.
+	 *
+	 * @param numBooks
+	 *            the number of books
+	 * @return the book store result
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public BookStoreResult getTopRatedBooksSnapshot(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
 
-			// We need to pick randomly the books that need to be returned.
-			int randNum;
+		long readSnapshotId = snapshotId;
+		List<BookStoreBook> listTopRated = topRated.getTopRated(numBooks);
+		List<Book> listBooks = new ArrayList<>();
 
-			while (tobePicked.size() < numBooks) {
-				randNum = rand.nextInt(rangePicks);
-				tobePicked.add(randNum);
+		// The books are ranked by their latest rating.
+		for (BookStoreBook book : listTopRated) {
+			if (book.isPublishedIn(readSnapshotId)) {
+				listBooks.add(book.immutableBook());
 			}
 		}
 
-		// Get the numBooks random books.
-		for (Integer index : tobePicked) {
-			book = listAllEditorPicks.get(index);
-			listEditorPicks.add(book.immutableBook());
+		return new BookStoreResult(listBooks, readSnapshotId);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStore#searchBooks(java.lang.
+	 * String, int, int)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<Book> searchBooks(String query, int afterISBN, int numBooks) throws BookStoreException {
+		return (List<Book>) searchBooksSnapshot(query, afterISBN, numBooks).getList();
+	}
+
+	/**
+	 * Searches a page of the books matching the query together with the
+	 * snapshot they were read from.
+	 *
+	 * @param query
+	 *            the query
+	 * @param afterISBN
+	 *            the last ISBN of the previous page, or 0 for the first page
+	 * @param numBooks
+	 *            the maximum number of books in the page
+	 * @return the book store result
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public BookStoreResult searchBooksSnapshot(String query, int afterISBN, int numBooks) throws BookStoreException {
+		if (query == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		if (numBooks < 0) {
+			throw new BookStoreException(BookStoreConstants.NUM_BOOKS + numBooks + BookStoreConstants.INVALID);
 		}
 
-		return listEditorPicks;
+		List<BookStoreBook> matches;
+		List<Book> listBooks = new ArrayList<>();
+		long readSnapshotId;
+
+		// The title and author of a book never change, so the books of the
+		// snapshot are searched in the latest catalog.
+		readSnapshotId = snapshotId;
+		matches = searchIndex.search(query, afterISBN, numBooks);
+
+		for (BookStoreBook book : matches) {
+			if (book.isPublishedIn(readSnapshotId)) {
+				listBooks.add(book.immutableBook());
+			}
+		}
+
+		return new BookStoreResult(listBooks, readSnapshotId);
 	}
 
 	/*
 	 * (non-Javadoc)
 	 * 
-	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#getBooksByPriceRange(float,
+	 * float, long, int)
 	 */
 	@Override
-	public synchronized List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
-		throw new BookStoreException("Not implemented");
+	@SuppressWarnings("unchecked")
+	public List<Book> getBooksByPriceRange(float minPrice, float maxPrice, long cursor, int numBooks)
+			throws BookStoreException {
+		return (List<Book>) getBooksByPriceRangeSnapshot(minPrice, maxPrice, cursor, numBooks).getList();
+	}
+
+	/**
+	 * Gets a page of the books in a price range together with the snapshot
+	 * they were read from.
+	 *
+	 * @param minPrice
+	 *            the minimum price
+	 * @param maxPrice
+	 *            the maximum price
+	 * @param cursor
+	 *            the price cursor of the last book of the previous page, or 0
+	 *            for the first page
+	 * @param numBooks
+	 *            the maximum number of books in the page
+	 * @return the book store result
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public BookStoreResult getBooksByPriceRangeSnapshot(float minPrice, float maxPrice, long cursor, int numBooks)
+			throws BookStoreException {
+		if (Float.isNaN(minPrice)) {
+			throw new BookStoreException(BookStoreConstants.PRICE + minPrice + BookStoreConstants.INVALID);
+		}
+
+		if (Float.isNaN(maxPrice)) {
+			throw new BookStoreException(BookStoreConstants.PRICE + maxPrice + BookStoreConstants.INVALID);
+		}
+
+		if (numBooks < 0) {
+			throw new BookStoreException(BookStoreConstants.NUM_BOOKS + numBooks + BookStoreConstants.INVALID);
+		}
+
+		List<BookStoreBook> range = Collections.emptyList();
+		List<Book> listBooks = new ArrayList<>();
+		long readSnapshotId;
+
+		// The price of a book never changes, so the books of the snapshot are
+		// read from the latest catalog.
+		readSnapshotId = snapshotId;
+
+		if (minPrice <= maxPrice && cursor < Long.MAX_VALUE) {
+			long firstKey = Math.max(BookStoreUtility.getPriceCursor(Math.max(minPrice, 0.0f), 0), cursor + 1);
+			long lastKey = BookStoreUtility.getPriceCursor(maxPrice, Integer.MAX_VALUE);
+
+			do {
+				range = priceIndex.getRange(firstKey, lastKey, numBooks);
+
+				for (BookStoreBook book : range) {
+					if (book.isPublishedIn(readSnapshotId)) {
+						listBooks.add(book.immutableBook());
+					}
+				}
+
+				// A page of books all added since the snapshot is skipped.
+				if (!range.isEmpty()) {
+					BookStoreBook lastBook = range.get(range.size() - 1);
+					firstKey = BookStoreUtility.getPriceCursor(lastBook.getPrice(), lastBook.getISBN()) + 1;
+				}
+			} while (listBooks.isEmpty() && range.size() == numBooks && numBooks > 0);
+		}
+
+		return new BookStoreResult(listBooks, readSnapshotId);
 	}
 
 	/*
@@ -371,8 +1644,32 @@ public class CertainBookStore implements BookStore, StockManager {
 	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
 	 */
 	@Override
-	public synchronized List<StockBook> getBooksInDemand() throws BookStoreException {
-		throw new BookStoreException("Not implemented");
+	@SuppressWarnings("unchecked")
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		return (List<StockBook>) getBooksInDemandSnapshot().getList();
+	}
+
+	/**
+	 * Gets the books which had sale misses together with the snapshot they were
+	 * read from.
+	 *
+	 * @return the book store result
+	 */
+	public BookStoreResult getBooksInDemandSnapshot() {
+		List<BookStoreBook> books = booksInDemand.getAll();
+		List<StockBook> listBooks = new ArrayList<>();
+		StockBook[] versions = new StockBook[books.size()];
+		long readSnapshotId = readVersions(books, versions);
+
+		// The index may run ahead of the snapshot, whose versions tell the
+		// sale misses.
+		for (StockBook version : versions) {
+			if (version != null && version.getNumSaleMisses() > 0) {
+				listBooks.add(version);
+			}
+		}
+
+		return new BookStoreResult(listBooks, readSnapshotId);
 	}
 
 	/*
@@ -381,8 +1678,49 @@ public class CertainBookStore implements BookStore, StockManager {
 	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
 	 */
 	@Override
-	public synchronized void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
-		throw new BookStoreException("Not implemented");
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		int isbn;
+		int rating;
+
+		if (bookRating == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lockManager.lockCatalog(false);
+		int[] lockedStripes = lockManager.lockISBNs(isbnsOf(bookRating, BookRating::getISBN), true);
+
+		try {
+			for (BookRating bookRatingArg : bookRating) {
+				isbn = bookRatingArg.getISBN();
+				rating = bookRatingArg.getRating();
+
+				if (BookStoreUtility.isInvalidISBN(isbn)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+				}
+
+				if (!bookMap.containsKey(isbn)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.NOT_AVAILABLE);
+				}
+
+				if (BookStoreUtility.isInvalidRating(rating)) {
+					throw new BookStoreException(BookStoreConstants.RATING + rating + BookStoreConstants.INVALID);
+				}
+			}
+
+			BookStoreBook book;
+			List<BookStoreBook> updatedBooks = new ArrayList<>();
+
+			for (BookRating bookRatingArg : bookRating) {
+				book = bookMap.get(bookRatingArg.getISBN());
+				book.addRating(bookRatingArg.getRating());
+				updatedBooks.add(book);
+			}
+
+			commit(updatedBooks);
+		} finally {
+			lockManager.unlockStripes(lockedStripes, true);
+			lockManager.unlockCatalog(false);
+		}
 	}
 
 	/*
@@ -390,8 +1728,21 @@ public class CertainBookStore implements BookStore, StockManager {
 	 * 
 	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
 	 */
-	public synchronized void removeAllBooks() throws BookStoreException {
-		bookMap.clear();
+	public void removeAllBooks() throws BookStoreException {
+		lockManager.lockCatalog(true);
+
+		try {
+			List<BookStoreBook> removedBooks = bookMap.values();
+			bookMap.clear();
+			counters.clear();
+			searchIndex.clear();
+			isbnIndex.clear();
+			priceIndex.clear();
+			reservations.clear();
+			commit(Collections.emptyList(), removedBooks);
+		} finally {
+			lockManager.unlockCatalog(true);
+		}
 	}
 
 	/*
@@ -400,23 +1751,86 @@ public class CertainBookStore implements BookStore, StockManager {
 	 * @see
 	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
 	 */
-	public synchronized void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
 		if (isbnSet == null) {
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
-		for (Integer ISBN : isbnSet) {
-			if (BookStoreUtility.isInvalidISBN(ISBN)) {
-				throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+		lockManager.lockCatalog(true);
+
+		try {
+			for (Integer ISBN : isbnSet) {
+				if (BookStoreUtility.isInvalidISBN(ISBN)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+				}
+
+				if (!bookMap.containsKey(ISBN)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+				}
 			}
 
-			if (!bookMap.containsKey(ISBN)) {
-				throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+			// The copies held by reservations go with the removed books, and
+			// the reservations can no longer be committed (cf. endReservation).
+			List<BookStoreBook> removedBooks = new ArrayList<>();
+
+			for (int isbn : isbnSet) {
+				removedBooks.add(unindexBook(isbn));
 			}
+
+			isbnIndex.removeAll(removedBooks);
+			priceIndex.removeAll(removedBooks);
+			commit(Collections.emptyList(), removedBooks);
+		} finally {
+			lockManager.unlockCatalog(true);
 		}
+	}
+
+	/**
+	 * {@link RecordedChange} is a change committed to a book, whose state is
+	 * read from the versions of the book when the change is drained.
+	 */
+	private static final class RecordedChange {
+
+		/** The book. */
+		private final BookStoreBook book;
+
+		/** Whether the book was added. */
+		private final boolean added;
+
+		/** Whether the book was removed. */
+		private final boolean removed;
+
+		/**
+		 * Instantiates a new {@link RecordedChange}.
+		 *
+		 * @param book
+		 *            the book
+		 * @param added
+		 *            true if the book was added
+		 * @param removed
+		 *            true if the book was removed
+		 */
+		private RecordedChange(BookStoreBook book, boolean added, boolean removed) {
+			this.book = book;
+			this.added = added;
+			this.removed = removed;
+		}
+
+		/**
+		 * Makes the change replicated, with the state of the book in a
+		 * snapshot.
+		 *
+		 * @param snapshotId
+		 *            the id of the snapshot
+		 * @return the change
+		 */
+		private BookChange toBookChange(long snapshotId) {
+			if (removed) {
+				return BookChange.removed(book.getISBN());
+			}
 
-		for (int isbn : isbnSet) {
-			bookMap.remove(isbn);
+			StockBook version = book.getVersion(snapshotId);
+			return added ? BookChange.added(version) : BookChange.changed(version);
 		}
 	}
 }
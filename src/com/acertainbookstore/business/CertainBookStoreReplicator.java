@@ -1,50 +1,233 @@
 package com.acertainbookstore.business;
 
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
-import com.acertainbookstore.interfaces.Replication;
+import org.eclipse.jetty.client.HttpClient;
+
+import com.acertainbookstore.interfaces.BookStoreSerializer;
 import com.acertainbookstore.interfaces.Replicator;
 import com.acertainbookstore.server.ReplicationAwareServerHTTPProxy;
+import com.acertainbookstore.server.ReplicationSnapshot;
+import com.acertainbookstore.server.ReplicationStream;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreKryoSerializer;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+import com.acertainbookstore.utils.BookStoreRequest;
+import com.acertainbookstore.utils.BookStoreResponse;
+import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.BookStoreXStreamSerializer;
 
 /**
  * {@link CertainBookStoreReplicator} is used to replicate updates to slaves
  * concurrently.
+ * 
+ * The batches are sent without blocking, over a {@link ReplicationStream} to
+ * each slave through a single {@link HttpClient}, and the acknowledgements
+ * are handled on the threads of the client as they arrive, so that the
+ * number of batches in flight is tied neither to a number of threads nor to
+ * a number of requests. A batch is serialized once, whatever the number of
+ * slaves it is sent to.
+ * 
+ * The replicator sends the batches to the children of a server in a
+ * {@link ReplicationTopology}: the master uses it to send its batches, and a
+ * slave to relay the batches it receives to its own children.
+ * 
+ * The replicator keeps track of the latest batch each slave acknowledged, and
+ * of the time each batch not acknowledged by all the slaves was sent, so that
+ * the {@link ReplicationAckPolicy} can hold writers back while a slave lags
+ * too far behind, instead of letting it fall further behind.
+ * 
+ * The master retains the batches it sent in a {@link ReplicationLog}, until
+ * every slave acknowledged them. A faulty slave is sent a heartbeat every
+ * second, which it answers with the latest batch it applied; once it answers,
+ * it is sent the batches it missed from the log over a new stream, and is
+ * sent the batches of the writes again once it caught up, so that its reads
+ * are served again without restarting the master. A slave which missed
+ * batches dropped from the log, e.g. a slave restarted empty, is first
+ * bootstrapped from a snapshot of the master (cf. {@link ReplicationSnapshot}),
+ * the log retaining the batches following the snapshot meanwhile; without a
+ * master address to bootstrap it from, it stays faulty. The slaves relaying
+ * batches do not retain them: a slave whose child fails a batch fails it in
+ * turn, up to the child of the master, which then re-admits the whole subtree
+ * once all of it answers the heartbeat, from the latest batch all of it
+ * applied.
  */
 public class CertainBookStoreReplicator implements Replicator {
 
+	/** The number of bytes of the log kept in memory. */
+	private static final long MAX_LOG_MEMORY_BYTES = 16 * 1024 * 1024;
+
+	/** The number of bytes of the log spilled to disk. */
+	private static final long MAX_LOG_DISK_BYTES = 1024L * 1024 * 1024;
+
+	/** The time between two heartbeats to the faulty slaves. */
+	private static final long READMISSION_HEARTBEAT_MILLIS = 1000;
+
+	/** The time a faulty slave has to answer a heartbeat. */
+	private static final long HEARTBEAT_TIMEOUT_MILLIS = 1000;
+
+	/** The time a faulty slave has to apply the batches it missed. */
+	private static final long CATCH_UP_TIMEOUT_MILLIS = 30000;
+
+	/** The number of batches read from the log at once during a catch-up. */
+	private static final int CATCH_UP_RECORDS = 256;
+
+	/** The time a faulty slave has to load a snapshot of the master. */
+	private static final long BOOTSTRAP_TIMEOUT_MILLIS = 600000;
+
 	/** The replication clients. */
-	private Map<String, Replication> replicationClients = null;
+	private Map<String, ReplicationStream> replicationClients = null;
+
+	/** The serializer of the batches. */
+	private final ThreadLocal<BookStoreSerializer> serializer;
+
+	/** The client shared by the replication clients. */
+	private HttpClient httpClient = null;
+
+	/** The acknowledgement policy. */
+	private final ReplicationAckPolicy ackPolicy;
+
+	/** The sequence number of the latest batch acknowledged by each slave. */
+	private final Map<String, Long> ackedSequenceNumbers = new ConcurrentHashMap<>();
+
+	/** The time each batch was sent, until all the slaves acknowledge it. */
+	private final NavigableMap<Long, Long> sentBatchNanos = new ConcurrentSkipListMap<>();
+
+	/** The sequence number of the latest batch sent. */
+	private long lastSentSequenceNumber = 0;
 
-	/** The replicator thread pool. */
-	private ExecutorService replicatorThreadPool = null;
+	/** The replication topology, null if there are no slaves. */
+	private ReplicationTopology topology = null;
+
+	/** The index in the topology of each child. */
+	private final Map<String, Integer> slaveIndexes = new ConcurrentHashMap<>();
+
+	/** The latest batch known to be applied by each faulty slave. */
+	private final Map<String, Long> faultySequenceNumbers = new ConcurrentHashMap<>();
+
+	/** The batches retained for the faulty slaves, null on the slaves. */
+	private ReplicationLog replicationLog = null;
+
+	/** Held while a batch is logged and sent, or while a slave is re-admitted. */
+	private final Object sendLock = new Object();
+
+	/** The master server the slaves load snapshots from, null if they do not. */
+	private final String snapshotServer;
+
+	/** The thread sending heartbeats to the faulty slaves. */
+	private Thread readmissionThread = null;
+
+	/** Whether the replicator was stopped. */
+	private volatile boolean stopped = false;
 
 	/**
 	 * Instantiates a new certain book store replicator.
 	 *
-	 * @param maxReplicatorThreads
-	 *            the max replicator threads
 	 * @param slaveServers
 	 *            the slave servers
 	 * @throws Exception 
 	 */
-	public CertainBookStoreReplicator(int maxReplicatorThreads, Set<String> slaveServers) throws Exception {
-		if (slaveServers == null) {
+	public CertainBookStoreReplicator(Set<String> slaveServers) throws Exception {
+		this(slaveServers, new ReplicationAckPolicy("all", Long.MAX_VALUE, Long.MAX_VALUE));
+	}
+
+	/**
+	 * Instantiates a new certain book store replicator.
+	 *
+	 * @param slaveServers
+	 *            the slave servers
+	 * @param ackPolicy
+	 *            the acknowledgement policy
+	 * @throws Exception
+	 */
+	public CertainBookStoreReplicator(Set<String> slaveServers, ReplicationAckPolicy ackPolicy) throws Exception {
+		this(slaveServers == null ? null
+				: new ReplicationTopology(new ArrayList<>(slaveServers), Math.max(1, slaveServers.size())),
+				ReplicationTopology.MASTER_INDEX, ackPolicy);
+	}
+
+	/**
+	 * Instantiates a new certain book store replicator sending the batches to
+	 * the children of a server.
+	 *
+	 * @param topology
+	 *            the replication topology
+	 * @param index
+	 *            the index of the server in the topology,
+	 *            {@link ReplicationTopology#MASTER_INDEX} for the master
+	 * @param ackPolicy
+	 *            the acknowledgement policy
+	 * @throws Exception
+	 */
+	public CertainBookStoreReplicator(ReplicationTopology topology, int index, ReplicationAckPolicy ackPolicy)
+			throws Exception {
+		this(topology, index, ackPolicy, null);
+	}
+
+	/**
+	 * Instantiates a new certain book store replicator sending the batches to
+	 * the children of a server, the faulty slaves too far behind to catch up
+	 * from the log being bootstrapped from a snapshot of the master.
+	 *
+	 * @param topology
+	 *            the replication topology
+	 * @param index
+	 *            the index of the server in the topology,
+	 *            {@link ReplicationTopology#MASTER_INDEX} for the master
+	 * @param ackPolicy
+	 *            the acknowledgement policy
+	 * @param snapshotServer
+	 *            the master server address, null if the slaves are not
+	 *            bootstrapped
+	 * @throws Exception
+	 */
+	public CertainBookStoreReplicator(ReplicationTopology topology, int index, ReplicationAckPolicy ackPolicy,
+			String snapshotServer) throws Exception {
+		this.ackPolicy = ackPolicy;
+		this.snapshotServer = snapshotServer;
+
+		// Setup the type of serializer.
+		if (BookStoreConstants.BINARY_SERIALIZATION) {
+			serializer = ThreadLocal.withInitial(BookStoreKryoSerializer::new);
+		} else {
+			serializer = ThreadLocal.withInitial(BookStoreXStreamSerializer::new);
+		}
+
+		if (topology == null) {
 			return;
 		}
 
-		replicationClients = new HashMap<>();
+		// The batches are sent while faulty slaves are removed.
+		replicationClients = new ConcurrentHashMap<>();
+		this.topology = topology;
 
-		// Create the proxies for each destination slave.
-		for (String aSlaveServer : slaveServers) {
-			replicationClients.put(aSlaveServer, new ReplicationAwareServerHTTPProxy(aSlaveServer));
+		// Open the stream to each child, sharing a client.
+		httpClient = ReplicationAwareServerHTTPProxy.newHttpClient();
+
+		for (int child : topology.getChildren(index)) {
+			String aSlaveServer = topology.getSlaveServers().get(child);
+			replicationClients.put(aSlaveServer, new ReplicationStream(aSlaveServer, httpClient, topology, child));
+			ackedSequenceNumbers.put(aSlaveServer, 0L);
+			slaveIndexes.put(aSlaveServer, child);
 		}
 
-		// Create the thread pool for concurrently invoking replicate RPCs.
-		replicatorThreadPool = Executors.newFixedThreadPool(maxReplicatorThreads);
+		if (index == ReplicationTopology.MASTER_INDEX && !slaveIndexes.isEmpty()) {
+			replicationLog = new ReplicationLog(MAX_LOG_MEMORY_BYTES, MAX_LOG_DISK_BYTES);
+			readmissionThread = new Thread(this::runReadmission, "ReplicationReadmission");
+			readmissionThread.setDaemon(true);
+			readmissionThread.start();
+		}
 	}
 
 	/*
@@ -54,17 +237,229 @@ public class CertainBookStoreReplicator implements Replicator {
 	 * acertainbookstore.business.ReplicationRequest)
 	 */
 	public List<Future<ReplicationResult>> replicate(ReplicationRequest request) {
-		// Implement this method, send a replicate request to all the
-		// activeSlaveServers use CertainBookStoreReplicationTask to create a
-		// Task, submit it to the thread pool and construct the "Future" results
-		// to be returned
-		List<Future<ReplicationResult>> result = Collections.synchronizedList(new LinkedList<>());
 
-		replicationClients.entrySet().forEach(e -> result.add(replicatorThreadPool.submit(new CertainBookStoreReplicationTask(e.getValue(),request))));
+		// The batch is serialized once, and its bytes shared by the slaves.
+		ByteBuffer record;
+
+		try {
+			record = ReplicationStream.encodeRecord(request, serializer.get());
+		} catch (BookStoreException ex) {
+			ex.printStackTrace();
+			record = null;
+		}
+
+		return replicate(request, record);
+	}
+
+	/**
+	 * Replicates a batch encoded already, e.g. a batch relayed by a slave as
+	 * it was received.
+	 *
+	 * @param request
+	 *            the batch
+	 * @param record
+	 *            the batch encoded by
+	 *            {@link ReplicationStream#encodeRecord(ReplicationRequest, BookStoreSerializer)},
+	 *            null if it could not be encoded
+	 * @return the futures of the results of the children
+	 */
+	public List<Future<ReplicationResult>> replicate(ReplicationRequest request, ByteBuffer record) {
+		List<Future<ReplicationResult>> result = new ArrayList<>();
+		long sequenceNumber = request.getSequenceNumber();
+
+		synchronized (this) {
+			sentBatchNanos.put(sequenceNumber, System.nanoTime());
+			lastSentSequenceNumber = Math.max(lastSentSequenceNumber, sequenceNumber);
+		}
+
+		// A slave being re-admitted either caught up with the batch from the
+		// log, or is sent it with the other slaves.
+		synchronized (sendLock) {
+			if (replicationLog != null && record != null) {
+				replicationLog.append(sequenceNumber, record);
+			}
+
+			for (Map.Entry<String, ReplicationStream> e : replicationClients.entrySet()) {
+				result.add(send(e.getKey(), e.getValue(), sequenceNumber, record));
+			}
+		}
 
 		return result;
 	}
 
+	/**
+	 * Sends a batch to a slave, recording its outcome once the slave answers.
+	 *
+	 * @param slaveServer
+	 *            the slave server
+	 * @param stream
+	 *            the stream to the slave
+	 * @param sequenceNumber
+	 *            the sequence number of the batch
+	 * @param record
+	 *            the encoded batch, null if it could not be encoded
+	 * @return the future result of the slave
+	 */
+	private CompletableFuture<ReplicationResult> send(String slaveServer, ReplicationStream stream,
+			long sequenceNumber, ByteBuffer record) {
+		CompletableFuture<ReplicationResult> future;
+
+		if (record != null) {
+			future = stream.replicateAsync(sequenceNumber, record)
+					.exceptionally(ex -> new ReplicationResult(slaveServer, false));
+		} else {
+			future = CompletableFuture.completedFuture(new ReplicationResult(slaveServer, false));
+		}
+
+		// The future is done before the waiting threads are notified.
+		future.thenAccept(replicationResult -> acknowledge(slaveServer, sequenceNumber,
+				replicationResult.isReplicationSuccessful()));
+		return future;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.Replicator#awaitAcknowledgements(java.
+	 * util.List)
+	 */
+	public synchronized void awaitAcknowledgements(List<Future<ReplicationResult>> replicatedSlaveFutures) {
+		int requiredAcks = ackPolicy.getRequiredAcks(replicatedSlaveFutures.size());
+
+		while (true) {
+			int numAcks = 0;
+			int numDone = 0;
+
+			for (Future<ReplicationResult> future : replicatedSlaveFutures) {
+				if (future.isDone()) {
+					numDone++;
+
+					if (((CompletableFuture<ReplicationResult>) future).join().isReplicationSuccessful()) {
+						numAcks++;
+					}
+				}
+			}
+
+			if (numAcks >= requiredAcks) {
+				break;
+			}
+
+			// The slaves which failed the batch are faulty now.
+			if (numDone == replicatedSlaveFutures.size()) {
+				System.err.println("Batch acknowledged by " + numAcks + " slaves out of the " + requiredAcks
+						+ " required");
+				break;
+			}
+
+			waitForAcknowledgement();
+		}
+
+		// The slaves not waited for must not lag too far behind either.
+		while (isLagging()) {
+			waitForAcknowledgement();
+		}
+	}
+
+	/**
+	 * Records the outcome of a batch on a slave. A slave which failed to apply
+	 * the batch is marked as faulty, since the batches after it would fail as
+	 * well.
+	 *
+	 * @param slaveServer
+	 *            the slave server
+	 * @param sequenceNumber
+	 *            the sequence number of the batch
+	 * @param successful
+	 *            true, if the slave applied the batch
+	 */
+	private void acknowledge(String slaveServer, long sequenceNumber, boolean successful) {
+		if (!successful) {
+			markServersFaulty(Collections.singleton(slaveServer));
+			return;
+		}
+
+		synchronized (this) {
+			ackedSequenceNumbers.computeIfPresent(slaveServer, (slave, acked) -> Math.max(acked, sequenceNumber));
+			pruneSentBatches();
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Forgets the batches acknowledged by all the slaves, and truncates the
+	 * batches of the log no slave needs to catch up.
+	 */
+	private void pruneSentBatches() {
+		long minAcked = lastSentSequenceNumber;
+
+		for (long acked : ackedSequenceNumbers.values()) {
+			minAcked = Math.min(minAcked, acked);
+		}
+
+		sentBatchNanos.headMap(minAcked, true).clear();
+
+		if (replicationLog != null) {
+			long minNeeded = minAcked;
+
+			for (long applied : faultySequenceNumbers.values()) {
+				if (replicationLog.covers(applied)) {
+					minNeeded = Math.min(minNeeded, applied);
+				}
+			}
+
+			replicationLog.truncate(minNeeded);
+		}
+	}
+
+	/**
+	 * Checks whether a slave lags more operations or milliseconds behind than
+	 * the policy allows, the lag in milliseconds being the age of the oldest
+	 * batch it did not acknowledge.
+	 *
+	 * @return true, if a slave lags too far behind
+	 */
+	private boolean isLagging() {
+		long now = System.nanoTime();
+
+		for (long acked : ackedSequenceNumbers.values()) {
+			if (lastSentSequenceNumber - acked > ackPolicy.getMaxLagOps()) {
+				return true;
+			}
+
+			Map.Entry<Long, Long> oldestUnacked = sentBatchNanos.higherEntry(acked);
+
+			if (oldestUnacked != null
+					&& TimeUnit.NANOSECONDS.toMillis(now - oldestUnacked.getValue()) > ackPolicy.getMaxLagMillis()) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Waits for a slave to acknowledge a batch or to be marked as faulty.
+	 */
+	private void waitForAcknowledgement() {
+		try {
+			wait();
+		} catch (InterruptedException e) {
+
+			// There is no terminate semantics, the caller checks again.
+		}
+	}
+
+	/**
+	 * Gets the number of slaves the batches are sent to, the faulty slaves
+	 * left out.
+	 *
+	 * @return the number of slaves
+	 */
+	public int getNumSlaves() {
+		return replicationClients.size();
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -75,13 +470,238 @@ public class CertainBookStoreReplicator implements Replicator {
 	public void markServersFaulty(Set<String> faultyServers) {
 		if (faultyServers != null) {
 			for (String aFaultyServer : faultyServers) {
+				ReplicationStream replicationClient = replicationClients.remove(aFaultyServer);
+
+				// The batches still in flight to the slave fail as well.
+				if (replicationClient == null) {
+					continue;
+				}
+
+				Long acked = ackedSequenceNumbers.get(aFaultyServer);
+				System.err.println("Slave " + aFaultyServer + " marked as faulty after batch " + acked);
+
+				// The log retains the batches the slave may have missed.
+				if (replicationLog != null && acked != null) {
+					faultySequenceNumbers.put(aFaultyServer, acked);
+				}
+
 				try {
-					((ReplicationAwareServerHTTPProxy) replicationClients.get(aFaultyServer)).stop();
+					replicationClient.stop();
 				} catch (Exception e) {
 					// TODO Auto-generated catch block
 					e.printStackTrace();
 				}
-				replicationClients.remove(aFaultyServer);
+			}
+
+			synchronized (this) {
+				ackedSequenceNumbers.keySet().removeAll(faultyServers);
+				pruneSentBatches();
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Sends heartbeats to the faulty slaves until the replicator is stopped,
+	 * re-admitting those which answer and can catch up from the log.
+	 */
+	private void runReadmission() {
+		while (!stopped) {
+			try {
+				Thread.sleep(READMISSION_HEARTBEAT_MILLIS);
+			} catch (InterruptedException e) {
+				continue;
+			}
+
+			for (String aFaultyServer : new ArrayList<>(faultySequenceNumbers.keySet())) {
+				if (!stopped) {
+					readmit(aFaultyServer);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sends a heartbeat to a faulty slave, and re-admits it if it answers: the
+	 * batches it missed are sent from the log over a new stream while the
+	 * writes go on, and the batches logged meanwhile are sent while the writes
+	 * are held back, after which the slave is sent the batches of the writes
+	 * again. A slave relaying the batches answers the heartbeat for
+	 * its whole subtree.
+	 *
+	 * @param slaveServer
+	 *            the faulty slave server
+	 */
+	private void readmit(String slaveServer) {
+		long applied;
+
+		try {
+			BookStoreResponse response = BookStoreUtility.performHttpExchangeAsync(httpClient,
+					BookStoreRequest.newGetRequest(slaveServer + "/" + BookStoreMessageTag.REPLICATIONSTATUS
+							+ ReplicationStream.topologyQuery(topology, slaveIndexes.get(slaveServer))),
+					serializer::get).get(HEARTBEAT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+
+			if (response.getException() != null || response.getResult() == null) {
+				return;
+			}
+
+			applied = response.getResult().getSnapshotId();
+		} catch (InterruptedException | ExecutionException | TimeoutException ex) {
+
+			// The slave is still down.
+			return;
+		}
+
+		// A slave which missed batches dropped from the log holds none back,
+		// until it loads a snapshot.
+		if (!replicationLog.covers(applied)) {
+			Long previous = faultySequenceNumbers.replace(slaveServer, applied);
+
+			if (snapshotServer == null) {
+				if (previous != null && replicationLog.covers(previous)) {
+					System.err.println("Slave " + slaveServer + " cannot catch up from batch " + applied);
+				}
+
+				return;
+			}
+
+			applied = bootstrap(slaveServer);
+
+			if (applied < 0) {
+				return;
+			}
+		}
+
+		faultySequenceNumbers.replace(slaveServer, applied);
+		ReplicationStream stream = new ReplicationStream(slaveServer, httpClient, topology,
+				slaveIndexes.get(slaveServer));
+		CompletableFuture<ReplicationResult> caughtUpFuture = CompletableFuture
+				.completedFuture(new ReplicationResult(slaveServer, true));
+		long caughtUp = applied;
+
+		// The batches logged while the slave catches up are sent afterwards.
+		while (true) {
+			if (!replicationLog.covers(caughtUp)) {
+				stream.stop();
+				return;
+			}
+
+			List<Map.Entry<Long, ByteBuffer>> records = replicationLog.read(caughtUp, CATCH_UP_RECORDS);
+
+			if (records.isEmpty()) {
+				break;
+			}
+
+			for (Map.Entry<Long, ByteBuffer> record : records) {
+				caughtUpFuture = stream.replicateAsync(record.getKey(), record.getValue());
+				caughtUp = record.getKey();
+			}
+		}
+
+		try {
+			if (!caughtUpFuture.get(CATCH_UP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS).isReplicationSuccessful()) {
+				stream.stop();
+				return;
+			}
+		} catch (InterruptedException | ExecutionException | TimeoutException ex) {
+			stream.stop();
+			return;
+		}
+
+		synchronized (sendLock) {
+			if (stopped || !replicationLog.covers(caughtUp)) {
+				stream.stop();
+				return;
+			}
+
+			synchronized (this) {
+				faultySequenceNumbers.remove(slaveServer);
+				ackedSequenceNumbers.put(slaveServer, caughtUp);
+			}
+
+			replicationClients.put(slaveServer, stream);
+
+			// No batch is logged until the slave is sent the last ones.
+			List<Map.Entry<Long, ByteBuffer>> records;
+
+			do {
+				records = replicationLog.read(caughtUp, CATCH_UP_RECORDS);
+
+				for (Map.Entry<Long, ByteBuffer> record : records) {
+					send(slaveServer, stream, record.getKey(), record.getValue());
+					caughtUp = record.getKey();
+				}
+			} while (!records.isEmpty());
+		}
+
+		System.err.println("Slave " + slaveServer + " re-admitted after batch " + caughtUp);
+	}
+
+	/**
+	 * Asks a faulty slave to load a snapshot of the master. The log retains
+	 * the batches sent from now on, which the slave needs after the snapshot.
+	 *
+	 * @param slaveServer
+	 *            the faulty slave server
+	 * @return the id of the snapshot loaded, or -1 if the slave failed to
+	 *         load it
+	 */
+	private long bootstrap(String slaveServer) {
+		synchronized (this) {
+			faultySequenceNumbers.put(slaveServer, lastSentSequenceNumber);
+		}
+
+		System.err.println("Slave " + slaveServer + " loading a snapshot of " + snapshotServer);
+
+		// A slave relaying the batches has its whole subtree load a snapshot.
+		String topologyQuery = ReplicationStream.topologyQuery(topology, slaveIndexes.get(slaveServer));
+
+		try {
+			BookStoreResponse response = BookStoreUtility.performHttpExchangeAsync(httpClient,
+					BookStoreRequest.newGetRequest(slaveServer + "/" + BookStoreMessageTag.REPLICATIONBOOTSTRAP
+							+ (topologyQuery.isEmpty() ? "?" : topologyQuery + "&")
+							+ BookStoreConstants.REPLICATION_MASTER_PARAM + "="
+							+ URLEncoder.encode(snapshotServer, "UTF-8")),
+					serializer::get).get(BOOTSTRAP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+
+			if (response.getException() != null || response.getResult() == null) {
+				System.err.println("Slave " + slaveServer + " failed to load a snapshot: " + response.getException());
+				return -1;
+			}
+
+			return response.getResult().getSnapshotId();
+		} catch (UnsupportedEncodingException | InterruptedException | ExecutionException | TimeoutException ex) {
+			System.err.println("Slave " + slaveServer + " failed to load a snapshot: " + ex);
+			return -1;
+		}
+	}
+
+	/**
+	 * Stops the replicator, closing the streams to the slaves.
+	 */
+	public void stop() {
+		stopped = true;
+
+		if (readmissionThread != null) {
+			readmissionThread.interrupt();
+		}
+
+		if (replicationClients != null) {
+			List<ReplicationStream> streams = new ArrayList<>(replicationClients.values());
+
+			// The batches failed by the streams closing mark no slave faulty.
+			replicationClients.clear();
+
+			for (ReplicationStream stream : streams) {
+				stream.stop();
+			}
+		}
+
+		if (httpClient != null) {
+			try {
+				httpClient.stop();
+			} catch (Exception e) {
+				e.printStackTrace();
 			}
 		}
 	}
@@ -92,8 +712,8 @@ public class CertainBookStoreReplicator implements Replicator {
 	 * @see java.lang.Object#finalize()
 	 */
 	public void finalize() {
-		// Shutdown the executor service, invoked when the object is out of
-		// scope (garbage collected)
-		replicatorThreadPool.shutdownNow();
+		// Stop the streams and the shared client, invoked when the object is
+		// out of scope (garbage collected)
+		stop();
 	}
 }
@@ -0,0 +1,172 @@
+package com.acertainbookstore.business;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * {@link EscrowStock} holds the copies of a hot book split into shards, one
+ * per core or so. A buyer takes copies from the shard of its thread with a
+ * compare-and-set, so that buyers running on different cores do not contend
+ * on the same counter. Only when the shard of a buyer runs dry are the copies
+ * of all the shards gathered and spread again, which is the only operation
+ * serialized over the whole book.
+ *
+ * The shards are padded to a cache line each, so that the shards of
+ * different cores are never invalidated together.
+ */
+public class EscrowStock {
+
+	/** The number of ints between two shards, i.e. a cache line. */
+	private static final int PADDING = 16;
+
+	/** The number of copies of each shard, one every PADDING ints. */
+	private final AtomicIntegerArray shards;
+
+	/** The number of shards, a power of two. */
+	private final int numShards;
+
+	/**
+	 * Instantiates a new {@link EscrowStock} with one shard per available
+	 * processor.
+	 *
+	 * @param numCopies
+	 *            the number of copies
+	 */
+	public EscrowStock(int numCopies) {
+		this(Runtime.getRuntime().availableProcessors(), numCopies);
+	}
+
+	/**
+	 * Instantiates a new {@link EscrowStock}.
+	 *
+	 * @param numShards
+	 *            the number of shards, rounded up to a power of two
+	 * @param numCopies
+	 *            the number of copies
+	 */
+	public EscrowStock(int numShards, int numCopies) {
+		this.numShards = Integer.highestOneBit(Math.max(1, numShards - 1)) << 1;
+		this.shards = new AtomicIntegerArray(this.numShards * PADDING);
+		spread(numCopies);
+	}
+
+	/**
+	 * Takes copies from the shard of the current thread, rebalancing the
+	 * shards if it runs dry.
+	 *
+	 * @param numCopies
+	 *            the number of copies
+	 * @return true, if the copies were taken, false if there are not enough
+	 *         copies in all the shards together
+	 */
+	public boolean tryTake(int numCopies) {
+		int index = shardOfCurrentThread() * PADDING;
+
+		while (true) {
+			int numCopiesInShard = shards.get(index);
+
+			if (numCopiesInShard < numCopies) {
+				return rebalanceAndTake(numCopies);
+			}
+
+			if (shards.compareAndSet(index, numCopiesInShard, numCopiesInShard - numCopies)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Adds copies to the shard of the current thread.
+	 *
+	 * @param numCopies
+	 *            the number of copies
+	 */
+	public void add(int numCopies) {
+		shards.addAndGet(shardOfCurrentThread() * PADDING, numCopies);
+	}
+
+	/**
+	 * Gets the number of copies of all the shards together. Must not run
+	 * concurrently with buyers taking copies, which could move copies between
+	 * the shards while they are summed: the buyers publish the copies they
+	 * take without summing the shards (cf.
+	 * {@link BookStoreBook#publishCopiesTaken(long, long, int)}), and the
+	 * writers reading the total lock the book exclusively.
+	 *
+	 * @return the number of copies
+	 */
+	public int getTotal() {
+		int total = 0;
+
+		for (int shard = 0; shard < numShards; shard++) {
+			total += shards.get(shard * PADDING);
+		}
+
+		return total;
+	}
+
+	/**
+	 * Replaces the copies of all the shards. Must not run concurrently with
+	 * buyers taking copies.
+	 *
+	 * @param numCopies
+	 *            the new number of copies
+	 */
+	public synchronized void setTotal(int numCopies) {
+		drain();
+		spread(numCopies);
+	}
+
+	/**
+	 * Gathers the copies of all the shards, takes the copies from them if
+	 * there are enough, and spreads the others evenly over the shards again.
+	 *
+	 * @param numCopies
+	 *            the number of copies
+	 * @return true, if the copies were taken
+	 */
+	private synchronized boolean rebalanceAndTake(int numCopies) {
+		int total = drain();
+		boolean taken = total >= numCopies;
+
+		spread(taken ? total - numCopies : total);
+		return taken;
+	}
+
+	/**
+	 * Empties all the shards.
+	 *
+	 * @return the number of copies they held
+	 */
+	private int drain() {
+		int total = 0;
+
+		for (int shard = 0; shard < numShards; shard++) {
+			total += shards.getAndSet(shard * PADDING, 0);
+		}
+
+		return total;
+	}
+
+	/**
+	 * Spreads copies evenly over the shards, the first shards receiving the
+	 * remainder.
+	 *
+	 * @param numCopies
+	 *            the number of copies
+	 */
+	private void spread(int numCopies) {
+		for (int shard = 0; shard < numShards; shard++) {
+			shards.addAndGet(shard * PADDING, numCopies / numShards + (shard < numCopies % numShards ? 1 : 0));
+		}
+	}
+
+	/**
+	 * Maps the current thread to its shard.
+	 *
+	 * @return the shard
+	 */
+	private int shardOfCurrentThread() {
+		int hash = (int) Thread.currentThread().getId() * 0x9E3779B9;
+		return (hash ^ (hash >>> 16)) & (numShards - 1);
+	}
+}
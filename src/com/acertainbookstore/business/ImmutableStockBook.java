@@ -19,6 +19,9 @@ public final class ImmutableStockBook extends ImmutableBook implements StockBook
 	/** The number of copies. */
 	private final int numCopies;
 
+	/** The number of copies held by reservations. */
+	private final int numHeldCopies;
+
 	/** The number of sale misses. */
 	private final long numSaleMisses;
 
@@ -33,6 +36,7 @@ public final class ImmutableStockBook extends ImmutableBook implements StockBook
 		this.totalRating = 0;
 		this.numTimesRated = 0;
 		this.numCopies = 0;
+		this.numHeldCopies = 0;
 		this.numSaleMisses = 0;
 		this.editorPick = false;
 	}
@@ -61,11 +65,42 @@ public final class ImmutableStockBook extends ImmutableBook implements StockBook
 	 */
 	public ImmutableStockBook(int isbn, String title, String author, float price, int numCopies, long numSaleMisses,
 			long numTimesRated, long totalRating, boolean editorPick) {
+		this(isbn, title, author, price, numCopies, 0, numSaleMisses, numTimesRated, totalRating, editorPick);
+	}
+
+	/**
+	 * Instantiates a new {@link ImmutableStockBook} with copies held by
+	 * reservations.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @param title
+	 *            the title
+	 * @param author
+	 *            the author
+	 * @param price
+	 *            the price
+	 * @param numCopies
+	 *            the number of copies available
+	 * @param numHeldCopies
+	 *            the number of copies held by reservations
+	 * @param numSaleMisses
+	 *            the number of sale misses
+	 * @param numTimesRated
+	 *            the number of times rated
+	 * @param totalRating
+	 *            the total rating
+	 * @param editorPick
+	 *            whether the book is editor picked
+	 */
+	public ImmutableStockBook(int isbn, String title, String author, float price, int numCopies, int numHeldCopies,
+			long numSaleMisses, long numTimesRated, long totalRating, boolean editorPick) {
 		super(isbn, title, author, price);
 
 		this.totalRating = totalRating;
 		this.numTimesRated = numTimesRated;
 		this.numCopies = numCopies;
+		this.numHeldCopies = numHeldCopies;
 		this.numSaleMisses = numSaleMisses;
 		this.editorPick = editorPick;
 	}
@@ -97,6 +132,15 @@ public final class ImmutableStockBook extends ImmutableBook implements StockBook
 		return numCopies;
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.business.StockBook#getNumHeldCopies()
+	 */
+	public int getNumHeldCopies() {
+		return numHeldCopies;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
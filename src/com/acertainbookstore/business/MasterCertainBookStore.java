@@ -2,12 +2,19 @@ package com.acertainbookstore.business;
 
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Properties;
 import java.util.Set;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeoutException;
 
 import com.acertainbookstore.client.BookStoreClientConstants;
@@ -18,12 +25,29 @@ import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
 import com.acertainbookstore.utils.BookStoreMessageTag;
 import com.acertainbookstore.utils.BookStoreResult;
+import com.acertainbookstore.utils.BookStoreUtility;
 
 /**
  * {@link MasterCertainBookStore} is a wrapper over the {@link CertainBookStore}
  * class and supports the {@link ReplicatedBookStore} and
  * {@link ReplicatedStockManager} interfaces. This class also contains a
  * {@link Replicator} which replicates updates to slaves.
+ * 
+ * Writes are group replicated: every writer applies its write to the local
+ * store on its own thread, concurrently with the other writers, then waits
+ * for a single replication thread, which sends the changes committed by all
+ * the writes waiting for it to the slaves as a single batch, so that
+ * concurrent writers share the round trip to the slaves instead of queueing
+ * for one round trip each.
+ * 
+ * Replication is pipelined: the replication thread numbers the batches and
+ * goes on with the next batch as soon as a batch is sent, while another
+ * thread waits for the slaves to acknowledge the batches in order and answers
+ * the writers. Up to MAX_BATCHES_IN_FLIGHT batches are sent and not yet
+ * acknowledged.
+ * 
+ * How many slaves must acknowledge a batch, and how far behind the others may
+ * lag, is set by the {@link ReplicationAckPolicy} of server.properties.
  */
 public class MasterCertainBookStore extends ReadOnlyCertainBookStore
 		implements ReplicatedBookStore, ReplicatedStockManager {
@@ -31,6 +55,21 @@ public class MasterCertainBookStore extends ReadOnlyCertainBookStore
 	/** The replicator. */
 	private Replicator replicator = null;
 
+	/** The maximum number of writes replicated as a single batch. */
+	private static final int MAX_BATCH_SIZE = 256;
+
+	/** The maximum number of batches sent to the slaves and not acknowledged. */
+	private static final int MAX_BATCHES_IN_FLIGHT = 4;
+
+	/** The writes applied and waiting for the replication. */
+	private final BlockingQueue<PendingWrite> pendingWrites = new LinkedBlockingQueue<>();
+
+	/** The batches waiting for the slaves to acknowledge them, in order. */
+	private final BlockingQueue<InFlightBatch> inFlightBatches = new ArrayBlockingQueue<>(MAX_BATCHES_IN_FLIGHT);
+
+	/** The sequence number of the latest batch replicated. */
+	private long lastSequenceNumber = 0;
+
 	/** The file path. */
 	private String filePath = "./server.properties";
 
@@ -39,24 +78,45 @@ public class MasterCertainBookStore extends ReadOnlyCertainBookStore
 	 * @throws Exception 
 	 */
 	public MasterCertainBookStore() throws Exception {
-		Set<String> slaveServers = initializeSlaveMapping();
+		Properties props = loadServerProperties();
+		Set<String> slaveServers = initializeSlaveMapping(props);
 		bookStore = new CertainBookStore();
-
-		// The thread pool size is equal to number of slaves for which
-		// concurrent requests need to be sent.
-		replicator = new CertainBookStoreReplicator(slaveServers.size(), slaveServers);
+		bookStore.setRecordChanges(true);
+		bookStore.setHotISBNs(initializeHotBooks(props));
+
+		replicator = new CertainBookStoreReplicator(
+				ReplicationTopology.fromProperties(props, new ArrayList<>(slaveServers)),
+				ReplicationTopology.MASTER_INDEX, ReplicationAckPolicy.fromProperties(props),
+				initializeMasterAddress(props));
+
+		// Only the master expires reservations, and replicates the expiry as
+		// a cancellation, so that the slaves never expire them on their own.
+		// The replication of the cancellation is not waited for, which would
+		// hold up the timer thread, and the cancellation fails if the
+		// reservation was committed or cancelled meanwhile.
+		bookStore.setReservationExpiryHandler(reservationId -> submit(() -> {
+			bookStore.cancelReservation(reservationId);
+			return null;
+		}));
+
+		Thread replication = new Thread(this::runReplication, "Replication");
+		replication.setDaemon(true);
+		replication.start();
+
+		Thread acknowledger = new Thread(this::runAcknowledgements, "ReplicationAcks");
+		acknowledger.setDaemon(true);
+		acknowledger.start();
 	}
 
 	/**
-	 * Initialize slave mapping.
+	 * Loads the server properties.
 	 *
-	 * @return the sets the
+	 * @return the properties
 	 * @throws BookStoreException
 	 *             the book store exception
 	 */
-	private Set<String> initializeSlaveMapping() throws BookStoreException {
+	private Properties loadServerProperties() throws BookStoreException {
 		Properties props = new Properties();
-		Set<String> slaveServers = new HashSet<>();
 
 		try {
 			props.load(new FileInputStream(filePath));
@@ -64,6 +124,71 @@ public class MasterCertainBookStore extends ReadOnlyCertainBookStore
 			throw new BookStoreException(ex);
 		}
 
+		return props;
+	}
+
+	/**
+	 * Reads the address of the master, which the slaves load snapshots from.
+	 *
+	 * @param props
+	 *            the server properties
+	 * @return the master address, null if it is not configured
+	 */
+	private String initializeMasterAddress(Properties props) {
+		String master = props.getProperty(BookStoreConstants.KEY_MASTER);
+
+		if (BookStoreUtility.isEmpty(master)) {
+			return null;
+		}
+
+		master = master.trim();
+
+		if (!master.toLowerCase().startsWith("http://")) {
+			master = "http://" + master;
+		}
+
+		return master;
+	}
+
+	/**
+	 * Reads the ISBNs of the hot books, whose copies are split over per-core
+	 * shards once they are added (cf. {@link EscrowStock}).
+	 *
+	 * @param props
+	 *            the server properties
+	 * @return the ISBNs, empty if none are configured
+	 * @throws BookStoreException
+	 *             if an ISBN is invalid
+	 */
+	private Set<Integer> initializeHotBooks(Properties props) throws BookStoreException {
+		Set<Integer> hotBooks = new HashSet<>();
+		String isbns = props.getProperty(BookStoreConstants.KEY_HOT_BOOKS);
+
+		if (BookStoreUtility.isEmpty(isbns)) {
+			return hotBooks;
+		}
+
+		for (String isbn : isbns.split(BookStoreConstants.SPLIT_HOT_BOOKS_REGEX)) {
+			try {
+				hotBooks.add(Integer.parseInt(isbn.trim()));
+			} catch (NumberFormatException ex) {
+				throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID, ex);
+			}
+		}
+
+		return hotBooks;
+	}
+
+	/**
+	 * Initialize slave mapping.
+	 *
+	 * @param props
+	 *            the server properties
+	 * @return the sets the
+	 */
+	private Set<String> initializeSlaveMapping(Properties props) {
+		// The order of the slaves lays out the replication topology.
+		Set<String> slaveServers = new LinkedHashSet<>();
 		String slaveAddresses = props.getProperty(BookStoreConstants.KEY_SLAVE);
 
 		for (String slave : slaveAddresses.split(BookStoreConstants.SPLIT_SLAVE_REGEX)) {
@@ -82,45 +207,170 @@ public class MasterCertainBookStore extends ReadOnlyCertainBookStore
 	}
 
 	/**
-	 * Wait for slave updates.
+	 * Applies a write to the local store on the calling thread and submits it
+	 * to the replication without waiting for it. A rejected write is
+	 * replicated too, since it may have committed changes, e.g. the sale
+	 * misses of a rejected order.
 	 *
-	 * @param replicatedSlaveFutures
-	 *            the replicated slave futures
+	 * @param localWrite
+	 *            the write applied to the local store
+	 * @return the result of the write, completed once it is replicated
 	 */
-	private void waitForSlaveUpdates(List<Future<ReplicationResult>> replicatedSlaveFutures) {
-		Set<String> faultySlaveServers = new HashSet<>();
+	private CompletableFuture<BookStoreResult> submit(LocalWrite localWrite) {
+		PendingWrite pendingWrite;
 
-		for (Future<ReplicationResult> slaveServer : replicatedSlaveFutures) {
-			while (true) {
+		try {
+			List<?> resultList = localWrite.apply();
+			pendingWrite = new PendingWrite(new BookStoreResult(resultList, bookStore.getSnapshotId()), null);
+		} catch (BookStoreException | RuntimeException ex) {
+			pendingWrite = new PendingWrite(null, ex);
+		}
 
-				// We want a non-cancellable get() so do it in a loop until
-				// successful to ignore interrupted exceptions.
-				try {
+		pendingWrites.add(pendingWrite);
+		return pendingWrite.result;
+	}
+
+	/**
+	 * Applies a write to the local store and waits for its replication.
+	 *
+	 * @param localWrite
+	 *            the write applied to the local store
+	 * @return the book store result
+	 * @throws BookStoreException
+	 *             if the write was rejected
+	 */
+	private BookStoreResult write(LocalWrite localWrite) throws BookStoreException {
+		try {
+			return submit(localWrite).join();
+		} catch (CompletionException ex) {
+			Throwable cause = ex.getCause();
+
+			if (cause instanceof BookStoreException) {
+				throw (BookStoreException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+
+			throw new BookStoreException(cause);
+		}
+	}
+
+	/**
+	 * Runs the replication: takes the writes waiting when the previous batch
+	 * is sent, all of them applied to the local store already, and sends the
+	 * changes committed up to the latest snapshot to the slaves as a single
+	 * batch, tagged with its sequence number and the one of the previous
+	 * batch. The batch is then handed to the acknowledgements.
+	 */
+	private void runReplication() {
+		while (true) {
+			List<PendingWrite> batch = new ArrayList<>();
+
+			try {
+				batch.add(pendingWrites.take());
+			} catch (InterruptedException e) {
+
+				// There is no terminate semantics, keep replicating.
+				continue;
+			}
+
+			pendingWrites.drainTo(batch, MAX_BATCH_SIZE - 1);
+			List<Future<ReplicationResult>> replicatedSlaveFutures = Collections.emptyList();
+
+			try {
+
+				// Every write of the batch was published before it was
+				// submitted, so the latest snapshot covers its changes. Only
+				// the changes committed are replicated, e.g. the sale misses
+				// of a rejected order, and the changes of a book are merged
+				// into its last state. A batch is sent whenever a snapshot was
+				// published though, so that the slaves reach its snapshot id.
+				long snapshotId = bookStore.getSnapshotId();
+				List<BookChange> committedChanges = bookStore.drainCommittedChanges(snapshotId);
+
+				if (snapshotId != lastSequenceNumber) {
+					ReplicationRequest request = new ReplicationRequest(
+							new LinkedHashSet<>(BookChange.mergeByISBN(committedChanges)),
+							BookStoreMessageTag.REPLICATEBATCH);
+					request.setPreviousSequenceNumber(lastSequenceNumber);
+					lastSequenceNumber = snapshotId;
+					request.setSequenceNumber(lastSequenceNumber);
+					replicatedSlaveFutures = replicator.replicate(request);
+				}
+			} catch (Throwable t) {
+
+				// The writers must not wait forever for a batch never sent.
+				t.printStackTrace();
+				completeExceptionally(batch, t);
+				continue;
+			}
 
-					// block until the future result is available.
-					ReplicationResult result = slaveServer.get();
+			InFlightBatch inFlightBatch = new InFlightBatch(batch, replicatedSlaveFutures);
 
-					if (!result.isReplicationSuccessful()) {
-						faultySlaveServers.add(result.getServerAddress());
-					}
+			while (true) {
+				try {
 
+					// Blocks while MAX_BATCHES_IN_FLIGHT batches are in flight.
+					inFlightBatches.put(inFlightBatch);
 					break;
 				} catch (InterruptedException e) {
 
-					// Current thread was interrupted, there is no terminate
-					// semantics so just ignore it and retry.
-				} catch (ExecutionException e) {
+					// The batch is sent already, it must be acknowledged.
+				}
+			}
+		}
+	}
+
+	/**
+	 * Runs the acknowledgements: waits for the slaves to acknowledge the
+	 * batches in the order they were sent, as many of them as the
+	 * {@link ReplicationAckPolicy} requires, and answers the writers of each
+	 * batch.
+	 */
+	private void runAcknowledgements() {
+		while (true) {
+			InFlightBatch inFlightBatch;
+
+			try {
+				inFlightBatch = inFlightBatches.take();
+			} catch (InterruptedException e) {
+
+				// There is no terminate semantics, keep acknowledging.
+				continue;
+			}
+
+			try {
+				replicator.awaitAcknowledgements(inFlightBatch.replicatedSlaveFutures);
+			} catch (Throwable t) {
+				t.printStackTrace();
+				completeExceptionally(inFlightBatch.writes, t);
+				continue;
+			}
 
-					// Some exception happened in the replicator thread - this
-					// should not happen, crash the process -> fail stop.
-					e.printStackTrace();
-					System.exit(-1);
+			for (PendingWrite pendingWrite : inFlightBatch.writes) {
+				if (pendingWrite.localException != null) {
+					pendingWrite.result.completeExceptionally(pendingWrite.localException);
+				} else {
+					pendingWrite.result.complete(pendingWrite.localResult);
 				}
 			}
 		}
+	}
 
-		if (!faultySlaveServers.isEmpty()) {
-			replicator.markServersFaulty(faultySlaveServers);
+	/**
+	 * Answers the writers of a batch whose replication failed with the
+	 * failure.
+	 *
+	 * @param writes
+	 *            the writes of the batch
+	 * @param failure
+	 *            the failure
+	 */
+	private static void completeExceptionally(List<PendingWrite> writes, Throwable failure) {
+		for (PendingWrite pendingWrite : writes) {
+			pendingWrite.result.completeExceptionally(failure);
 		}
 	}
 
@@ -131,16 +381,11 @@ public class MasterCertainBookStore extends ReadOnlyCertainBookStore
 	 * com.acertainbookstore.interfaces.ReplicatedStockManager#addBooks(java.
 	 * util.Set)
 	 */
-	public synchronized BookStoreResult addBooks(Set<StockBook> bookSet) throws BookStoreException {
-		ReplicationRequest request = new ReplicationRequest(bookSet, BookStoreMessageTag.ADDBOOKS);
-		List<Future<ReplicationResult>> replicatedSlaveFutures = replicator.replicate(request);
-
-		// If this fails it will throw an exception.
-		bookStore.addBooks(bookSet);
-
-		snapshotId++;
-		waitForSlaveUpdates(replicatedSlaveFutures);
-		return new BookStoreResult(null, snapshotId);
+	public BookStoreResult addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		return write(() -> {
+			bookStore.addBooks(bookSet);
+			return null;
+		});
 	}
 
 	/*
@@ -150,16 +395,11 @@ public class MasterCertainBookStore extends ReadOnlyCertainBookStore
 	 * com.acertainbookstore.interfaces.ReplicatedStockManager#addCopies(java.
 	 * util.Set)
 	 */
-	public synchronized BookStoreResult addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
-		ReplicationRequest request = new ReplicationRequest(bookCopiesSet, BookStoreMessageTag.ADDCOPIES);
-		List<Future<ReplicationResult>> replicatedSlaveFutures = replicator.replicate(request);
-
-		// If this fails it will throw an exception.
-		bookStore.addCopies(bookCopiesSet);
-
-		snapshotId++;
-		waitForSlaveUpdates(replicatedSlaveFutures);
-		return new BookStoreResult(null, snapshotId);
+	public BookStoreResult addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		return write(() -> {
+			bookStore.addCopies(bookCopiesSet);
+			return null;
+		});
 	}
 
 	/*
@@ -169,16 +409,11 @@ public class MasterCertainBookStore extends ReadOnlyCertainBookStore
 	 * com.acertainbookstore.interfaces.ReplicatedStockManager#updateEditorPicks
 	 * (java.util.Set)
 	 */
-	public synchronized BookStoreResult updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
-		ReplicationRequest request = new ReplicationRequest(editorPicks, BookStoreMessageTag.UPDATEEDITORPICKS);
-		List<Future<ReplicationResult>> replicatedSlaveFutures = replicator.replicate(request);
-
-		// If this fails it will throw an exception.
-		bookStore.updateEditorPicks(editorPicks);
-
-		snapshotId++;
-		waitForSlaveUpdates(replicatedSlaveFutures);
-		return new BookStoreResult(null, snapshotId);
+	public BookStoreResult updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		return write(() -> {
+			bookStore.updateEditorPicks(editorPicks);
+			return null;
+		});
 	}
 
 	/*
@@ -188,16 +423,56 @@ public class MasterCertainBookStore extends ReadOnlyCertainBookStore
 	 * com.acertainbookstore.interfaces.ReplicatedBookStore#buyBooks(java.util.
 	 * Set)
 	 */
-	public synchronized BookStoreResult buyBooks(Set<BookCopy> booksToBuy) throws BookStoreException {
-		ReplicationRequest request = new ReplicationRequest(booksToBuy, BookStoreMessageTag.BUYBOOKS);
-		List<Future<ReplicationResult>> replicatedSlaveFutures = replicator.replicate(request);
+	public BookStoreResult buyBooks(Set<BookCopy> booksToBuy) throws BookStoreException {
+		return write(() -> {
+			bookStore.buyBooks(booksToBuy);
+			return null;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.ReplicatedBookStore#reserveBooks(java.
+	 * util.Set, long)
+	 */
+	public BookStoreResult reserveBooks(Set<BookCopy> booksToReserve, long ttlMillis) throws BookStoreException {
+		long reservationId = bookStore.nextReservationId();
+		BookReservation reservation = new BookReservation(reservationId, booksToReserve, ttlMillis);
+
+		return write(() -> {
+					bookStore.reserveBooks(reservation);
+					return Collections.singletonList(reservationId);
+				});
+	}
 
-		// If this fails it will throw an exception.
-		bookStore.buyBooks(booksToBuy);
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.ReplicatedBookStore#commitReservation(
+	 * long)
+	 */
+	public BookStoreResult commitReservation(long reservationId) throws BookStoreException {
+		return write(() -> {
+					bookStore.commitReservation(reservationId);
+					return null;
+				});
+	}
 
-		snapshotId++;
-		waitForSlaveUpdates(replicatedSlaveFutures);
-		return new BookStoreResult(null, snapshotId);
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.ReplicatedBookStore#cancelReservation(
+	 * long)
+	 */
+	public BookStoreResult cancelReservation(long reservationId) throws BookStoreException {
+		return write(() -> {
+					bookStore.cancelReservation(reservationId);
+					return null;
+				});
 	}
 
 	/*
@@ -207,8 +482,11 @@ public class MasterCertainBookStore extends ReadOnlyCertainBookStore
 	 * com.acertainbookstore.interfaces.ReplicatedBookStore#rateBooks(java.util.
 	 * Set)
 	 */
-	public synchronized BookStoreResult rateBooks(Set<BookRating> bookRating) throws BookStoreException {
-		throw new BookStoreException("Not implemented");
+	public BookStoreResult rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		return write(() -> {
+			bookStore.rateBooks(bookRating);
+			return null;
+		});
 	}
 
 	/*
@@ -217,16 +495,11 @@ public class MasterCertainBookStore extends ReadOnlyCertainBookStore
 	 * @see
 	 * com.acertainbookstore.interfaces.ReplicatedStockManager#removeAllBooks()
 	 */
-	public synchronized BookStoreResult removeAllBooks() throws BookStoreException {
-		ReplicationRequest request = new ReplicationRequest(null, BookStoreMessageTag.REMOVEALLBOOKS);
-		List<Future<ReplicationResult>> replicatedSlaveFutures = replicator.replicate(request);
-
-		// If this fails it will throw an exception.
-		bookStore.removeAllBooks();
-
-		snapshotId++;
-		waitForSlaveUpdates(replicatedSlaveFutures);
-		return new BookStoreResult(null, snapshotId);
+	public BookStoreResult removeAllBooks() throws BookStoreException {
+		return write(() -> {
+			bookStore.removeAllBooks();
+			return null;
+		});
 	}
 
 	/*
@@ -236,15 +509,82 @@ public class MasterCertainBookStore extends ReadOnlyCertainBookStore
 	 * com.acertainbookstore.interfaces.ReplicatedStockManager#removeBooks(java.
 	 * util.Set)
 	 */
-	public synchronized BookStoreResult removeBooks(Set<Integer> isbnSet) throws BookStoreException {
-		ReplicationRequest request = new ReplicationRequest(isbnSet, BookStoreMessageTag.REMOVEBOOKS);
-		List<Future<ReplicationResult>> replicatedSlaveFutures = replicator.replicate(request);
+	public BookStoreResult removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		return write(() -> {
+			bookStore.removeBooks(isbnSet);
+			return null;
+		});
+	}
 
-		// If this fails it will throw an exception.
-		bookStore.removeBooks(isbnSet);
+	/**
+	 * {@link LocalWrite} applies a write to the local store.
+	 */
+	private interface LocalWrite {
+
+		/**
+		 * Applies the write.
+		 *
+		 * @return the result list of the write, if any
+		 * @throws BookStoreException
+		 *             if the write is rejected
+		 */
+		List<?> apply() throws BookStoreException;
+	}
 
-		snapshotId++;
-		waitForSlaveUpdates(replicatedSlaveFutures);
-		return new BookStoreResult(null, snapshotId);
+	/**
+	 * {@link InFlightBatch} is a batch sent to the slaves, waiting for their
+	 * acknowledgements.
+	 */
+	private static final class InFlightBatch {
+
+		/** The writes of the batch. */
+		private final List<PendingWrite> writes;
+
+		/** The replicated slave futures. */
+		private final List<Future<ReplicationResult>> replicatedSlaveFutures;
+
+		/**
+		 * Instantiates a new {@link InFlightBatch}.
+		 *
+		 * @param writes
+		 *            the writes of the batch
+		 * @param replicatedSlaveFutures
+		 *            the replicated slave futures
+		 */
+		private InFlightBatch(List<PendingWrite> writes, List<Future<ReplicationResult>> replicatedSlaveFutures) {
+			this.writes = writes;
+			this.replicatedSlaveFutures = replicatedSlaveFutures;
+		}
+	}
+
+	/**
+	 * {@link PendingWrite} is a write applied to the local store and waiting
+	 * for the replication.
+	 */
+	private static final class PendingWrite {
+
+		/** The result of the write, completed once it is replicated. */
+		private final CompletableFuture<BookStoreResult> result = new CompletableFuture<>();
+
+		/** The result of the write on the local store. */
+		private final BookStoreResult localResult;
+
+		/** The exception rejecting the write on the local store. */
+		private final Exception localException;
+
+		/**
+		 * Instantiates a new {@link PendingWrite}.
+		 *
+		 * @param localResult
+		 *            the result of the write on the local store, null if it
+		 *            was rejected
+		 * @param localException
+		 *            the exception rejecting the write, null if it was not
+		 *            rejected
+		 */
+		private PendingWrite(BookStoreResult localResult, Exception localException) {
+			this.localResult = localResult;
+			this.localException = localException;
+		}
 	}
 }
@@ -8,15 +8,14 @@ import com.acertainbookstore.utils.BookStoreException;
 import com.acertainbookstore.utils.BookStoreResult;
 
 /**
- * {@link ReadOnlyCertainBookStore} defines a read only bookstore.
+ * {@link ReadOnlyCertainBookStore} defines a read only bookstore. The reads
+ * are not serialized with the writes, each result carries the id of the
+ * snapshot of the {@link CertainBookStore} it was read from.
  */
 public class ReadOnlyCertainBookStore implements ReplicatedReadOnlyBookStore, ReplicatedReadOnlyStockManager {
 
-	/** The book store. */
-	protected CertainBookStore bookStore = null;
-
-	/** The snapshot id. */
-	protected long snapshotId = 0;
+	/** The book store, which a slave replaces when it loads a snapshot. */
+	protected volatile CertainBookStore bookStore = null;
 
 	/**
 	 * Instantiates a new read only certain book store.
@@ -32,8 +31,19 @@ public class ReadOnlyCertainBookStore implements ReplicatedReadOnlyBookStore, Re
 	 * com.acertainbookstore.interfaces.ReplicatedReadOnlyStockManager#getBooks(
 	 * )
 	 */
-	public synchronized BookStoreResult getBooks() throws BookStoreException {
-		return new BookStoreResult(bookStore.getBooks(), snapshotId);
+	public BookStoreResult getBooks() throws BookStoreException {
+		return bookStore.getStockBooksSnapshot();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.ReplicatedReadOnlyStockManager#getBooks(
+	 * int, int)
+	 */
+	public BookStoreResult getBooks(int afterISBN, int numBooks) throws BookStoreException {
+		return bookStore.getStockBooksSnapshot(afterISBN, numBooks);
 	}
 
 	/*
@@ -42,8 +52,8 @@ public class ReadOnlyCertainBookStore implements ReplicatedReadOnlyBookStore, Re
 	 * @see com.acertainbookstore.interfaces.ReplicatedReadOnlyStockManager#
 	 * getBooksInDemand()
 	 */
-	public synchronized BookStoreResult getBooksInDemand() throws BookStoreException {
-		throw new BookStoreException("Not implemented");
+	public BookStoreResult getBooksInDemand() throws BookStoreException {
+		return bookStore.getBooksInDemandSnapshot();
 	}
 
 	/*
@@ -53,8 +63,8 @@ public class ReadOnlyCertainBookStore implements ReplicatedReadOnlyBookStore, Re
 	 * com.acertainbookstore.interfaces.ReplicatedReadOnlyBookStore#getBooks(
 	 * java.util.Set)
 	 */
-	public synchronized BookStoreResult getBooks(Set<Integer> isbnList) throws BookStoreException {
-		return new BookStoreResult(bookStore.getBooks(isbnList), snapshotId);
+	public BookStoreResult getBooks(Set<Integer> isbnList) throws BookStoreException {
+		return bookStore.getBooksSnapshot(isbnList);
 	}
 
 	/*
@@ -63,8 +73,8 @@ public class ReadOnlyCertainBookStore implements ReplicatedReadOnlyBookStore, Re
 	 * @see com.acertainbookstore.interfaces.ReplicatedReadOnlyBookStore#
 	 * getTopRatedBooks(int)
 	 */
-	public synchronized BookStoreResult getTopRatedBooks(int numBooks) throws BookStoreException {
-		throw new BookStoreException("Not implemented");
+	public BookStoreResult getTopRatedBooks(int numBooks) throws BookStoreException {
+		return bookStore.getTopRatedBooksSnapshot(numBooks);
 	}
 
 	/*
@@ -73,8 +83,30 @@ public class ReadOnlyCertainBookStore implements ReplicatedReadOnlyBookStore, Re
 	 * @see com.acertainbookstore.interfaces.ReplicatedReadOnlyBookStore#
 	 * getEditorPicks(int)
 	 */
-	public synchronized BookStoreResult getEditorPicks(int numBooks) throws BookStoreException {
-		return new BookStoreResult(bookStore.getEditorPicks(numBooks), snapshotId);
+	public BookStoreResult getEditorPicks(int numBooks) throws BookStoreException {
+		return bookStore.getEditorPicksSnapshot(numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.ReplicatedReadOnlyBookStore#searchBooks(
+	 * java.lang.String, int, int)
+	 */
+	public BookStoreResult searchBooks(String query, int afterISBN, int numBooks) throws BookStoreException {
+		return bookStore.searchBooksSnapshot(query, afterISBN, numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.ReplicatedReadOnlyBookStore#
+	 * getBooksByPriceRange(float, float, long, int)
+	 */
+	public BookStoreResult getBooksByPriceRange(float minPrice, float maxPrice, long cursor, int numBooks)
+			throws BookStoreException {
+		return bookStore.getBooksByPriceRangeSnapshot(minPrice, maxPrice, cursor, numBooks);
 	}
 
 	/*
@@ -83,7 +115,7 @@ public class ReadOnlyCertainBookStore implements ReplicatedReadOnlyBookStore, Re
 	 * @see com.acertainbookstore.interfaces.ReplicatedReadOnlyStockManager#
 	 * getBooksByISBN(java.util.Set)
 	 */
-	public synchronized BookStoreResult getBooksByISBN(Set<Integer> isbns) throws BookStoreException {
-		return new BookStoreResult(bookStore.getBooksByISBN(isbns), snapshotId);
+	public BookStoreResult getBooksByISBN(Set<Integer> isbns) throws BookStoreException {
+		return bookStore.getBooksByISBNSnapshot(isbns);
 	}
 }
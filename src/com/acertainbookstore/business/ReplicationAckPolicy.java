@@ -0,0 +1,188 @@
+package com.acertainbookstore.business;
+
+import java.util.Locale;
+import java.util.Properties;
+
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link ReplicationAckPolicy} decides how many slaves must acknowledge a
+ * replicated batch before its writers are answered, and how far behind the
+ * master the other slaves may fall:
+ *
+ * <ul>
+ * <li>all: every slave acknowledges the batch, the default;</li>
+ * <li>majority: a majority of the replicas, the master included, holds the
+ * batch;</li>
+ * <li>k: k slaves acknowledge the batch, at least 1 and at most all of
+ * them;</li>
+ * <li>async: no slave needs to acknowledge the batch.</li>
+ * </ul>
+ *
+ * The acknowledgements are counted over the live slaves the batch is sent to,
+ * the faulty slaves being left out until they are re-admitted. The master
+ * applied the batch before sending it, so the writes are not failed when too
+ * many slaves fail it: the writers are answered once every slave answered,
+ * and the replicator logs the batches held by fewer replicas than the policy
+ * requires.
+ *
+ * Whatever the policy, writers are held back while a slave lags behind by more
+ * than the maximum number of operations or milliseconds, so that slow slaves
+ * throttle the writes instead of falling further behind.
+ */
+public class ReplicationAckPolicy {
+
+	/** The value of the all policy. */
+	private static final String ALL = "all";
+
+	/** The value of the majority policy. */
+	private static final String MAJORITY = "majority";
+
+	/** The value of the async policy. */
+	private static final String ASYNC = "async";
+
+	/** The default maximum lag in operations. */
+	private static final long DEFAULT_MAX_LAG_OPS = 10000;
+
+	/** The default maximum lag in milliseconds. */
+	private static final long DEFAULT_MAX_LAG_MILLIS = 5000;
+
+	/** The policy: all, majority, async, or the number of acknowledgements. */
+	private final String acks;
+
+	/** The number of acknowledgements of the k policy, 0 for the others. */
+	private final int numAcks;
+
+	/** The maximum number of operations a slave lags behind. */
+	private final long maxLagOps;
+
+	/** The maximum number of milliseconds a slave lags behind. */
+	private final long maxLagMillis;
+
+	/**
+	 * Instantiates a new {@link ReplicationAckPolicy}.
+	 *
+	 * @param acks
+	 *            all, majority, async, or the number of acknowledgements
+	 * @param maxLagOps
+	 *            the maximum number of operations a slave lags behind
+	 * @param maxLagMillis
+	 *            the maximum number of milliseconds a slave lags behind
+	 * @throws BookStoreException
+	 *             if the policy is invalid
+	 */
+	public ReplicationAckPolicy(String acks, long maxLagOps, long maxLagMillis) throws BookStoreException {
+		this.acks = acks.trim().toLowerCase(Locale.ROOT);
+		this.maxLagOps = maxLagOps;
+		this.maxLagMillis = maxLagMillis;
+
+		if (this.acks.equals(ALL) || this.acks.equals(MAJORITY) || this.acks.equals(ASYNC)) {
+			numAcks = 0;
+		} else {
+			numAcks = parseNumAcks(acks);
+		}
+
+		if (maxLagOps <= 0 || maxLagMillis <= 0) {
+			throw new BookStoreException(
+					"replication lag " + maxLagOps + "/" + maxLagMillis + BookStoreConstants.INVALID);
+		}
+	}
+
+	/**
+	 * Parses the number of acknowledgements of the k policy. No acknowledgement
+	 * at all is the async policy, so 0 is rejected.
+	 *
+	 * @param acks
+	 *            the policy
+	 * @return the number of acknowledgements
+	 * @throws BookStoreException
+	 *             if the policy is not a positive int
+	 */
+	private static int parseNumAcks(String acks) throws BookStoreException {
+		int numAcks;
+
+		try {
+			numAcks = Integer.parseInt(acks.trim());
+		} catch (NumberFormatException ex) {
+			throw new BookStoreException(BookStoreConstants.KEY_REPLICATION_ACKS + " " + acks + BookStoreConstants.INVALID,
+					ex);
+		}
+
+		if (numAcks <= 0) {
+			throw new BookStoreException(BookStoreConstants.KEY_REPLICATION_ACKS + " " + acks + BookStoreConstants.INVALID);
+		}
+
+		return numAcks;
+	}
+
+	/**
+	 * Reads the policy from the server properties, waiting for all the slaves
+	 * if it is not configured.
+	 *
+	 * @param props
+	 *            the server properties
+	 * @return the policy
+	 * @throws BookStoreException
+	 *             if the policy is invalid
+	 */
+	public static ReplicationAckPolicy fromProperties(Properties props) throws BookStoreException {
+		try {
+			return new ReplicationAckPolicy(props.getProperty(BookStoreConstants.KEY_REPLICATION_ACKS, ALL),
+					Long.parseLong(props.getProperty(BookStoreConstants.KEY_REPLICATION_MAX_LAG_OPS,
+							Long.toString(DEFAULT_MAX_LAG_OPS)).trim()),
+					Long.parseLong(props.getProperty(BookStoreConstants.KEY_REPLICATION_MAX_LAG_MILLIS,
+							Long.toString(DEFAULT_MAX_LAG_MILLIS)).trim()));
+		} catch (NumberFormatException ex) {
+			throw new BookStoreException(ex);
+		}
+	}
+
+	/**
+	 * Gets the number of slaves which must acknowledge a batch.
+	 *
+	 * @param numSlaves
+	 *            the number of slaves the batch was sent to
+	 * @return the number of acknowledgements
+	 */
+	public int getRequiredAcks(int numSlaves) {
+		switch (acks) {
+		case ALL:
+			return numSlaves;
+		case MAJORITY:
+			return (numSlaves + 1) / 2;
+		case ASYNC:
+			return 0;
+		default:
+			return Math.min(numAcks, numSlaves);
+		}
+	}
+
+	/**
+	 * Gets the maximum number of operations a slave lags behind.
+	 *
+	 * @return the maximum lag in operations
+	 */
+	public long getMaxLagOps() {
+		return maxLagOps;
+	}
+
+	/**
+	 * Gets the maximum number of milliseconds a slave lags behind.
+	 *
+	 * @return the maximum lag in milliseconds
+	 */
+	public long getMaxLagMillis() {
+		return maxLagMillis;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return acks + " (max lag " + maxLagOps + " ops, " + maxLagMillis + " ms)";
+	}
+}
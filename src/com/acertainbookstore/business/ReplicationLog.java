@@ -0,0 +1,260 @@
+package com.acertainbookstore.business;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * {@link ReplicationLog} retains the batches replicated by the master, as the
+ * records sent on the replication streams, so that a slave which missed some
+ * of them can be sent them again. The latest records are kept in memory up
+ * to a number of bytes, the older ones being spilled to a temporary file up
+ * to another number of bytes. When the file is full the records it holds are
+ * dropped, and a slave which missed them cannot catch up from the log.
+ *
+ * The records are truncated once no slave needs them, and the file is
+ * emptied once all the records it holds are truncated.
+ */
+public class ReplicationLog {
+
+	/** The maximum number of bytes of the records kept in memory. */
+	private final long maxMemoryBytes;
+
+	/** The maximum number of bytes of the records spilled to the file. */
+	private final long maxDiskBytes;
+
+	/** The records kept in memory, by sequence number. */
+	private final NavigableMap<Long, ByteBuffer> memoryRecords = new TreeMap<>();
+
+	/** The offsets of the records spilled to the file, by sequence number. */
+	private final NavigableMap<Long, Long> diskOffsets = new TreeMap<>();
+
+	/** The number of bytes of the records kept in memory. */
+	private long memoryBytes = 0;
+
+	/** The file the records are spilled to, null until a record is spilled. */
+	private FileChannel file = null;
+
+	/** The sequence number of the latest record dropped or truncated. */
+	private long truncatedSequenceNumber = 0;
+
+	/** The sequence number of the latest record appended. */
+	private long lastSequenceNumber = 0;
+
+	/**
+	 * Instantiates a new {@link ReplicationLog}.
+	 *
+	 * @param maxMemoryBytes
+	 *            the maximum number of bytes of the records kept in memory
+	 * @param maxDiskBytes
+	 *            the maximum number of bytes of the records spilled to disk
+	 */
+	public ReplicationLog(long maxMemoryBytes, long maxDiskBytes) {
+		this.maxMemoryBytes = maxMemoryBytes;
+		this.maxDiskBytes = maxDiskBytes;
+	}
+
+	/**
+	 * Appends a record, spilling the oldest records kept in memory to the file
+	 * if they take too many bytes.
+	 *
+	 * @param sequenceNumber
+	 *            the sequence number of the batch
+	 * @param record
+	 *            the record, which is not modified
+	 */
+	public synchronized void append(long sequenceNumber, ByteBuffer record) {
+		memoryRecords.put(sequenceNumber, record.duplicate());
+		memoryBytes += record.remaining();
+		lastSequenceNumber = Math.max(lastSequenceNumber, sequenceNumber);
+
+		while (memoryBytes > maxMemoryBytes && !memoryRecords.isEmpty()) {
+			Map.Entry<Long, ByteBuffer> oldest = memoryRecords.pollFirstEntry();
+			memoryBytes -= oldest.getValue().remaining();
+			spill(oldest.getKey(), oldest.getValue());
+		}
+	}
+
+	/**
+	 * Checks if the log holds all the records after a sequence number.
+	 *
+	 * @param sequenceNumber
+	 *            the sequence number of the latest batch a slave applied
+	 * @return true, if the slave can catch up from the log
+	 */
+	public synchronized boolean covers(long sequenceNumber) {
+		return sequenceNumber >= truncatedSequenceNumber;
+	}
+
+	/**
+	 * Reads the records following a sequence number, in order.
+	 *
+	 * @param sequenceNumber
+	 *            the sequence number the records follow
+	 * @param maxRecords
+	 *            the maximum number of records read
+	 * @return the sequence numbers and records, empty if there are no more
+	 */
+	public synchronized List<Map.Entry<Long, ByteBuffer>> read(long sequenceNumber, int maxRecords) {
+		List<Map.Entry<Long, ByteBuffer>> records = new ArrayList<>();
+
+		for (Map.Entry<Long, Long> diskOffset : diskOffsets.tailMap(sequenceNumber, false).entrySet()) {
+			if (records.size() >= maxRecords) {
+				return records;
+			}
+
+			records.add(new AbstractMap.SimpleImmutableEntry<>(diskOffset.getKey(), readSpilled(diskOffset.getValue())));
+		}
+
+		for (Map.Entry<Long, ByteBuffer> memoryRecord : memoryRecords.tailMap(sequenceNumber, false).entrySet()) {
+			if (records.size() >= maxRecords) {
+				return records;
+			}
+
+			records.add(new AbstractMap.SimpleImmutableEntry<>(memoryRecord.getKey(),
+					memoryRecord.getValue().duplicate()));
+		}
+
+		return records;
+	}
+
+	/**
+	 * Truncates the records up to a sequence number, which no slave needs.
+	 *
+	 * @param sequenceNumber
+	 *            the sequence number
+	 */
+	public synchronized void truncate(long sequenceNumber) {
+		if (sequenceNumber <= truncatedSequenceNumber) {
+			return;
+		}
+
+		Map<Long, ByteBuffer> truncatedRecords = memoryRecords.headMap(sequenceNumber, true);
+
+		for (ByteBuffer record : truncatedRecords.values()) {
+			memoryBytes -= record.remaining();
+		}
+
+		truncatedRecords.clear();
+		diskOffsets.headMap(sequenceNumber, true).clear();
+		truncatedSequenceNumber = sequenceNumber;
+
+		if (diskOffsets.isEmpty()) {
+			resetFile();
+		}
+	}
+
+	/**
+	 * Gets the sequence number of the latest record appended.
+	 *
+	 * @return the sequence number
+	 */
+	public synchronized long getLastSequenceNumber() {
+		return lastSequenceNumber;
+	}
+
+	/**
+	 * Spills a record to the file. If the file is full, the records it holds
+	 * are dropped first.
+	 *
+	 * @param sequenceNumber
+	 *            the sequence number of the batch
+	 * @param record
+	 *            the record
+	 */
+	private void spill(long sequenceNumber, ByteBuffer record) {
+		try {
+			if (file == null) {
+				File spillFile = File.createTempFile("replication", ".log");
+				spillFile.deleteOnExit();
+				file = new RandomAccessFile(spillFile, "rw").getChannel();
+			}
+
+			if (file.size() + record.remaining() > maxDiskBytes) {
+				System.err.println("Replication log full, the batches before " + sequenceNumber + " are dropped");
+				diskOffsets.clear();
+				resetFile();
+			}
+
+			long offset = file.size();
+			ByteBuffer spilledRecord = record.duplicate();
+
+			while (spilledRecord.hasRemaining()) {
+				file.write(spilledRecord, offset + spilledRecord.position());
+			}
+
+			diskOffsets.put(sequenceNumber, offset);
+		} catch (IOException ex) {
+
+			// A record which cannot be spilled is dropped with the older ones.
+			ex.printStackTrace();
+			diskOffsets.clear();
+			resetFile();
+		}
+
+		if (diskOffsets.isEmpty()) {
+			truncatedSequenceNumber = Math.max(truncatedSequenceNumber, sequenceNumber);
+		} else {
+			truncatedSequenceNumber = Math.max(truncatedSequenceNumber, diskOffsets.firstKey() - 1);
+		}
+	}
+
+	/**
+	 * Reads a record spilled to the file.
+	 *
+	 * @param offset
+	 *            the offset of the record
+	 * @return the record
+	 */
+	private ByteBuffer readSpilled(long offset) {
+		try {
+			ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+			readFully(length, offset);
+			ByteBuffer record = ByteBuffer.allocate(Integer.BYTES + length.getInt(0));
+			readFully(record, offset);
+			record.flip();
+			return record.asReadOnlyBuffer();
+		} catch (IOException ex) {
+			throw new IllegalStateException("Replication log unreadable at " + offset, ex);
+		}
+	}
+
+	/**
+	 * Fills a buffer from the file.
+	 *
+	 * @param buffer
+	 *            the buffer
+	 * @param offset
+	 *            the offset to read from
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void readFully(ByteBuffer buffer, long offset) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (file.read(buffer, offset + buffer.position()) < 0) {
+				throw new IOException("Unexpected end of the replication log");
+			}
+		}
+	}
+
+	/**
+	 * Empties the file.
+	 */
+	private void resetFile() {
+		if (file != null) {
+			try {
+				file.truncate(0);
+			} catch (IOException ex) {
+				ex.printStackTrace();
+			}
+		}
+	}
+}
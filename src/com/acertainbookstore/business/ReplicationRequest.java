@@ -15,6 +15,15 @@ public class ReplicationRequest {
 	/** The message type. */
 	private BookStoreMessageTag messageType;
 
+	/**
+	 * The sequence number of a batch, i.e. the snapshot id of the master once
+	 * the batch is applied.
+	 */
+	private long sequenceNumber;
+
+	/** The sequence number of the batch replicated before this one. */
+	private long previousSequenceNumber;
+
 	/**
 	 * Instantiates a new replication request.
 	 *
@@ -65,4 +74,42 @@ public class ReplicationRequest {
 	public void setMessageType(BookStoreMessageTag messageType) {
 		this.messageType = messageType;
 	}
+
+	/**
+	 * Gets the sequence number of the batch.
+	 *
+	 * @return the sequence number
+	 */
+	public long getSequenceNumber() {
+		return sequenceNumber;
+	}
+
+	/**
+	 * Sets the sequence number of the batch.
+	 *
+	 * @param sequenceNumber
+	 *            the new sequence number
+	 */
+	public void setSequenceNumber(long sequenceNumber) {
+		this.sequenceNumber = sequenceNumber;
+	}
+
+	/**
+	 * Gets the sequence number of the batch replicated before this one.
+	 *
+	 * @return the previous sequence number
+	 */
+	public long getPreviousSequenceNumber() {
+		return previousSequenceNumber;
+	}
+
+	/**
+	 * Sets the sequence number of the batch replicated before this one.
+	 *
+	 * @param previousSequenceNumber
+	 *            the new previous sequence number
+	 */
+	public void setPreviousSequenceNumber(long previousSequenceNumber) {
+		this.previousSequenceNumber = previousSequenceNumber;
+	}
 }
\ No newline at end of file
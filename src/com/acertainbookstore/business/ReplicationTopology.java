@@ -0,0 +1,161 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link ReplicationTopology} decides which servers each batch is sent to by
+ * the master and by the slaves relaying it:
+ *
+ * <ul>
+ * <li>star: the master sends the batches to every slave, the default;</li>
+ * <li>chain: the master sends the batches to the first slave, and each slave
+ * relays them to the next one;</li>
+ * <li>tree: the master sends the batches to the first fanout slaves, and each
+ * slave relays them to fanout children.</li>
+ * </ul>
+ *
+ * The slaves are laid out in the order of the server properties, as in a
+ * binary heap whose root is the master: the children of the slave at index i
+ * are the slaves at indexes (i + 1) * fanout to (i + 2) * fanout - 1, the
+ * master being at index -1. A chain is a tree with a fanout of 1, and a star a
+ * tree with a fanout of the number of slaves.
+ *
+ * A relaying slave acknowledges a batch once its children acknowledged it,
+ * so that the acknowledgement of a child of the master stands for its whole
+ * subtree: in a chain it is the tail which acknowledges a batch. The
+ * {@link ReplicationAckPolicy} counts the acknowledgements of the children of
+ * the master. The master sends each batch to fanout slaves only, whatever the
+ * number of slaves, at the cost of a hop per level of the tree.
+ */
+public class ReplicationTopology {
+
+	/** The index of the master. */
+	public static final int MASTER_INDEX = -1;
+
+	/** The value of the star topology. */
+	private static final String STAR = "star";
+
+	/** The value of the chain topology. */
+	private static final String CHAIN = "chain";
+
+	/** The value of the tree topology. */
+	private static final String TREE = "tree";
+
+	/** The default fanout of the tree topology. */
+	private static final int DEFAULT_TREE_FANOUT = 2;
+
+	/** The slave servers, in the order of the layout. */
+	private final List<String> slaveServers;
+
+	/** The number of children of each server. */
+	private final int fanout;
+
+	/**
+	 * Instantiates a new {@link ReplicationTopology}.
+	 *
+	 * @param slaveServers
+	 *            the slave servers, in the order of the layout
+	 * @param fanout
+	 *            the number of children of each server
+	 * @throws BookStoreException
+	 *             if the fanout is invalid
+	 */
+	public ReplicationTopology(List<String> slaveServers, int fanout) throws BookStoreException {
+		if (fanout <= 0) {
+			throw new BookStoreException(BookStoreConstants.KEY_REPLICATION_FANOUT + " " + fanout
+					+ BookStoreConstants.INVALID);
+		}
+
+		this.slaveServers = Collections.unmodifiableList(new ArrayList<>(slaveServers));
+		this.fanout = fanout;
+	}
+
+	/**
+	 * Reads the topology from the server properties, the star topology being
+	 * used if it is not configured.
+	 *
+	 * @param props
+	 *            the server properties
+	 * @param slaveServers
+	 *            the slave servers, in the order of the server properties
+	 * @return the topology
+	 * @throws BookStoreException
+	 *             if the topology is invalid
+	 */
+	public static ReplicationTopology fromProperties(Properties props, List<String> slaveServers)
+			throws BookStoreException {
+		String topology = props.getProperty(BookStoreConstants.KEY_REPLICATION_TOPOLOGY, STAR).trim()
+				.toLowerCase(Locale.ROOT);
+
+		switch (topology) {
+		case STAR:
+			return new ReplicationTopology(slaveServers, Math.max(1, slaveServers.size()));
+		case CHAIN:
+			return new ReplicationTopology(slaveServers, 1);
+		case TREE:
+			try {
+				return new ReplicationTopology(slaveServers, Integer.parseInt(props
+						.getProperty(BookStoreConstants.KEY_REPLICATION_FANOUT, Integer.toString(DEFAULT_TREE_FANOUT))
+						.trim()));
+			} catch (NumberFormatException ex) {
+				throw new BookStoreException(ex);
+			}
+		default:
+			throw new BookStoreException(
+					BookStoreConstants.KEY_REPLICATION_TOPOLOGY + " " + topology + BookStoreConstants.INVALID);
+		}
+	}
+
+	/**
+	 * Gets the indexes of the children of a server.
+	 *
+	 * @param index
+	 *            the index of the server, {@link #MASTER_INDEX} for the master
+	 * @return the indexes of its children
+	 */
+	public List<Integer> getChildren(int index) {
+		List<Integer> children = new ArrayList<>();
+		long firstChild = (long) (index + 1) * fanout;
+
+		for (long child = firstChild; child < Math.min(firstChild + fanout, slaveServers.size()); child++) {
+			children.add((int) child);
+		}
+
+		return children;
+	}
+
+	/**
+	 * Gets the slave servers.
+	 *
+	 * @return the slave servers, in the order of the layout
+	 */
+	public List<String> getSlaveServers() {
+		return slaveServers;
+	}
+
+	/**
+	 * Gets the number of children of each server.
+	 *
+	 * @return the fanout
+	 */
+	public int getFanout() {
+		return fanout;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "fanout " + fanout + " over " + slaveServers;
+	}
+}
@@ -0,0 +1,300 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * {@link SearchIndex} is an inverted index over the words of the title and
+ * author of the books. A query matches the books having, for every word of the
+ * query, a word of their title or author starting with it. Matches are returned
+ * by increasing ISBN, so that a client can page through them by passing the
+ * last ISBN of the previous page.
+ *
+ * The index is updated by a single writer at a time, {@link CertainBookStore}
+ * holding the catalog lock exclusively, and searched by any number of readers
+ * without locking.
+ */
+public class SearchIndex {
+
+	/** The regular expression separating the words of a text. */
+	private static final String WORD_SEPARATOR_REGEX = "[^\\p{L}\\p{N}]+";
+
+	/** The books containing each word, by ISBN. */
+	private final ConcurrentSkipListMap<String, ConcurrentSkipListMap<Integer, BookStoreBook>> postings =
+			new ConcurrentSkipListMap<>();
+
+	/**
+	 * Adds the words of the title and author of the book to the index.
+	 *
+	 * @param book
+	 *            the book
+	 */
+	public void add(BookStoreBook book) {
+		for (String word : getWords(book)) {
+			postings.computeIfAbsent(word, w -> new ConcurrentSkipListMap<>()).put(book.getISBN(), book);
+		}
+	}
+
+	/**
+	 * Adds the words of the titles and authors of the books to the index, e.g.
+	 * the books of a snapshot once they are all loaded. The books of each
+	 * word are put in ISBN order, each word being looked up once.
+	 *
+	 * @param books
+	 *            the books
+	 */
+	public void addAll(Collection<BookStoreBook> books) {
+		BookStoreBook[] sortedBooks = books.toArray(new BookStoreBook[books.size()]);
+		Arrays.sort(sortedBooks, Comparator.comparingInt(BookStoreBook::getISBN));
+		Map<String, List<BookStoreBook>> booksByWord = new HashMap<>();
+
+		for (BookStoreBook book : sortedBooks) {
+			for (String word : getWords(book)) {
+				booksByWord.computeIfAbsent(word, w -> new ArrayList<>()).add(book);
+			}
+		}
+
+		for (Map.Entry<String, List<BookStoreBook>> entry : booksByWord.entrySet()) {
+			ConcurrentSkipListMap<Integer, BookStoreBook> wordBooks = postings.computeIfAbsent(entry.getKey(),
+					w -> new ConcurrentSkipListMap<>());
+
+			for (BookStoreBook book : entry.getValue()) {
+				wordBooks.put(book.getISBN(), book);
+			}
+		}
+	}
+
+	/**
+	 * Removes the words of the title and author of the book from the index.
+	 *
+	 * @param book
+	 *            the book
+	 */
+	public void remove(BookStoreBook book) {
+		for (String word : getWords(book)) {
+			ConcurrentSkipListMap<Integer, BookStoreBook> books = postings.get(word);
+
+			if (books != null) {
+				books.remove(book.getISBN());
+
+				if (books.isEmpty()) {
+					postings.remove(word);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes all the books from the index.
+	 */
+	public void clear() {
+		postings.clear();
+	}
+
+	/**
+	 * Searches the books matching the query. The books of the words starting
+	 * with each prefix are merged lazily by ISBN, and the prefixes are
+	 * intersected in step, each skipping to the next ISBN the others reached,
+	 * so that a page costs a lookup per word and matching book instead of
+	 * copying all the matches.
+	 *
+	 * @param query
+	 *            the words, or prefixes of words, to search
+	 * @param afterISBN
+	 *            only books with a larger ISBN are returned
+	 * @param numBooks
+	 *            the maximum number of books returned
+	 * @return the matching books, by increasing ISBN
+	 */
+	public List<BookStoreBook> search(String query, int afterISBN, int numBooks) {
+		List<BookStoreBook> page = new ArrayList<>();
+		List<String> prefixes = tokenize(query);
+
+		if (prefixes.isEmpty()) {
+			return page;
+		}
+
+		PrefixCursor[] cursors = new PrefixCursor[prefixes.size()];
+
+		for (int i = 0; i < cursors.length; i++) {
+			String prefix = prefixes.get(i);
+			cursors[i] = new PrefixCursor(
+					postings.subMap(prefix, true, prefix + Character.MAX_VALUE, true).values(), afterISBN);
+		}
+
+		BookStoreBook candidate = cursors[0].current();
+
+		while (candidate != null && page.size() < numBooks) {
+			BookStoreBook next = candidate;
+
+			for (int i = 1; i < cursors.length && next == candidate; i++) {
+				BookStoreBook book = cursors[i].seek(candidate.getISBN(), true);
+
+				if (book == null) {
+					return page;
+				}
+
+				if (book.getISBN() != candidate.getISBN()) {
+					next = cursors[0].seek(book.getISBN(), true);
+				}
+			}
+
+			if (next == candidate) {
+				page.add(candidate);
+				next = cursors[0].seek(candidate.getISBN(), false);
+			}
+
+			candidate = next;
+		}
+
+		return page;
+	}
+
+	/**
+	 * Gets the words of the title and author of the book.
+	 *
+	 * @param book
+	 *            the book
+	 * @return the words
+	 */
+	private static List<String> getWords(Book book) {
+		List<String> words = tokenize(book.getTitle());
+		words.addAll(tokenize(book.getAuthor()));
+		return words;
+	}
+
+	/**
+	 * Splits a text into lower case words.
+	 *
+	 * @param text
+	 *            the text
+	 * @return the words
+	 */
+	private static List<String> tokenize(String text) {
+		List<String> words = new ArrayList<>();
+
+		for (String word : text.toLowerCase(Locale.ROOT).split(WORD_SEPARATOR_REGEX)) {
+			if (!word.isEmpty()) {
+				words.add(word);
+			}
+		}
+
+		return words;
+	}
+
+	/**
+	 * {@link PrefixCursor} walks the books of the words starting with a
+	 * prefix by increasing ISBN, keeping the next book of each word in a heap.
+	 */
+	private static final class PrefixCursor {
+
+		/** The words having books left, by the ISBN of their next book. */
+		private final PriorityQueue<WordCursor> heads = new PriorityQueue<>(
+				Comparator.comparingInt((WordCursor head) -> head.isbn));
+
+		/**
+		 * Instantiates a new {@link PrefixCursor} on the first book after an
+		 * ISBN.
+		 *
+		 * @param wordBooks
+		 *            the books of each word starting with the prefix
+		 * @param afterISBN
+		 *            the ISBN the books follow
+		 */
+		private PrefixCursor(Collection<ConcurrentSkipListMap<Integer, BookStoreBook>> wordBooks, int afterISBN) {
+			for (ConcurrentSkipListMap<Integer, BookStoreBook> books : wordBooks) {
+				Map.Entry<Integer, BookStoreBook> entry = books.higherEntry(afterISBN);
+
+				if (entry != null) {
+					heads.add(new WordCursor(books, entry));
+				}
+			}
+		}
+
+		/**
+		 * Gets the current book.
+		 *
+		 * @return the book, or null after the last book
+		 */
+		private BookStoreBook current() {
+			WordCursor head = heads.peek();
+			return head == null ? null : head.book;
+		}
+
+		/**
+		 * Moves to the first book with an ISBN larger than, or equal to, an
+		 * ISBN. The cursor never moves back.
+		 *
+		 * @param isbn
+		 *            the ISBN
+		 * @param inclusive
+		 *            true if the book with the ISBN is kept
+		 * @return the book, or null after the last book
+		 */
+		private BookStoreBook seek(int isbn, boolean inclusive) {
+			WordCursor head;
+
+			while ((head = heads.peek()) != null && (head.isbn < isbn || (!inclusive && head.isbn == isbn))) {
+				heads.poll();
+				Map.Entry<Integer, BookStoreBook> entry = inclusive ? head.books.ceilingEntry(isbn)
+						: head.books.higherEntry(isbn);
+
+				if (entry != null) {
+					head.moveTo(entry);
+					heads.add(head);
+				}
+			}
+
+			return current();
+		}
+	}
+
+	/**
+	 * {@link WordCursor} is the position of a {@link PrefixCursor} in the
+	 * books of a word.
+	 */
+	private static final class WordCursor {
+
+		/** The books of the word. */
+		private final ConcurrentSkipListMap<Integer, BookStoreBook> books;
+
+		/** The ISBN of the current book. */
+		private int isbn;
+
+		/** The current book. */
+		private BookStoreBook book;
+
+		/**
+		 * Instantiates a new {@link WordCursor}.
+		 *
+		 * @param books
+		 *            the books of the word
+		 * @param entry
+		 *            the entry of the current book
+		 */
+		private WordCursor(ConcurrentSkipListMap<Integer, BookStoreBook> books,
+				Map.Entry<Integer, BookStoreBook> entry) {
+			this.books = books;
+			moveTo(entry);
+		}
+
+		/**
+		 * Moves to a book of the word.
+		 *
+		 * @param entry
+		 *            the entry of the book
+		 */
+		private void moveTo(Map.Entry<Integer, BookStoreBook> entry) {
+			isbn = entry.getKey();
+			book = entry.getValue();
+		}
+	}
+}
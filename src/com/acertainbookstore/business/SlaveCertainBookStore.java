@@ -22,6 +22,15 @@ import com.acertainbookstore.utils.BookStoreUtility;
 public class SlaveCertainBookStore extends ReadOnlyCertainBookStore
 		implements ReplicatedReadOnlyBookStore, ReplicatedReadOnlyStockManager, Replication {
 
+	/**
+	 * How long a batch arriving ahead of its predecessor waits for it before
+	 * the slave gives up on the gap.
+	 */
+	private static final long MAX_SEQUENCE_GAP_MILLIS = 10000;
+
+	/** The sequence number of the latest batch applied. */
+	private long appliedSequenceNumber = 0;
+
 	/**
 	 * Instantiates a new slave certain book store.
 	 */
@@ -39,40 +48,18 @@ public class SlaveCertainBookStore extends ReadOnlyCertainBookStore
 	public synchronized ReplicationResult replicate(ReplicationRequest req) throws BookStoreException {
 		BookStoreMessageTag messageTag;
 		String requestURI;
-		this.snapshotId++;
-		
+
 		messageTag = req.getMessageType();
 		boolean replRes = false;
 		if (messageTag == null) {
 			System.err.println("No message tag.");
 		} else {
 			switch (messageTag) {
-			case ADDBOOKS:
-				replRes = addBooks(req);
-				break;
-
-			/** The tag for the add copies message. */
-			case ADDCOPIES:
-				replRes = addCopies(req);
-				break;
-
-			/** The tag for the buy books message. */
-			case BUYBOOKS:
-				replRes = buyBooks(req);
+			// The tag for a batch of replicated writes.
+			case REPLICATEBATCH:
+				replRes = replicateBatch(req);
 				break;
 
-			/** The tag for the update editor picks message. */
-			case UPDATEEDITORPICKS:
-				replRes = updateEditorPicks(req);
-				break;
-			/** The tag for the remove all books message. */
-			case REMOVEALLBOOKS:
-				replRes = removeAllBooks(req);
-				break;
-			/** The tag for the remove books message. */
-			case REMOVEBOOKS:
-				replRes = removeBooks(req);
-				break;
 			case DIE:
 				System.exit(1);
 
@@ -88,57 +75,78 @@ public class SlaveCertainBookStore extends ReadOnlyCertainBookStore
 		//throw new BookStoreException("This method needs to be implemented.");
 	}
 	
-	private boolean removeBooks(ReplicationRequest req) {
-		try {
-			this.bookStore.removeBooks((Set<Integer>)req.getDataSet());
-			return true;
-		} catch (BookStoreException e) {
-			return false;
-		}
+	/**
+	 * Gets the sequence number of the latest batch applied, from which the
+	 * master resumes the replication to the slave.
+	 *
+	 * @return the sequence number
+	 */
+	public synchronized long getAppliedSequenceNumber() {
+		return appliedSequenceNumber;
 	}
 
-	private boolean removeAllBooks(ReplicationRequest req) {
-		try {
-			this.bookStore.removeAllBooks();
-			return true;
-		} catch (BookStoreException e) {
-			return false;
-		}
+	/**
+	 * Replaces the store of the slave with a store loaded from a snapshot of
+	 * the master, from which the slave applies the batches following the
+	 * snapshot. The batches applied to the previous store are forgotten.
+	 *
+	 * @param loadedStore
+	 *            the store loaded from the snapshot
+	 * @return the id of the snapshot
+	 */
+	public synchronized long installSnapshot(CertainBookStore loadedStore) {
+		bookStore = loadedStore;
+		appliedSequenceNumber = loadedStore.getSnapshotId();
+		notifyAll();
+		return appliedSequenceNumber;
 	}
 
-	private boolean updateEditorPicks(ReplicationRequest req) {
-		try {
-			this.bookStore.updateEditorPicks((Set<BookEditorPick>) req.getDataSet());
-			return true;
-		} catch (BookStoreException e) {
-			return false;
-		}
-	}
+	/**
+	 * Applies the changes committed by the writes of a batch, in order and
+	 * without validating them again, as a single snapshot.
+	 * 
+	 * The master sends several batches at once, which may arrive in any order.
+	 * A batch arriving before its predecessor waits for it to be applied, so
+	 * that batches are applied in the order of their sequence numbers, and a
+	 * batch already applied is acknowledged again without being applied. A
+	 * batch following a snapshot loaded by the slave may have been applied in
+	 * part, and is applied. Once applied, the sequence number of the batch becomes the snapshot id
+	 * of the slave.
+	 *
+	 * @param req
+	 *            the batch
+	 * @return true, if successful
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private boolean replicateBatch(ReplicationRequest req) throws BookStoreException {
+		long deadline = System.currentTimeMillis() + MAX_SEQUENCE_GAP_MILLIS;
 
-	private boolean buyBooks(ReplicationRequest req) {
-		try {
-			this.bookStore.buyBooks((Set<BookCopy>)req.getDataSet());
-			return true;
-		} catch (BookStoreException e) {
-			return false;
-		}
-	}
+		while (appliedSequenceNumber < req.getPreviousSequenceNumber()) {
+			long millisLeft = deadline - System.currentTimeMillis();
 
-	private boolean addCopies(ReplicationRequest req) {
-		try {
-			this.bookStore.addCopies((Set<BookCopy>) req.getDataSet());
-			return true;
-		} catch (BookStoreException e) {
-			return false;
+			if (millisLeft <= 0) {
+				return false;
+			}
+
+			try {
+				wait(millisLeft);
+			} catch (InterruptedException e) {
+				return false;
+			}
 		}
-	}
 
-	private boolean addBooks(ReplicationRequest req) {
-		try {
-			this.bookStore.addBooks((Set<StockBook>) req.getDataSet());
+		if (appliedSequenceNumber >= req.getSequenceNumber()) {
 			return true;
-		} catch (BookStoreException e) {
-			return false;
 		}
+
+		// A slave which loaded a snapshot taken during the batch has applied
+		// part of it already, and applies it again harmlessly.
+
+		bookStore.applyChanges((Set<BookChange>) req.getDataSet());
+		bookStore.advanceSnapshotId(req.getSequenceNumber());
+		appliedSequenceNumber = req.getSequenceNumber();
+		notifyAll();
+		return true;
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,98 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.ToLongFunction;
+
+/**
+ * {@link SortedBookIndex} keeps the books ordered by a key computed from their
+ * immutable fields, e.g. their ISBN or their price and ISBN, in a skip list.
+ * Adding or removing a book costs O(log n) whatever the size of the catalog,
+ * and a range query seeks its first key and reads the following ones, i.e. it
+ * runs in O(log n + k).
+ *
+ * The index is updated by a single writer at a time, {@link CertainBookStore}
+ * holding the catalog lock exclusively, and searched by any number of readers
+ * without locking. A reader running during a batch may see a part of it only,
+ * the readers filtering the books by snapshot (cf.
+ * {@link BookStoreBook#isPublishedIn(long)}).
+ */
+public class SortedBookIndex {
+
+	/** The books by key. */
+	private final ConcurrentSkipListMap<Long, BookStoreBook> books = new ConcurrentSkipListMap<>();
+
+	/** The key of a book, which must be unique and never change. */
+	private final ToLongFunction<BookStoreBook> keyOf;
+
+	/**
+	 * Instantiates a new {@link SortedBookIndex}.
+	 *
+	 * @param keyOf
+	 *            the key of a book
+	 */
+	public SortedBookIndex(ToLongFunction<BookStoreBook> keyOf) {
+		this.keyOf = keyOf;
+	}
+
+	/**
+	 * Adds the books to the index.
+	 *
+	 * @param newBooks
+	 *            the books, which must not be indexed yet
+	 */
+	public void addAll(Collection<BookStoreBook> newBooks) {
+		for (BookStoreBook book : newBooks) {
+			books.put(keyOf.applyAsLong(book), book);
+		}
+	}
+
+	/**
+	 * Removes the books from the index.
+	 *
+	 * @param removedBooks
+	 *            the books
+	 */
+	public void removeAll(Collection<BookStoreBook> removedBooks) {
+		for (BookStoreBook book : removedBooks) {
+			books.remove(keyOf.applyAsLong(book), book);
+		}
+	}
+
+	/**
+	 * Removes all the books from the index.
+	 */
+	public void clear() {
+		books.clear();
+	}
+
+	/**
+	 * Gets the books whose key is in the range, in increasing order of key.
+	 *
+	 * @param firstKey
+	 *            the first key, inclusive
+	 * @param lastKey
+	 *            the last key, inclusive
+	 * @param numBooks
+	 *            the maximum number of books returned
+	 * @return the books
+	 */
+	public List<BookStoreBook> getRange(long firstKey, long lastKey, int numBooks) {
+		List<BookStoreBook> range = new ArrayList<>();
+
+		if (firstKey > lastKey) {
+			return range;
+		}
+
+		Iterator<BookStoreBook> it = books.subMap(firstKey, true, lastKey, true).values().iterator();
+
+		while (range.size() < numBooks && it.hasNext()) {
+			range.add(it.next());
+		}
+
+		return range;
+	}
+}
@@ -31,6 +31,14 @@ public interface StockBook extends Book {
 	 */
 	public int getNumCopies();
 
+	/**
+	 * Gets the number of book copies held by reservations, which are not
+	 * counted in the number of copies available.
+	 *
+	 * @return the number of copies held
+	 */
+	public int getNumHeldCopies();
+
 	/**
 	 * Gets the number of times that a client wanted to buy a book when it was
 	 * not in stock.
@@ -0,0 +1,159 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * {@link TopRatedIndex} keeps the books which were rated ordered by decreasing
+ * average rating, ties being broken by ISBN. A book whose rating changes is
+ * moved in O(log n), and the top k books are read in O(log n + k). The entry of
+ * each book is kept by slot (cf. {@link BookStoreCounters}), so that it can be
+ * found again once the rating of the book changed.
+ *
+ * The index is thread safe, its methods synchronize on the index. The
+ * {@link CertainBookStore} only updates the books whose editor pick, sale
+ * misses or rating changed, so the buyers of a book never lock the index.
+ */
+public class TopRatedIndex {
+
+	/** The initial capacity of the entries. */
+	private static final int DEFAULT_CAPACITY = 16;
+
+	/** The order of the entries, by decreasing average rating then ISBN. */
+	private static final Comparator<Entry> ORDER = Comparator.comparingDouble((Entry entry) -> -entry.averageRating)
+			.thenComparingInt(entry -> entry.book.getISBN());
+
+	/** The entries of the rated books. */
+	private final TreeSet<Entry> ranking = new TreeSet<>(ORDER);
+
+	/** The entry of each book by slot, null if the book is not indexed. */
+	private Entry[] entries = new Entry[DEFAULT_CAPACITY];
+
+	/**
+	 * Moves the book to the position of its current average rating. Books which
+	 * were never rated are not indexed.
+	 *
+	 * @param book
+	 *            the book
+	 */
+	public synchronized void update(BookStoreBook book) {
+		int slot = book.getSlot();
+		float averageRating = book.getAverageRating();
+
+		if (slot >= entries.length) {
+			entries = Arrays.copyOf(entries, Math.max(slot + 1, entries.length << 1));
+		}
+
+		Entry entry = entries[slot];
+
+		if (entry != null && entry.book == book && entry.averageRating == averageRating) {
+			return;
+		}
+
+		remove(book);
+
+		if (book.getNumTimesRated() > 0) {
+			entry = new Entry(book, averageRating);
+			ranking.add(entry);
+			entries[slot] = entry;
+		}
+	}
+
+	/**
+	 * Moves the books to the positions of their current average ratings, as
+	 * {@link #update(BookStoreBook)} does, locking the index once, e.g. for the
+	 * books of a snapshot once they are all loaded.
+	 *
+	 * @param books
+	 *            the books
+	 */
+	public synchronized void updateAll(Collection<BookStoreBook> books) {
+		int maxSlot = -1;
+
+		for (BookStoreBook book : books) {
+			maxSlot = Math.max(maxSlot, book.getSlot());
+		}
+
+		if (maxSlot >= entries.length) {
+			entries = Arrays.copyOf(entries, Math.max(maxSlot + 1, entries.length << 1));
+		}
+
+		for (BookStoreBook book : books) {
+			update(book);
+		}
+	}
+
+	/**
+	 * Removes the book from the index, if present.
+	 *
+	 * @param book
+	 *            the book
+	 */
+	public synchronized void remove(BookStoreBook book) {
+		int slot = book.getSlot();
+
+		if (slot < entries.length && entries[slot] != null) {
+			ranking.remove(entries[slot]);
+			entries[slot] = null;
+		}
+	}
+
+	/**
+	 * Removes all the books from the index.
+	 */
+	public synchronized void clear() {
+		ranking.clear();
+		Arrays.fill(entries, null);
+	}
+
+	/**
+	 * Gets the numBooks books with the highest average rating, or all the rated
+	 * books if there are not more than numBooks.
+	 *
+	 * @param numBooks
+	 *            the number of books
+	 * @return the books, by decreasing average rating
+	 */
+	public synchronized List<BookStoreBook> getTopRated(int numBooks) {
+		List<BookStoreBook> topRated = new ArrayList<>(Math.min(numBooks, ranking.size()));
+		Iterator<Entry> it = ranking.iterator();
+
+		while (topRated.size() < numBooks && it.hasNext()) {
+			topRated.add(it.next().book);
+		}
+
+		return topRated;
+	}
+
+	/**
+	 * {@link Entry} is the position of a book in the ranking. The average
+	 * rating is copied, so that the entry can still be found once the rating
+	 * of the book changed.
+	 */
+	private static final class Entry {
+
+		/** The book. */
+		private final BookStoreBook book;
+
+		/** The average rating of the book when it was indexed. */
+		private final float averageRating;
+
+		/**
+		 * Instantiates a new {@link Entry}.
+		 *
+		 * @param book
+		 *            the book
+		 * @param averageRating
+		 *            the average rating
+		 */
+		private Entry(BookStoreBook book, float averageRating) {
+			this.book = book;
+			this.averageRating = averageRating;
+		}
+	}
+}
@@ -46,7 +46,7 @@ public class ReplicationAwareBookStoreHTTPProxy implements BookStore {
 	private String masterAddress;
 
 	/** The file path. */
-	private String filePath = "./proxy.properties";
+	private final String filePath;
 
 	/** The snapshot id. */
 	private volatile long snapshotId = 0;
@@ -58,6 +58,19 @@ public class ReplicationAwareBookStoreHTTPProxy implements BookStore {
 	 *             the exception
 	 */
 	public ReplicationAwareBookStoreHTTPProxy() throws Exception {
+		this("./proxy.properties");
+	}
+
+	/**
+	 * Initializes a new {@link ReplicationAwareBookStoreHTTPProxy}.
+	 *
+	 * @param filePath
+	 *            the path of the proxy properties
+	 * @throws Exception
+	 *             the exception
+	 */
+	public ReplicationAwareBookStoreHTTPProxy(String filePath) throws Exception {
+		this.filePath = filePath;
 		initializeReplicationAwareMappings();
 
 		// Setup the type of serializer.
@@ -136,6 +149,51 @@ public class ReplicationAwareBookStoreHTTPProxy implements BookStore {
 		this.setSnapshotId(bookStoreResult.getSnapshotId());
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStore#reserveBooks(java.util.Set,
+	 * long)
+	 */
+	public long reserveBooks(Set<BookCopy> bookCopies, long ttlMillis) throws BookStoreException {
+		String urlString = getMasterServerAddress() + "/" + BookStoreMessageTag.RESERVEBOOKS + "?"
+				+ BookStoreConstants.TTL_PARAM + "=" + ttlMillis;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, bookCopies);
+		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
+				serializer.get());
+		BookStoreResult bookStoreResult = bookStoreResponse.getResult();
+		this.setSnapshotId(bookStoreResult.getSnapshotId());
+		return (Long) bookStoreResult.getList().get(0);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStore#commitReservation(long)
+	 */
+	public void commitReservation(long reservationId) throws BookStoreException {
+		String urlString = getMasterServerAddress() + "/" + BookStoreMessageTag.COMMITRESERVATION;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, reservationId);
+		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
+				serializer.get());
+		BookStoreResult bookStoreResult = bookStoreResponse.getResult();
+		this.setSnapshotId(bookStoreResult.getSnapshotId());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStore#cancelReservation(long)
+	 */
+	public void cancelReservation(long reservationId) throws BookStoreException {
+		String urlString = getMasterServerAddress() + "/" + BookStoreMessageTag.CANCELRESERVATION;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, reservationId);
+		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
+				serializer.get());
+		BookStoreResult bookStoreResult = bookStoreResponse.getResult();
+		this.setSnapshotId(bookStoreResult.getSnapshotId());
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -194,7 +252,12 @@ public class ReplicationAwareBookStoreHTTPProxy implements BookStore {
 	 */
 	@Override
 	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
-		throw new BookStoreException("Not implemented");
+		String urlString = getMasterServerAddress() + "/" + BookStoreMessageTag.RATEBOOKS;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, bookRating);
+		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
+				serializer.get());
+		BookStoreResult bookStoreResult = bookStoreResponse.getResult();
+		this.setSnapshotId(bookStoreResult.getSnapshotId());
 	}
 
 	/*
@@ -203,8 +266,95 @@ public class ReplicationAwareBookStoreHTTPProxy implements BookStore {
 	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
 	 */
 	@Override
+	@SuppressWarnings("unchecked")
 	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
-		throw new BookStoreException("Not implemented");
+		String urlEncodedNumBooks = null;
+
+		try {
+			urlEncodedNumBooks = URLEncoder.encode(Integer.toString(numBooks), "UTF-8");
+		} catch (UnsupportedEncodingException ex) {
+			throw new BookStoreException("unsupported encoding of numbooks", ex);
+		}
+
+		BookStoreResponse bookStoreResponse;
+		BookStoreResult bookStoreResult;
+
+		do {
+			String urlString = getReplicaAddress() + "/" + BookStoreMessageTag.GETTOPRATEDBOOKS + "?"
+					+ BookStoreConstants.BOOK_NUM_PARAM + "=" + urlEncodedNumBooks;
+			BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
+			bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+			bookStoreResult = bookStoreResponse.getResult();
+		} while (bookStoreResult.getSnapshotId() < this.getSnapshotId());
+
+		this.setSnapshotId(bookStoreResult.getSnapshotId());
+		return (List<Book>) bookStoreResult.getList();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStore#searchBooks(java.lang.
+	 * String, int, int)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<Book> searchBooks(String query, int afterISBN, int numBooks) throws BookStoreException {
+		if (query == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		String urlEncodedQuery = null;
+
+		try {
+			urlEncodedQuery = URLEncoder.encode(query, "UTF-8");
+		} catch (UnsupportedEncodingException ex) {
+			throw new BookStoreException("unsupported encoding of query", ex);
+		}
+
+		BookStoreResponse bookStoreResponse;
+		BookStoreResult bookStoreResult;
+
+		do {
+			String urlString = getReplicaAddress() + "/" + BookStoreMessageTag.SEARCHBOOKS + "?"
+					+ BookStoreConstants.SEARCH_QUERY_PARAM + "=" + urlEncodedQuery + "&"
+					+ BookStoreConstants.AFTER_ISBN_PARAM + "=" + afterISBN + "&" + BookStoreConstants.BOOK_NUM_PARAM
+					+ "=" + numBooks;
+			BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
+			bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+			bookStoreResult = bookStoreResponse.getResult();
+		} while (bookStoreResult.getSnapshotId() < this.getSnapshotId());
+
+		this.setSnapshotId(bookStoreResult.getSnapshotId());
+		return (List<Book>) bookStoreResult.getList();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#getBooksByPriceRange(float,
+	 * float, long, int)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<Book> getBooksByPriceRange(float minPrice, float maxPrice, long cursor, int numBooks)
+			throws BookStoreException {
+		BookStoreResponse bookStoreResponse;
+		BookStoreResult bookStoreResult;
+
+		do {
+			String urlString = getReplicaAddress() + "/" + BookStoreMessageTag.GETBOOKSBYPRICERANGE + "?"
+					+ BookStoreConstants.MIN_PRICE_PARAM + "=" + minPrice + "&" + BookStoreConstants.MAX_PRICE_PARAM
+					+ "=" + maxPrice + "&" + BookStoreConstants.CURSOR_PARAM + "=" + cursor + "&"
+					+ BookStoreConstants.BOOK_NUM_PARAM + "=" + numBooks;
+			BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
+			bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+			bookStoreResult = bookStoreResponse.getResult();
+		} while (bookStoreResult.getSnapshotId() < this.getSnapshotId());
+
+		this.setSnapshotId(bookStoreResult.getSnapshotId());
+		return (List<Book>) bookStoreResult.getList();
 	}
 
 	/**
@@ -43,7 +43,7 @@ public class ReplicationAwareStockManagerHTTPProxy implements StockManager {
 	private String masterAddress;
 
 	/** The file path. */
-	private String filePath = "./proxy.properties";
+	private final String filePath;
 
 	/** The snapshot id. */
 	private long snapshotId = 0;
@@ -55,6 +55,19 @@ public class ReplicationAwareStockManagerHTTPProxy implements StockManager {
 	 *             the exception
 	 */
 	public ReplicationAwareStockManagerHTTPProxy() throws Exception {
+		this("./proxy.properties");
+	}
+
+	/**
+	 * Initialize the client object.
+	 *
+	 * @param filePath
+	 *            the path of the proxy properties
+	 * @throws Exception
+	 *             the exception
+	 */
+	public ReplicationAwareStockManagerHTTPProxy(String filePath) throws Exception {
+		this.filePath = filePath;
 		initializeReplicationAwareMappings();
 
 		// Setup the type of serializer.
@@ -170,6 +183,51 @@ public class ReplicationAwareStockManagerHTTPProxy implements StockManager {
 		return (List<StockBook>) bookStoreResult.getList();
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks(int, int)
+	 */
+	@SuppressWarnings("unchecked")
+	public List<StockBook> getBooks(int afterISBN, int numBooks) throws BookStoreException {
+		BookStoreResponse bookStoreResponse;
+		BookStoreResult bookStoreResult;
+
+		do {
+			String urlString = getReplicaAddress() + "/" + BookStoreMessageTag.LISTBOOKSPAGE + "?"
+					+ BookStoreConstants.AFTER_ISBN_PARAM + "=" + afterISBN + "&" + BookStoreConstants.BOOK_NUM_PARAM
+					+ "=" + numBooks;
+			BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
+			bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+			bookStoreResult = bookStoreResponse.getResult();
+		} while (bookStoreResult.getSnapshotId() < this.getSnapshotId());
+
+		this.setSnapshotId(bookStoreResult.getSnapshotId());
+		return (List<StockBook>) bookStoreResult.getList();
+	}
+
+	/**
+	 * Iterates over the books in the bookstore by increasing ISBN, fetching
+	 * them one page at a time as the iteration proceeds, so that the whole
+	 * catalog is never held in memory. Each page is read from a single
+	 * snapshot, but different pages may come from different snapshots.
+	 *
+	 * A failure to fetch a page is thrown by the iterator as an
+	 * {@link IllegalStateException} caused by the {@link BookStoreException}.
+	 *
+	 * @param numBooksPerPage
+	 *            the number of books fetched per page
+	 * @return the books
+	 */
+	public Iterable<StockBook> iterateBooks(int numBooksPerPage) {
+		if (numBooksPerPage < 1) {
+			throw new IllegalArgumentException(BookStoreConstants.NUM_BOOKS + numBooksPerPage
+					+ BookStoreConstants.INVALID);
+		}
+
+		return () -> new BookPageIterator(numBooksPerPage);
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -252,8 +310,20 @@ public class ReplicationAwareStockManagerHTTPProxy implements StockManager {
 	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
 	 */
 	@Override
+	@SuppressWarnings("unchecked")
 	public List<StockBook> getBooksInDemand() throws BookStoreException {
-		throw new BookStoreException("Not implemented");
+		BookStoreResponse bookStoreResponse;
+		BookStoreResult bookStoreResult;
+
+		do {
+			String urlString = getReplicaAddress() + "/" + BookStoreMessageTag.GETBOOKSINDEMAND;
+			BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
+			bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+			bookStoreResult = bookStoreResponse.getResult();
+		} while (bookStoreResult.getSnapshotId() < this.getSnapshotId());
+
+		this.setSnapshotId(bookStoreResult.getSnapshotId());
+		return (List<StockBook>) bookStoreResult.getList();
 	}
 
 	/**
@@ -305,4 +375,77 @@ public class ReplicationAwareStockManagerHTTPProxy implements StockManager {
 			this.slaveAddresses.add(slave);
 		}
 	}
+
+	/**
+	 * {@link BookPageIterator} iterates over the books in the bookstore,
+	 * fetching the next page once the current one is exhausted.
+	 */
+	private final class BookPageIterator implements Iterator<StockBook> {
+
+		/** The number of books fetched per page. */
+		private final int numBooksPerPage;
+
+		/** The current page. */
+		private Iterator<StockBook> page = Collections.emptyIterator();
+
+		/** The ISBN of the last book fetched. */
+		private int lastISBN = 0;
+
+		/** Whether the last page was fetched. */
+		private boolean lastPage = false;
+
+		/**
+		 * Instantiates a new {@link BookPageIterator}.
+		 *
+		 * @param numBooksPerPage
+		 *            the number of books fetched per page
+		 */
+		private BookPageIterator(int numBooksPerPage) {
+			this.numBooksPerPage = numBooksPerPage;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.Iterator#hasNext()
+		 */
+		@Override
+		public boolean hasNext() {
+			if (!page.hasNext() && !lastPage) {
+				List<StockBook> books;
+
+				try {
+					books = getBooks(lastISBN, numBooksPerPage);
+				} catch (BookStoreException ex) {
+					throw new IllegalStateException(ex);
+				}
+
+				// A page read during an add may be short although more books
+				// follow it, only an empty page is the last one.
+				lastPage = books.isEmpty();
+
+				if (!books.isEmpty()) {
+					lastISBN = books.get(books.size() - 1).getISBN();
+				}
+
+				page = books.iterator();
+			}
+
+			return page.hasNext();
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.Iterator#next()
+		 */
+		@Override
+		public StockBook next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+
+			return page.next();
+		}
+	}
 }
@@ -5,6 +5,8 @@ import static org.junit.Assert.*;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.After;
 import org.junit.AfterClass;
@@ -15,6 +17,7 @@ import org.junit.Test;
 import com.acertainbookstore.business.Book;
 import com.acertainbookstore.business.BookCopy;
 import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookRating;
 import com.acertainbookstore.business.CertainBookStore;
 import com.acertainbookstore.business.ImmutableStockBook;
 import com.acertainbookstore.business.StockBook;
@@ -24,6 +27,7 @@ import com.acertainbookstore.interfaces.BookStore;
 import com.acertainbookstore.interfaces.StockManager;
 import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
 
 /**
  * {@link BookStoreTest} tests the {@link BookStore} interface.
@@ -399,6 +403,498 @@ public class BookStoreTest {
 				&& booksInStorePreTest.size() == booksInStorePostTest.size());
 	}
 	
+	/**
+	 * Tests that rating a book updates its total rating and number of times
+	 * rated.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testRateBooks() throws BookStoreException {
+		Set<BookRating> bookRatings = new HashSet<BookRating>();
+		bookRatings.add(new BookRating(TEST_ISBN, 4));
+		client.rateBooks(bookRatings);
+
+		bookRatings.clear();
+		bookRatings.add(new BookRating(TEST_ISBN, 1));
+		client.rateBooks(bookRatings);
+
+		List<StockBook> listBooks = storeManager.getBooks();
+		assertTrue(listBooks.size() == 1);
+		StockBook bookInList = listBooks.get(0);
+
+		assertTrue(bookInList.getNumTimesRated() == 2 && bookInList.getTotalRating() == 5
+				&& Math.abs(bookInList.getAverageRating() - 2.5f) < BookStoreConstants.EPSILON);
+	}
+
+	/**
+	 * Tests that no rating is applied if one of the ratings is invalid.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testRateBooksInvalidRating() throws BookStoreException {
+		addBooks(TEST_ISBN + 1, NUM_COPIES);
+		List<StockBook> booksInStorePreTest = storeManager.getBooks();
+
+		// Try to rate a book with an invalid rating.
+		Set<BookRating> bookRatings = new HashSet<BookRating>();
+		bookRatings.add(new BookRating(TEST_ISBN, 3)); // valid
+		bookRatings.add(new BookRating(TEST_ISBN + 1, 6)); // invalid
+
+		try {
+			client.rateBooks(bookRatings);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		List<StockBook> booksInStorePostTest = storeManager.getBooks();
+
+		// Check pre and post state are same.
+		assertTrue(booksInStorePreTest.containsAll(booksInStorePostTest)
+				&& booksInStorePreTest.size() == booksInStorePostTest.size());
+	}
+
+	/**
+	 * Tests that the top rated books are returned by decreasing average
+	 * rating, and that books which were never rated are not returned.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testGetTopRatedBooks() throws BookStoreException {
+		addBooks(TEST_ISBN + 1, NUM_COPIES);
+		addBooks(TEST_ISBN + 2, NUM_COPIES);
+		addBooks(TEST_ISBN + 3, NUM_COPIES);
+
+		Set<BookRating> bookRatings = new HashSet<BookRating>();
+		bookRatings.add(new BookRating(TEST_ISBN, 2));
+		bookRatings.add(new BookRating(TEST_ISBN + 1, 5));
+		bookRatings.add(new BookRating(TEST_ISBN + 2, 4));
+		client.rateBooks(bookRatings);
+
+		List<Book> topRatedBooks = client.getTopRatedBooks(2);
+		assertTrue(topRatedBooks.size() == 2 && topRatedBooks.get(0).getISBN() == TEST_ISBN + 1
+				&& topRatedBooks.get(1).getISBN() == TEST_ISBN + 2);
+
+		// Lower the average rating of the best book to 2.5.
+		bookRatings.clear();
+		bookRatings.add(new BookRating(TEST_ISBN + 1, 0));
+		client.rateBooks(bookRatings);
+
+		topRatedBooks = client.getTopRatedBooks(10);
+		assertTrue(topRatedBooks.size() == 3 && topRatedBooks.get(0).getISBN() == TEST_ISBN + 2
+				&& topRatedBooks.get(1).getISBN() == TEST_ISBN + 1
+				&& topRatedBooks.get(2).getISBN() == TEST_ISBN);
+	}
+
+	/**
+	 * Tests that books are found by prefixes of the words of their title and
+	 * author, and that the results can be paged through.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testSearchBooks() throws BookStoreException {
+		addBooks(TEST_ISBN + 1, NUM_COPIES);
+		addBooks(TEST_ISBN + 2, NUM_COPIES);
+		addBooks(TEST_ISBN + 3, NUM_COPIES);
+
+		List<Book> books = client.searchBooks("harr JUNIT", 0, 10);
+		assertTrue(books.size() == 1 && books.contains(getDefaultBook()));
+
+		assertTrue(client.searchBooks("potter thrones", 0, 10).isEmpty());
+
+		// Page through the three other books.
+		books = client.searchBooks("thron test", 0, 2);
+		assertTrue(books.size() == 2 && books.get(0).getISBN() == TEST_ISBN + 1
+				&& books.get(1).getISBN() == TEST_ISBN + 2);
+
+		books = client.searchBooks("thron test", TEST_ISBN + 2, 2);
+		assertTrue(books.size() == 1 && books.get(0).getISBN() == TEST_ISBN + 3);
+
+		// Removed books are no longer found.
+		Set<Integer> isbnSet = new HashSet<Integer>();
+		isbnSet.add(TEST_ISBN + 1);
+		storeManager.removeBooks(isbnSet);
+
+		books = client.searchBooks("thrones", 0, 10);
+		assertTrue(books.size() == 2 && books.get(0).getISBN() == TEST_ISBN + 2);
+
+		// A prefix of several words of a book finds the book once.
+		books = client.searchBooks("t", 0, 10);
+		assertTrue(books.size() == 2 && books.get(0).getISBN() == TEST_ISBN + 2
+				&& books.get(1).getISBN() == TEST_ISBN + 3);
+
+		books = client.searchBooks("t g", TEST_ISBN + 2, 1);
+		assertTrue(books.size() == 1 && books.get(0).getISBN() == TEST_ISBN + 3);
+		assertTrue(client.searchBooks("t g", TEST_ISBN + 3, 1).isEmpty());
+		assertTrue(client.searchBooks("t j", 0, 10).isEmpty());
+	}
+
+	/**
+	 * Tests that the books in a price range are returned by increasing price
+	 * then ISBN, and that the results can be paged through.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testGetBooksByPriceRange() throws BookStoreException {
+		addBooks(TEST_ISBN + 1, NUM_COPIES);
+		addBooks(TEST_ISBN + 2, NUM_COPIES);
+
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 3, "Cheap Tests", "Testy", (float) 5, NUM_COPIES, 0, 0, 0,
+				false));
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 4, "Costly Tests", "Testy", (float) 20, NUM_COPIES, 0, 0,
+				0, false));
+		storeManager.addBooks(booksToAdd);
+
+		// Page through the books costing between 5 and 10.
+		List<Book> books = client.getBooksByPriceRange(5, 10, 0, 2);
+		assertTrue(books.size() == 2 && books.get(0).getISBN() == TEST_ISBN + 3
+				&& books.get(1).getISBN() == TEST_ISBN);
+
+		Book last = books.get(1);
+		books = client.getBooksByPriceRange(5, 10,
+				BookStoreUtility.getPriceCursor(last.getPrice(), last.getISBN()), 2);
+		assertTrue(books.size() == 2 && books.get(0).getISBN() == TEST_ISBN + 1
+				&& books.get(1).getISBN() == TEST_ISBN + 2);
+
+		last = books.get(1);
+		books = client.getBooksByPriceRange(5, 10,
+				BookStoreUtility.getPriceCursor(last.getPrice(), last.getISBN()), 2);
+		assertTrue(books.isEmpty());
+
+		books = client.getBooksByPriceRange(10.5f, 100, 0, 10);
+		assertTrue(books.size() == 1 && books.get(0).getISBN() == TEST_ISBN + 4);
+
+		assertTrue(client.getBooksByPriceRange(10, 5, 0, 10).isEmpty());
+
+		// Removed books are no longer found.
+		Set<Integer> isbnSet = new HashSet<Integer>();
+		isbnSet.add(TEST_ISBN + 3);
+		storeManager.removeBooks(isbnSet);
+
+		books = client.getBooksByPriceRange(0, 10, 0, 10);
+		assertTrue(books.size() == 3 && books.get(0).getISBN() == TEST_ISBN);
+	}
+
+	/**
+	 * Tests that reserved copies are held until the reservation is committed
+	 * or cancelled.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testReserveBooks() throws BookStoreException {
+		Set<BookCopy> booksToReserve = new HashSet<BookCopy>();
+		booksToReserve.add(new BookCopy(TEST_ISBN, 2));
+		Set<Integer> isbnSet = new HashSet<Integer>();
+		isbnSet.add(TEST_ISBN);
+
+		long reservationId = client.reserveBooks(booksToReserve, 60000);
+		StockBook book = storeManager.getBooksByISBN(isbnSet).get(0);
+		assertTrue(book.getNumCopies() == NUM_COPIES - 2 && book.getNumHeldCopies() == 2);
+
+		// Held copies cannot be bought.
+		Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+		booksToBuy.add(new BookCopy(TEST_ISBN, NUM_COPIES));
+
+		try {
+			client.buyBooks(booksToBuy);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		client.commitReservation(reservationId);
+		book = storeManager.getBooksByISBN(isbnSet).get(0);
+		assertTrue(book.getNumCopies() == NUM_COPIES - 2 && book.getNumHeldCopies() == 0);
+
+		reservationId = client.reserveBooks(booksToReserve, 60000);
+		client.cancelReservation(reservationId);
+		book = storeManager.getBooksByISBN(isbnSet).get(0);
+		assertTrue(book.getNumCopies() == NUM_COPIES - 2 && book.getNumHeldCopies() == 0);
+
+		// A reservation can only end once.
+		try {
+			client.commitReservation(reservationId);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		booksToReserve.clear();
+		booksToReserve.add(new BookCopy(TEST_ISBN, NUM_COPIES));
+
+		try {
+			client.reserveBooks(booksToReserve, 60000);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		book = storeManager.getBooksByISBN(isbnSet).get(0);
+		assertTrue(book.getNumCopies() == NUM_COPIES - 2 && book.getNumHeldCopies() == 0);
+	}
+
+	/**
+	 * Tests that a reservation of a removed book neither puts copies back in
+	 * stock nor sells copies of a book added again with the same ISBN: its
+	 * cancellation only releases the copies held on its other books, and its
+	 * commit fails after releasing them.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testReservationOfRemovedBook() throws BookStoreException {
+		addBooks(TEST_ISBN + 1, NUM_COPIES);
+		Set<BookCopy> booksToReserve = new HashSet<BookCopy>();
+		booksToReserve.add(new BookCopy(TEST_ISBN, 2));
+		booksToReserve.add(new BookCopy(TEST_ISBN + 1, 1));
+		Set<Integer> removedISBNs = new HashSet<Integer>();
+		removedISBNs.add(TEST_ISBN);
+		Set<Integer> isbnSet = new HashSet<Integer>();
+		isbnSet.add(TEST_ISBN);
+		isbnSet.add(TEST_ISBN + 1);
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(getDefaultBook());
+
+		for (boolean commit : new boolean[] { false, true }) {
+			long reservationId = client.reserveBooks(booksToReserve, 60000);
+			storeManager.removeBooks(removedISBNs);
+			storeManager.addBooks(booksToAdd);
+
+			if (commit) {
+				try {
+					client.commitReservation(reservationId);
+					fail();
+				} catch (BookStoreException ex) {
+					;
+				}
+			} else {
+				client.cancelReservation(reservationId);
+			}
+
+			for (StockBook book : storeManager.getBooksByISBN(isbnSet)) {
+				assertEquals(NUM_COPIES, book.getNumCopies());
+				assertEquals(0, book.getNumHeldCopies());
+			}
+
+			// The reservation ended.
+			try {
+				client.cancelReservation(reservationId);
+				fail();
+			} catch (BookStoreException ex) {
+				;
+			}
+		}
+	}
+
+	/**
+	 * Tests that the copies of a reservation are available again once its time
+	 * to live elapsed.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 * @throws InterruptedException
+	 *             the interrupted exception
+	 */
+	@Test
+	public void testReservationExpires() throws BookStoreException, InterruptedException {
+		Set<BookCopy> booksToReserve = new HashSet<BookCopy>();
+		booksToReserve.add(new BookCopy(TEST_ISBN, NUM_COPIES));
+		Set<Integer> isbnSet = new HashSet<Integer>();
+		isbnSet.add(TEST_ISBN);
+
+		long reservationId = client.reserveBooks(booksToReserve, 200);
+		long deadline = System.currentTimeMillis() + 10000;
+		StockBook book;
+
+		do {
+			Thread.sleep(100);
+			book = storeManager.getBooksByISBN(isbnSet).get(0);
+		} while (book.getNumHeldCopies() > 0 && System.currentTimeMillis() < deadline);
+
+		assertTrue(book.getNumCopies() == NUM_COPIES && book.getNumHeldCopies() == 0);
+
+		try {
+			client.cancelReservation(reservationId);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+	}
+
+	/**
+	 * Tests concurrent buyers of a book, some buying it alone and some
+	 * together with another book: every copy bought is taken exactly once,
+	 * and a reader never sees the number of copies go up.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 * @throws InterruptedException
+	 *             the interrupted exception
+	 */
+	@Test
+	public void testConcurrentBuyers() throws BookStoreException, InterruptedException {
+		final int numBuyers = 4;
+		final int numBuysPerBuyer = 50;
+		final int numCopies = numBuyers * numBuysPerBuyer;
+		addBooks(TEST_ISBN + 1, numCopies);
+		addBooks(TEST_ISBN + 2, numCopies);
+
+		Set<BookCopy> booksToBuyAlone = new HashSet<BookCopy>();
+		booksToBuyAlone.add(new BookCopy(TEST_ISBN + 1, 1));
+		Set<BookCopy> booksToBuyTogether = new HashSet<BookCopy>();
+		booksToBuyTogether.add(new BookCopy(TEST_ISBN + 1, 1));
+		booksToBuyTogether.add(new BookCopy(TEST_ISBN + 2, 1));
+
+		AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		Thread[] buyers = new Thread[numBuyers];
+
+		for (int i = 0; i < numBuyers; i++) {
+			Set<BookCopy> booksToBuy = (i % 2 == 0) ? booksToBuyAlone : booksToBuyTogether;
+			buyers[i] = new Thread(() -> {
+				try {
+					for (int j = 0; j < numBuysPerBuyer; j++) {
+						client.buyBooks(booksToBuy);
+					}
+				} catch (Throwable ex) {
+					failure.compareAndSet(null, ex);
+				}
+			});
+			buyers[i].start();
+		}
+
+		Set<Integer> isbnSet = new HashSet<Integer>();
+		isbnSet.add(TEST_ISBN + 1);
+		int lastNumCopies = numCopies;
+		boolean buying = true;
+
+		while (buying) {
+			buying = false;
+
+			for (Thread buyer : buyers) {
+				buying |= buyer.isAlive();
+			}
+
+			int numCopiesRead = storeManager.getBooksByISBN(isbnSet).get(0).getNumCopies();
+			assertTrue(numCopiesRead <= lastNumCopies);
+			lastNumCopies = numCopiesRead;
+		}
+
+		for (Thread buyer : buyers) {
+			buyer.join();
+		}
+
+		assertNull(failure.get());
+		isbnSet.add(TEST_ISBN + 2);
+
+		for (StockBook book : storeManager.getBooksByISBN(isbnSet)) {
+			if (book.getISBN() == TEST_ISBN + 1) {
+				assertEquals(0, book.getNumCopies());
+			} else {
+				assertEquals(numCopies - (numBuyers / 2) * numBuysPerBuyer, book.getNumCopies());
+			}
+		}
+	}
+
+	/**
+	 * Tests concurrent buyers of a hot book, whose copies are split over the
+	 * shards of an escrow stock when the test runs locally: copies are added
+	 * to the shards, the book turns cold and hot again while it has copies,
+	 * and the buyers take the last copies, running their shards dry. Every
+	 * copy is bought exactly once.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 * @throws InterruptedException
+	 *             the interrupted exception
+	 */
+	@Test
+	public void testConcurrentBuyersOfHotBook() throws BookStoreException, InterruptedException {
+		final int numBuyers = 4;
+		final int numCopies = 200;
+		addBooks(TEST_ISBN + 1, numCopies / 2);
+		Set<Integer> isbnSet = new HashSet<Integer>();
+		isbnSet.add(TEST_ISBN + 1);
+
+		if (localTest) {
+			((CertainBookStore) storeManager).setHotBooks(isbnSet, true);
+		}
+
+		Set<BookCopy> bookCopiesSet = new HashSet<BookCopy>();
+		bookCopiesSet.add(new BookCopy(TEST_ISBN + 1, numCopies / 2));
+		storeManager.addCopies(bookCopiesSet);
+		assertEquals(numCopies, storeManager.getBooksByISBN(isbnSet).get(0).getNumCopies());
+
+		assertEquals(numCopies / 2, buyConcurrently(TEST_ISBN + 1, numBuyers, numCopies / 2 / numBuyers));
+		assertEquals(numCopies / 2, storeManager.getBooksByISBN(isbnSet).get(0).getNumCopies());
+
+		if (localTest) {
+			((CertainBookStore) storeManager).setHotBooks(isbnSet, false);
+			assertEquals(numCopies / 2, storeManager.getBooksByISBN(isbnSet).get(0).getNumCopies());
+			((CertainBookStore) storeManager).setHotBooks(isbnSet, true);
+		}
+
+		assertEquals(numCopies / 2, buyConcurrently(TEST_ISBN + 1, numBuyers, Integer.MAX_VALUE));
+
+		StockBook book = storeManager.getBooksByISBN(isbnSet).get(0);
+		assertEquals(0, book.getNumCopies());
+		assertEquals(numBuyers, book.getNumSaleMisses());
+	}
+
+	/**
+	 * Helper method to buy copies of a book one at a time from concurrent
+	 * buyers, each buying until it bought its copies or the book ran out.
+	 *
+	 * @param isbn
+	 *            the isbn
+	 * @param numBuyers
+	 *            the number of buyers
+	 * @param numBuysPerBuyer
+	 *            the maximum number of copies bought by each buyer
+	 * @return the number of copies bought
+	 * @throws InterruptedException
+	 *             the interrupted exception
+	 */
+	private int buyConcurrently(int isbn, int numBuyers, int numBuysPerBuyer) throws InterruptedException {
+		Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+		booksToBuy.add(new BookCopy(isbn, 1));
+		AtomicInteger numBought = new AtomicInteger();
+		Thread[] buyers = new Thread[numBuyers];
+
+		for (int i = 0; i < numBuyers; i++) {
+			buyers[i] = new Thread(() -> {
+				try {
+					for (int j = 0; j < numBuysPerBuyer; j++) {
+						client.buyBooks(booksToBuy);
+						numBought.incrementAndGet();
+					}
+				} catch (BookStoreException ex) {
+					;
+				}
+			});
+			buyers[i].start();
+		}
+
+		for (Thread buyer : buyers) {
+			buyer.join();
+		}
+
+		return numBought.get();
+	}
+
 	/**
 	 * Tear down after class.
 	 *
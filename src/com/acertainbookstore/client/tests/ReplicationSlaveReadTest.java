@@ -1,6 +1,9 @@
 package com.acertainbookstore.client.tests;
 
 import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookRating;
 import com.acertainbookstore.business.CertainBookStore;
 import com.acertainbookstore.business.ImmutableStockBook;
 import com.acertainbookstore.business.StockBook;
@@ -17,8 +20,10 @@ import org.junit.*;
 import org.junit.runner.JUnitCore;
 import org.junit.runner.Result;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.net.URL;
 import java.util.*;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeoutException;
@@ -56,6 +61,15 @@ public class ReplicationSlaveReadTest {
     /** The file path. */
     private static String filePath = "./proxy.properties";
 
+    /** The time a restarted slave has to catch up with the master. */
+    private static final long CATCH_UP_TIMEOUT_MILLIS = 60000;
+
+    /** The number of books of the snapshot test, more than a snapshot page. */
+    private static final int NUM_SNAPSHOT_BOOKS = 5000;
+
+    /** The slaves restarted by the tests. */
+    private static List<Process> restartedSlaves = new ArrayList<>();
+
     /**
      * Initializes a new instance.
      */
@@ -120,16 +134,10 @@ public class ReplicationSlaveReadTest {
 
 
     @Test
-    public void testFailSlave() throws BookStoreException, InterruptedException, ExecutionException, TimeoutException {
+    public void testFailSlave() throws Exception {
         Iterator iter = slaveAddresses.iterator();
         String slave = iter.next().toString();
-
-        String url = slave + "/" + BookStoreMessageTag.DIE;
-        BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(url);
-        BookStoreResponse response = BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
-
-        assertTrue(response.getResult().getList().size() == 0);
-        assertTrue(response.getResult().getSnapshotId() == -1);
+        killSlave(slave);
 
         Set<StockBook> booksToAdd = new HashSet<StockBook>();
         booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 1, "The Art of Computer Programming", "Donald Knuth",
@@ -147,9 +155,216 @@ public class ReplicationSlaveReadTest {
         // Result result = JUnitCore.runClasses(com.acertainbookstore.client.tests.BookStoreTest.class);
         // Assert.assertTrue(result.wasSuccessful());
 
+        // The other tests expect every slave up.
+        restartSlave(slave);
+        awaitSlave(slave, getMasterSnapshotId());
+
+
+    }
+
+
+    /**
+     * Tests that a slave killed and restarted empty is caught up by the master
+     * and re-admitted: it is sent the writes committed while it was down, and
+     * then the writes committed after it caught up.
+     */
+    @Test
+    public void testRestartedSlaveReadmitted() throws Exception {
+        String slave = slaveAddresses.iterator().next();
+        killSlave(slave);
+
+        Set<StockBook> booksToAdd = new HashSet<StockBook>();
+        booksToAdd.add(getDefaultBook());
+        booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 3, "Structure and Interpretation of Computer Programs",
+                "Harold Abelson and Gerald Jay Sussman", (float) 60, NUM_COPIES, 0, 0, 0, false));
+        storeManager.addBooks(booksToAdd);
+
+        restartSlave(slave);
+        List<StockBook> slaveBooks = awaitSlave(slave, getMasterSnapshotId());
+        Assert.assertTrue(slaveBooks.containsAll(booksToAdd));
+
+        // The slave is sent the next writes once it is re-admitted.
+        Set<BookCopy> bookCopies = new HashSet<BookCopy>();
+        bookCopies.add(new BookCopy(TEST_ISBN, NUM_COPIES));
+        storeManager.addCopies(bookCopies);
+
+        slaveBooks = awaitSlave(slave, getMasterSnapshotId());
+
+        for (StockBook book : slaveBooks) {
+            if (book.getISBN() == TEST_ISBN) {
+                Assert.assertEquals(2 * NUM_COPIES, book.getNumCopies());
+            }
+        }
+    }
+
+    /**
+     * Tests that a slave killed while books were added, rated and picked, and
+     * then restarted empty, is bootstrapped from a snapshot of the master
+     * spanning several pages, and answers the reads served by the indexes as
+     * the master does once it caught up.
+     */
+    @Test
+    public void testRestartedSlaveLoadsSnapshot() throws Exception {
+        String slave = slaveAddresses.iterator().next();
+        killSlave(slave);
+
+        Set<StockBook> booksToAdd = new HashSet<StockBook>();
+        Set<BookRating> bookRatings = new HashSet<BookRating>();
+        Set<BookEditorPick> editorPicks = new HashSet<BookEditorPick>();
+
+        for (int i = 0; i < NUM_SNAPSHOT_BOOKS; i++) {
+            int isbn = TEST_ISBN + 1000 + i;
+            booksToAdd.add(new ImmutableStockBook(isbn, "Bootstrapped volume " + i, "Snapshot author " + i % 10,
+                    (float) 20, NUM_COPIES, 0, 0, 0, false));
+
+            if (i % 100 == 0) {
+                bookRatings.add(new BookRating(isbn, i % 5 + 1));
+                editorPicks.add(new BookEditorPick(isbn, true));
+            }
+        }
+
+        storeManager.addBooks(booksToAdd);
+        bookStoreClient.rateBooks(bookRatings);
+        storeManager.updateEditorPicks(editorPicks);
+
+        restartSlave(slave);
+        List<StockBook> slaveBooks = awaitSlave(slave, getMasterSnapshotId());
+        Assert.assertEquals(new HashSet<StockBook>(storeManager.getBooks()), new HashSet<StockBook>(slaveBooks));
+
+        String searchRequest = BookStoreMessageTag.SEARCHBOOKS + "?" + BookStoreConstants.SEARCH_QUERY_PARAM
+                + "=Bootstrapped&" + BookStoreConstants.AFTER_ISBN_PARAM + "=0&" + BookStoreConstants.BOOK_NUM_PARAM
+                + "=" + NUM_SNAPSHOT_BOOKS;
+        List<Book> searchedBooks = getServerBooks(slave, searchRequest);
+        Assert.assertEquals(NUM_SNAPSHOT_BOOKS, searchedBooks.size());
+        Assert.assertEquals(getServerBooks(masterAddress, searchRequest), searchedBooks);
+
+        String topRatedRequest = BookStoreMessageTag.GETTOPRATEDBOOKS + "?" + BookStoreConstants.BOOK_NUM_PARAM
+                + "=" + bookRatings.size();
+        Assert.assertEquals(getServerBooks(masterAddress, topRatedRequest), getServerBooks(slave, topRatedRequest));
+
+        String editorPicksRequest = BookStoreMessageTag.GETEDITORPICKS + "?" + BookStoreConstants.BOOK_NUM_PARAM
+                + "=" + slaveBooks.size();
+        Assert.assertEquals(new HashSet<Book>(getServerBooks(masterAddress, editorPicksRequest)),
+                new HashSet<Book>(getServerBooks(slave, editorPicksRequest)));
+    }
+
+    /**
+     * Stops the slaves restarted by the tests.
+     */
+    @AfterClass
+    public static void tearDownAfterClass() {
+        for (Process restartedSlave : restartedSlaves) {
+            restartedSlave.destroy();
+        }
+    }
+
+    /**
+     * Kills a slave, which exits after answering.
+     *
+     * @param slave
+     *            the slave address
+     */
+    private void killSlave(String slave) throws Exception {
+        BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(slave + "/" + BookStoreMessageTag.DIE);
+        BookStoreResponse response = BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+        Assert.assertEquals(-1, response.getResult().getSnapshotId());
+
+        // The slave is down once it refuses the requests.
+        long deadline = System.currentTimeMillis() + CATCH_UP_TIMEOUT_MILLIS;
+
+        while (getSlaveResult(slave) != null) {
+            Assert.assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(100);
+        }
+    }
+
+    /**
+     * Restarts a slave on its port, with an empty store.
+     *
+     * @param slave
+     *            the slave address
+     */
+    private void restartSlave(String slave) throws Exception {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        ProcessBuilder builder = new ProcessBuilder(java, "-Dport=" + new URL(slave).getPort(), "-cp",
+                System.getProperty("java.class.path"), "com.acertainbookstore.server.SlaveBookStoreHTTPServer");
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+        restartedSlaves.add(builder.start());
+    }
+
+    /**
+     * Waits for a slave to catch up with a snapshot of the master.
+     *
+     * @param slave
+     *            the slave address
+     * @param snapshotId
+     *            the snapshot id
+     * @return the books of the slave once it caught up
+     */
+    @SuppressWarnings("unchecked")
+    private List<StockBook> awaitSlave(String slave, long snapshotId) throws Exception {
+        long deadline = System.currentTimeMillis() + CATCH_UP_TIMEOUT_MILLIS;
+        long lastSnapshotId = -1;
+        BookStoreResult result;
+
+        while ((result = getSlaveResult(slave)) == null || result.getSnapshotId() < snapshotId) {
+            Assert.assertTrue("Slave " + slave + " did not catch up with snapshot " + snapshotId,
+                    System.currentTimeMillis() < deadline);
+
+            // A slave loading a snapshot serves the reads of the previous one.
+            if (result != null && result.getSnapshotId() > 0) {
+                Assert.assertTrue(result.getSnapshotId() >= lastSnapshotId);
+                lastSnapshotId = result.getSnapshotId();
+            }
+
+            Thread.sleep(100);
+        }
+
+        return (List<StockBook>) result.getList();
+    }
+
+    /**
+     * Lists the books of a slave.
+     *
+     * @param slave
+     *            the slave address
+     * @return the result of the slave, null if the slave is down
+     */
+    private BookStoreResult getSlaveResult(String slave) {
+        BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(slave + "/" + BookStoreMessageTag.LISTBOOKS);
+
+        try {
+            return BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get()).getResult();
+        } catch (BookStoreException ex) {
+            return null;
+        }
+    }
 
+    /**
+     * Sends a read request to a server, the master or a slave.
+     *
+     * @param server
+     *            the server address
+     * @param request
+     *            the request, its tag followed by its parameters
+     * @return the books read
+     */
+    @SuppressWarnings("unchecked")
+    private List<Book> getServerBooks(String server, String request) throws BookStoreException {
+        BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(server + "/" + request);
+        return (List<Book>) BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get())
+                .getResult().getList();
     }
 
+    /**
+     * Gets the snapshot id of the latest write of the master.
+     *
+     * @return the snapshot id
+     */
+    private long getMasterSnapshotId() {
+        return ((ReplicationAwareStockManagerHTTPProxy) storeManager).getSnapshotId();
+    }
 
     /**
      * Initialize replication aware mappings.
@@ -0,0 +1,278 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.acertainbookstore.business.BookChange;
+import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.ReplicationRequest;
+import com.acertainbookstore.business.ReplicationResult;
+import com.acertainbookstore.business.SlaveCertainBookStore;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.server.ReplicationSnapshot;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+
+/**
+ * {@link SlaveReplicationTest} tests how a {@link SlaveCertainBookStore}
+ * applies the batches replicated by the master, in process.
+ *
+ * @see SlaveCertainBookStore
+ */
+public class SlaveReplicationTest {
+
+	/** The Constant TEST_ISBN. */
+	private static final int TEST_ISBN = 3044560;
+
+	/** The Constant NUM_COPIES. */
+	private static final int NUM_COPIES = 5;
+
+	/** The slave. */
+	private SlaveCertainBookStore slave;
+
+	/**
+	 * Sets the up.
+	 */
+	@Before
+	public void setUp() {
+		slave = new SlaveCertainBookStore();
+	}
+
+	/**
+	 * Helper method to get the default book used by initializeBooks.
+	 *
+	 * @param numCopies
+	 *            the number of copies
+	 * @return the default book
+	 */
+	private StockBook getDefaultBook(int numCopies) {
+		return new ImmutableStockBook(TEST_ISBN, "Harry Potter and JUnit", "JK Unit", (float) 10, numCopies, 0, 0, 0,
+				false);
+	}
+
+	/**
+	 * Helper method to get the default book after a batch rated it, picked it
+	 * and sold a copy of it.
+	 *
+	 * @return the default book
+	 */
+	private StockBook getChangedDefaultBook() {
+		return new ImmutableStockBook(TEST_ISBN, "Harry Potter and JUnit", "JK Unit", (float) 10, NUM_COPIES - 1, 0, 1,
+				5, true);
+	}
+
+	/**
+	 * Helper method to get the book added by a batch.
+	 *
+	 * @return the book
+	 */
+	private StockBook getAddedBook() {
+		return new ImmutableStockBook(TEST_ISBN + 1, "The Art of Computer Programming", "Donald Knuth", (float) 300,
+				NUM_COPIES, 0, 0, 0, false);
+	}
+
+	/**
+	 * Helper method to check that the books are the default book and the
+	 * added book after the batch changing them.
+	 *
+	 * @param books
+	 *            the books
+	 */
+	private void assertChangedBooks(List<StockBook> books) {
+		assertEquals(2, books.size());
+
+		for (StockBook book : books) {
+			StockBook expected = book.getISBN() == TEST_ISBN ? getChangedDefaultBook() : getAddedBook();
+			assertEquals(expected.getISBN(), book.getISBN());
+			assertEquals(expected.getNumCopies(), book.getNumCopies());
+			assertEquals(expected.getNumTimesRated(), book.getNumTimesRated());
+			assertEquals(expected.getTotalRating(), book.getTotalRating());
+			assertEquals(expected.isEditorPick(), book.isEditorPick());
+		}
+	}
+
+	/**
+	 * Helper method to build a batch as the master sends it.
+	 *
+	 * @param previousSequenceNumber
+	 *            the sequence number of the previous batch
+	 * @param sequenceNumber
+	 *            the sequence number of the batch
+	 * @param changes
+	 *            the changes of the batch
+	 * @return the batch
+	 */
+	private ReplicationRequest batch(long previousSequenceNumber, long sequenceNumber, BookChange... changes) {
+		ReplicationRequest request = new ReplicationRequest(new LinkedHashSet<>(Arrays.asList(changes)),
+				BookStoreMessageTag.REPLICATEBATCH);
+		request.setPreviousSequenceNumber(previousSequenceNumber);
+		request.setSequenceNumber(sequenceNumber);
+		return request;
+	}
+
+	/**
+	 * Helper method to get the books of the slave.
+	 *
+	 * @return the books
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@SuppressWarnings("unchecked")
+	private List<StockBook> getSlaveBooks() throws BookStoreException {
+		return (List<StockBook>) slave.getBooks().getList();
+	}
+
+	/**
+	 * Tests that a batch arriving before its predecessor waits for it, and is
+	 * applied after it.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testBatchArrivingBeforeItsPredecessor() throws Exception {
+		ReplicationRequest firstBatch = batch(0, 1, BookChange.added(getDefaultBook(NUM_COPIES)));
+		ReplicationRequest secondBatch = batch(1, 2, BookChange.changed(getDefaultBook(NUM_COPIES - 1)));
+		AtomicReference<ReplicationResult> secondResult = new AtomicReference<>();
+
+		Thread secondSender = new Thread(() -> {
+			try {
+				secondResult.set(slave.replicate(secondBatch));
+			} catch (BookStoreException ex) {
+				ex.printStackTrace();
+			}
+		});
+
+		secondSender.start();
+
+		// The second batch waits for the first one.
+		while (secondSender.getState() != Thread.State.TIMED_WAITING) {
+			assertTrue(secondSender.isAlive());
+			Thread.sleep(1);
+		}
+
+		assertEquals(0, slave.getAppliedSequenceNumber());
+		assertTrue(getSlaveBooks().isEmpty());
+
+		assertTrue(slave.replicate(firstBatch).isReplicationSuccessful());
+		secondSender.join();
+
+		assertTrue(secondResult.get().isReplicationSuccessful());
+		assertEquals(2, slave.getAppliedSequenceNumber());
+
+		List<StockBook> books = getSlaveBooks();
+		assertEquals(1, books.size());
+		assertEquals(NUM_COPIES - 1, books.get(0).getNumCopies());
+		assertEquals(2, slave.getBooks().getSnapshotId());
+	}
+
+	/**
+	 * Tests that a batch sent again is acknowledged without being applied
+	 * again.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testBatchSentAgain() throws BookStoreException {
+		ReplicationRequest firstBatch = batch(0, 1, BookChange.added(getDefaultBook(NUM_COPIES)));
+		ReplicationRequest secondBatch = batch(1, 2, BookChange.changed(getDefaultBook(NUM_COPIES - 1)));
+
+		assertTrue(slave.replicate(firstBatch).isReplicationSuccessful());
+		assertTrue(slave.replicate(secondBatch).isReplicationSuccessful());
+
+		// The first batch would bring the copies back.
+		assertTrue(slave.replicate(firstBatch).isReplicationSuccessful());
+		assertEquals(2, slave.getAppliedSequenceNumber());
+
+		List<StockBook> books = getSlaveBooks();
+		assertEquals(1, books.size());
+		assertEquals(NUM_COPIES - 1, books.get(0).getNumCopies());
+	}
+
+	/**
+	 * Tests that changes applied twice leave the books as they were after the
+	 * first time.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testChangesAppliedTwice() throws BookStoreException {
+		CertainBookStore store = new CertainBookStore();
+		store.applyChanges(Arrays.asList(BookChange.added(getDefaultBook(NUM_COPIES))));
+
+		List<BookChange> changes = Arrays.asList(BookChange.changed(getChangedDefaultBook()),
+				BookChange.added(getAddedBook()));
+		store.applyChanges(changes);
+		store.applyChanges(changes);
+
+		assertChangedBooks(store.getBooks());
+		assertEquals(1, store.getEditorPicks(2).size());
+		assertEquals(1, store.searchBooks("Knuth", 0, 10).size());
+	}
+
+	/**
+	 * Tests that a batch following a snapshot taken while it was committed
+	 * on the master, i.e. a batch the snapshot holds in part, is applied
+	 * again.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testBatchOverlappingLoadedSnapshot() throws BookStoreException {
+		assertTrue(slave.replicate(batch(0, 1, BookChange.added(getDefaultBook(NUM_COPIES)))).isReplicationSuccessful());
+
+		// The snapshot was taken after the book was added by the batch.
+		CertainBookStore loadedStore = new CertainBookStore();
+		loadedStore.loadBooks(Arrays.asList(getDefaultBook(NUM_COPIES), getAddedBook()), 2);
+		loadedStore.publishLoadedBooks(2);
+		assertEquals(2, slave.installSnapshot(loadedStore));
+
+		ReplicationRequest overlappingBatch = batch(1, 3, BookChange.changed(getChangedDefaultBook()),
+				BookChange.added(getAddedBook()));
+		assertTrue(slave.replicate(overlappingBatch).isReplicationSuccessful());
+		assertEquals(3, slave.getAppliedSequenceNumber());
+
+		assertChangedBooks(getSlaveBooks());
+		assertEquals(1, slave.getEditorPicks(2).getList().size());
+		assertEquals(3, slave.getBooks().getSnapshotId());
+	}
+
+	/**
+	 * Tests that a snapshot holds the books whose title and author are longer
+	 * than the 65535 bytes of a modified UTF-8 string.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testSnapshotOfLongTitle() throws Exception {
+		char[] title = new char[40000];
+		Arrays.fill(title, '\u00e9');
+		StockBook book = new ImmutableStockBook(TEST_ISBN, new String(title), new String(title) + " author",
+				(float) 10, NUM_COPIES, 0, 0, 0, false);
+		assertTrue(slave.replicate(batch(0, 1, BookChange.added(book))).isReplicationSuccessful());
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertEquals(1, ReplicationSnapshot.write(slave, out));
+		CertainBookStore loadedStore = ReplicationSnapshot.read(new ByteArrayInputStream(out.toByteArray()));
+
+		List<StockBook> books = loadedStore.getBooks();
+		assertEquals(1, books.size());
+		assertEquals(book.getTitle(), books.get(0).getTitle());
+		assertEquals(book.getAuthor(), books.get(0).getAuthor());
+		assertEquals(1, loadedStore.searchBooks("author", 0, 10).size());
+	}
+}
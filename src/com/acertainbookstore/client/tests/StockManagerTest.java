@@ -6,6 +6,8 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.After;
 import org.junit.AfterClass;
@@ -846,9 +848,159 @@ public class StockManagerTest {
 		assertTrue(listBooks.size() == 0);
 	}
 
-	
-	
-	
+	/**
+	 * Tests that a book with sale misses is in demand until copies of it are
+	 * added.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testGetBooksInDemand() throws BookStoreException {
+		assertTrue(storeManager.getBooksInDemand().isEmpty());
+
+		// Try to buy more copies than there are in store.
+		Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+		booksToBuy.add(new BookCopy(TEST_ISBN, NUM_COPIES + 2));
+
+		try {
+			client.buyBooks(booksToBuy);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		List<StockBook> booksInDemand = storeManager.getBooksInDemand();
+		assertTrue(booksInDemand.size() == 1);
+		StockBook bookInDemand = booksInDemand.get(0);
+		assertTrue(bookInDemand.getISBN() == TEST_ISBN && bookInDemand.getNumSaleMisses() == 2
+				&& bookInDemand.getNumCopies() == NUM_COPIES);
+
+		// Adding copies resets the sale misses.
+		Set<BookCopy> bookCopiesSet = new HashSet<BookCopy>();
+		bookCopiesSet.add(new BookCopy(TEST_ISBN, 2));
+		storeManager.addCopies(bookCopiesSet);
+
+		assertTrue(storeManager.getBooksInDemand().isEmpty());
+	}
+
+	/**
+	 * Tests that the books can be paged through by increasing ISBN.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testGetBooksPaged() throws BookStoreException {
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+
+		// Add the books in decreasing ISBN order.
+		for (int i = 4; i > 0; i--) {
+			booksToAdd.add(new ImmutableStockBook(TEST_ISBN + i, "Paged Book " + i, "Paged Author", (float) 10,
+					NUM_COPIES, 0, 0, 0, false));
+		}
+
+		storeManager.addBooks(booksToAdd);
+
+		List<StockBook> books = storeManager.getBooks(0, 2);
+		assertTrue(books.size() == 2 && books.get(0).equals(getDefaultBook())
+				&& books.get(1).getISBN() == TEST_ISBN + 1);
+
+		books = storeManager.getBooks(TEST_ISBN + 1, 2);
+		assertTrue(books.size() == 2 && books.get(0).getISBN() == TEST_ISBN + 2
+				&& books.get(1).getISBN() == TEST_ISBN + 3);
+
+		books = storeManager.getBooks(TEST_ISBN + 3, 2);
+		assertTrue(books.size() == 1 && books.get(0).getISBN() == TEST_ISBN + 4);
+
+		assertTrue(storeManager.getBooks(TEST_ISBN + 4, 2).isEmpty());
+
+		if (!localTest) {
+			int expectedISBN = TEST_ISBN;
+
+			for (StockBook book : ((ReplicationAwareStockManagerHTTPProxy) storeManager).iterateBooks(2)) {
+				assertTrue(book.getISBN() == expectedISBN++);
+			}
+
+			assertTrue(expectedISBN == TEST_ISBN + 5);
+		}
+	}
+
+	/**
+	 * Tests that iterating over the books while other books are added still
+	 * returns all the books added before. The pages read during an add may be
+	 * short although more books follow, which the iterator reads here from a
+	 * proxy asking for one book less than a page.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testIterateBooksDuringAdds() throws Exception {
+		if (localTest) {
+			return;
+		}
+
+		final int numBooks = 200;
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+
+		for (int i = 1; i <= numBooks; i++) {
+			booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 2 * i, "Iterated Book " + i, "Iterated Author",
+					(float) 10, NUM_COPIES, 0, 0, 0, false));
+		}
+
+		storeManager.addBooks(booksToAdd);
+
+		// Add the books between them one by one during the iterations.
+		AtomicBoolean iterating = new AtomicBoolean(true);
+		AtomicReference<BookStoreException> addFailure = new AtomicReference<>();
+		Thread adder = new Thread(() -> {
+			try {
+				for (int i = 1; i <= numBooks && iterating.get(); i++) {
+					Set<StockBook> addedBooks = new HashSet<StockBook>();
+					addedBooks.add(new ImmutableStockBook(TEST_ISBN + 2 * i - 1, "Added Book " + i, "Added Author",
+							(float) 10, NUM_COPIES, 0, 0, 0, false));
+					storeManager.addBooks(addedBooks);
+				}
+			} catch (BookStoreException ex) {
+				addFailure.set(ex);
+			}
+		});
+
+		ReplicationAwareStockManagerHTTPProxy shortPagesManager = new ReplicationAwareStockManagerHTTPProxy() {
+			@Override
+			public List<StockBook> getBooks(int afterISBN, int numBooks) throws BookStoreException {
+				return super.getBooks(afterISBN, numBooks - 1);
+			}
+		};
+
+		adder.start();
+
+		try {
+			do {
+				int lastISBN = 0;
+				int numIteratedBooks = 0;
+
+				for (StockBook book : shortPagesManager.iterateBooks(3)) {
+					assertTrue(book.getISBN() > lastISBN);
+					lastISBN = book.getISBN();
+
+					if (book.getTitle().startsWith("Iterated")) {
+						numIteratedBooks++;
+					}
+				}
+
+				assertEquals(numBooks, numIteratedBooks);
+			} while (adder.isAlive());
+		} finally {
+			iterating.set(false);
+			adder.join();
+			shortPagesManager.stop();
+		}
+
+		assertNull(addFailure.get());
+	}
+
 	/**
 	 * Tear down after class.
 	 *
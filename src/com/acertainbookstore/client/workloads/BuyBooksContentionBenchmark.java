@@ -0,0 +1,153 @@
+package com.acertainbookstore.client.workloads;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link BuyBooksContentionBenchmark} measures the throughput of
+ * {@link CertainBookStore#buyBooks(Set)} for orders of a single copy of a
+ * single book, the dominant checkout shape, as the number of buying threads
+ * grows. Each run is measured twice: once calling the store directly, where
+ * concurrent buyers of a book decrement its stock with a compare-and-set, and
+ * once with every call serialized by a global monitor, which is how the store
+ * used to run orders.
+ *
+ * Two workloads are measured: all the threads buying the same hot book, and
+ * the threads buying books picked uniformly at random.
+ *
+ * Usage: BuyBooksContentionBenchmark [maxThreads] [numBooks] [millisPerRun]
+ */
+public class BuyBooksContentionBenchmark {
+
+	/** The default number of books in the catalog. */
+	private static final int DEFAULT_NUM_BOOKS = 10000;
+
+	/** The default duration of a run. */
+	private static final long DEFAULT_MILLIS_PER_RUN = 2000;
+
+	/** The number of copies of each book, large enough to never run out. */
+	private static final int NUM_COPIES = Integer.MAX_VALUE;
+
+	/** The monitor serializing the calls of the baseline. */
+	private static final Object GLOBAL_MONITOR = new Object();
+
+	/**
+	 * Instantiates a new {@link BuyBooksContentionBenchmark}.
+	 */
+	private BuyBooksContentionBenchmark() {
+		// Prevent instantiation.
+	}
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args
+	 *            the arguments
+	 * @throws Exception
+	 *             if a run fails
+	 */
+	public static void main(String[] args) throws Exception {
+		int maxThreads = args.length > 0 ? Integer.parseInt(args[0])
+				: 2 * Runtime.getRuntime().availableProcessors();
+		int numBooks = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_NUM_BOOKS;
+		long millisPerRun = args.length > 2 ? Long.parseLong(args[2]) : DEFAULT_MILLIS_PER_RUN;
+
+		System.out.printf("%d cores, %d books, %d ms per run%n", Runtime.getRuntime().availableProcessors(),
+				numBooks, millisPerRun);
+		System.out.printf("%10s %10s %18s %18s%n", "workload", "threads", "monitor (ops/s)", "cas (ops/s)");
+
+		for (boolean hotBook : new boolean[] { true, false }) {
+			for (int numThreads = 1; numThreads <= maxThreads; numThreads <<= 1) {
+				int numBooksBought = hotBook ? 1 : numBooks;
+				long monitorOps = run(numThreads, numBooks, numBooksBought, millisPerRun, true);
+				long casOps = run(numThreads, numBooks, numBooksBought, millisPerRun, false);
+
+				System.out.printf("%10s %10d %18d %18d%n", hotBook ? "hot" : "uniform", numThreads,
+						monitorOps * 1000 / millisPerRun, casOps * 1000 / millisPerRun);
+			}
+		}
+	}
+
+	/**
+	 * Runs the buying threads on a new store for the given duration.
+	 *
+	 * @param numThreads
+	 *            the number of threads
+	 * @param numBooks
+	 *            the number of books in the store
+	 * @param numBooksBought
+	 *            the books bought are picked among the first numBooksBought
+	 * @param millis
+	 *            the duration of the run
+	 * @param globalMonitor
+	 *            whether the calls are serialized by a global monitor
+	 * @return the number of orders completed
+	 * @throws BookStoreException
+	 *             the book store exception
+	 * @throws InterruptedException
+	 *             the interrupted exception
+	 * @throws ExecutionException
+	 *             if a thread failed
+	 */
+	private static long run(int numThreads, int numBooks, int numBooksBought, long millis, boolean globalMonitor)
+			throws BookStoreException, InterruptedException, ExecutionException {
+		CertainBookStore store = new CertainBookStore();
+		Set<StockBook> books = new HashSet<>();
+
+		for (int isbn = 1; isbn <= numBooks; isbn++) {
+			books.add(new ImmutableStockBook(isbn, "Title " + isbn, "Author " + isbn, 10, NUM_COPIES, 0, 0, 0, false));
+		}
+
+		store.addBooks(books);
+
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		List<Future<Long>> futures = new ArrayList<>();
+		long deadline = System.nanoTime() + millis * 1000000;
+
+		for (int i = 0; i < numThreads; i++) {
+			futures.add(executor.submit(() -> {
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				long numOrders = 0;
+
+				while (System.nanoTime() < deadline) {
+					Set<BookCopy> order = Collections.singleton(new BookCopy(1 + random.nextInt(numBooksBought), 1));
+
+					if (globalMonitor) {
+						synchronized (GLOBAL_MONITOR) {
+							store.buyBooks(order);
+						}
+					} else {
+						store.buyBooks(order);
+					}
+
+					numOrders++;
+				}
+
+				return numOrders;
+			}));
+		}
+
+		long totalOrders = 0;
+
+		for (Future<Long> future : futures) {
+			totalOrders += future.get();
+		}
+
+		executor.shutdown();
+		return totalOrders;
+	}
+}
@@ -0,0 +1,155 @@
+package com.acertainbookstore.client.workloads;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link EditorPicksBenchmark} measures the latency of
+ * {@link CertainBookStore#getEditorPicks(int)} on a large catalog, against a
+ * full scan of the catalog followed by rejection sampling, which is how editor
+ * picks used to be computed.
+ *
+ * Usage: EditorPicksBenchmark [numBooks] [numEditorPicks] [numRuns]
+ */
+public class EditorPicksBenchmark {
+
+	/** The default number of books in the catalog. */
+	private static final int DEFAULT_NUM_BOOKS = 1000000;
+
+	/** The default number of editor picks. */
+	private static final int DEFAULT_NUM_EDITOR_PICKS = 100000;
+
+	/** The default number of measured calls per sample size. */
+	private static final int DEFAULT_NUM_RUNS = 50;
+
+	/** The number of books added per call. */
+	private static final int BATCH_SIZE = 10000;
+
+	/**
+	 * Instantiates a new {@link EditorPicksBenchmark}.
+	 */
+	private EditorPicksBenchmark() {
+		// Prevent instantiation.
+	}
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args
+	 *            the arguments
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public static void main(String[] args) throws BookStoreException {
+		int numBooks = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_NUM_BOOKS;
+		int numEditorPicks = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_NUM_EDITOR_PICKS;
+		int numRuns = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_NUM_RUNS;
+
+		CertainBookStore store = new CertainBookStore();
+		populate(store, numBooks, numEditorPicks);
+
+		// The books as the old implementation found them in the catalog.
+		List<StockBook> catalog = store.getBooks();
+		Random random = new Random();
+
+		System.out.printf("%d books, %d editor picks%n", numBooks, numEditorPicks);
+		System.out.printf("%10s %15s %15s%n", "k", "index (us)", "scan (us)");
+
+		for (int k : new int[] { 1, 10, 100, 1000, numEditorPicks / 2, numEditorPicks - 1 }) {
+			long indexNanos = 0;
+			long scanNanos = 0;
+
+			for (int run = -1; run < numRuns; run++) {
+				long start = System.nanoTime();
+				store.getEditorPicks(k);
+				long middle = System.nanoTime();
+				scanEditorPicks(catalog, k, random);
+				long end = System.nanoTime();
+
+				// The first run warms up the JIT.
+				if (run >= 0) {
+					indexNanos += middle - start;
+					scanNanos += end - middle;
+				}
+			}
+
+			System.out.printf("%10d %15d %15d%n", k, indexNanos / numRuns / 1000, scanNanos / numRuns / 1000);
+		}
+	}
+
+	/**
+	 * Fills the store with books, the first numEditorPicks of which are editor
+	 * picks.
+	 *
+	 * @param store
+	 *            the store
+	 * @param numBooks
+	 *            the number of books
+	 * @param numEditorPicks
+	 *            the number of editor picks
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private static void populate(CertainBookStore store, int numBooks, int numEditorPicks)
+			throws BookStoreException {
+		for (int first = 1; first <= numBooks; first += BATCH_SIZE) {
+			Set<StockBook> books = new HashSet<>();
+			Set<BookEditorPick> editorPicks = new HashSet<>();
+
+			for (int isbn = first; isbn < first + BATCH_SIZE && isbn <= numBooks; isbn++) {
+				books.add(new ImmutableStockBook(isbn, "Title " + isbn, "Author " + isbn, 10, 5, 0, 0, 0, false));
+
+				if (isbn <= numEditorPicks) {
+					editorPicks.add(new BookEditorPick(isbn, true));
+				}
+			}
+
+			store.addBooks(books);
+			store.updateEditorPicks(editorPicks);
+		}
+	}
+
+	/**
+	 * Scans the catalog for editor picks and samples them by rejection.
+	 *
+	 * @param catalog
+	 *            the catalog
+	 * @param numBooks
+	 *            the number of books
+	 * @param random
+	 *            the random number generator
+	 * @return the books
+	 */
+	private static List<StockBook> scanEditorPicks(List<StockBook> catalog, int numBooks, Random random) {
+		List<StockBook> allEditorPicks = new ArrayList<>();
+
+		for (StockBook book : catalog) {
+			if (book.isEditorPick()) {
+				allEditorPicks.add(book);
+			}
+		}
+
+		Set<Integer> toBePicked = new HashSet<>();
+
+		while (toBePicked.size() < Math.min(numBooks, allEditorPicks.size())) {
+			toBePicked.add(random.nextInt(allEditorPicks.size()));
+		}
+
+		List<StockBook> editorPicks = new ArrayList<>();
+
+		for (Integer index : toBePicked) {
+			editorPicks.add(allEditorPicks.get(index));
+		}
+
+		return editorPicks;
+	}
+}
@@ -0,0 +1,231 @@
+package com.acertainbookstore.client.workloads;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link HotBookBenchmark} runs orders of a single copy of a book against
+ * {@link CertainBookStore}, the books being picked with a Zipfian
+ * distribution, so that the first ISBN is by far the most bought one. Each run
+ * is measured twice: once with the books stored as usual, and once with the
+ * hottest books designated as hot (cf.
+ * {@link CertainBookStore#setHotBooks(Set, boolean)}), whose copies are split
+ * over per-core shards.
+ *
+ * After each run the number of copies of the hottest book reported by
+ * {@link CertainBookStore#getBooksByISBN(Set)} is checked against the number
+ * of copies bought.
+ *
+ * Usage: HotBookBenchmark [maxThreads] [numBooks] [numHotBooks] [exponent]
+ * [millisPerRun]
+ */
+public class HotBookBenchmark {
+
+	/** The default number of books in the catalog. */
+	private static final int DEFAULT_NUM_BOOKS = 10000;
+
+	/** The default number of books designated as hot. */
+	private static final int DEFAULT_NUM_HOT_BOOKS = 1;
+
+	/** The default exponent of the Zipfian distribution. */
+	private static final double DEFAULT_EXPONENT = 1.2;
+
+	/** The default duration of a run. */
+	private static final long DEFAULT_MILLIS_PER_RUN = 2000;
+
+	/** The number of copies of each book, large enough to never run out. */
+	private static final int NUM_COPIES = 1000000000;
+
+	/**
+	 * Instantiates a new {@link HotBookBenchmark}.
+	 */
+	private HotBookBenchmark() {
+		// Prevent instantiation.
+	}
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args
+	 *            the arguments
+	 * @throws Exception
+	 *             if a run fails
+	 */
+	public static void main(String[] args) throws Exception {
+		int maxThreads = args.length > 0 ? Integer.parseInt(args[0])
+				: 2 * Runtime.getRuntime().availableProcessors();
+		int numBooks = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_NUM_BOOKS;
+		int numHotBooks = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_NUM_HOT_BOOKS;
+		double exponent = args.length > 3 ? Double.parseDouble(args[3]) : DEFAULT_EXPONENT;
+		long millisPerRun = args.length > 4 ? Long.parseLong(args[4]) : DEFAULT_MILLIS_PER_RUN;
+
+		double[] cdf = zipfianCdf(numBooks, exponent);
+
+		System.out.printf("%d cores, %d books, %d hot, exponent %.2f, %d ms per run, %.1f%% of orders on ISBN 1%n",
+				Runtime.getRuntime().availableProcessors(), numBooks, numHotBooks, exponent, millisPerRun,
+				cdf[0] * 100);
+
+		// A first run warms up the JIT.
+		run(maxThreads, cdf, numHotBooks, millisPerRun);
+		run(maxThreads, cdf, 0, millisPerRun);
+
+		System.out.printf("%10s %18s %18s%n", "threads", "plain (ops/s)", "hot (ops/s)");
+
+		for (int numThreads = 1; numThreads <= maxThreads; numThreads <<= 1) {
+			long plainOps = run(numThreads, cdf, 0, millisPerRun);
+			long hotOps = run(numThreads, cdf, numHotBooks, millisPerRun);
+
+			System.out.printf("%10d %18d %18d%n", numThreads, plainOps * 1000 / millisPerRun,
+					hotOps * 1000 / millisPerRun);
+		}
+	}
+
+	/**
+	 * Computes the cumulative distribution of a Zipfian distribution, where
+	 * the book of rank k is picked with a probability proportional to
+	 * 1/k^exponent.
+	 *
+	 * @param numBooks
+	 *            the number of books
+	 * @param exponent
+	 *            the exponent
+	 * @return the probability of picking each rank or a lower one
+	 */
+	private static double[] zipfianCdf(int numBooks, double exponent) {
+		double[] cdf = new double[numBooks];
+		double sum = 0;
+
+		for (int rank = 1; rank <= numBooks; rank++) {
+			sum += 1 / Math.pow(rank, exponent);
+			cdf[rank - 1] = sum;
+		}
+
+		for (int i = 0; i < numBooks; i++) {
+			cdf[i] /= sum;
+		}
+
+		return cdf;
+	}
+
+	/**
+	 * Picks an ISBN, the ISBN of a book being its rank.
+	 *
+	 * @param cdf
+	 *            the cumulative distribution
+	 * @param random
+	 *            the random number generator
+	 * @return the ISBN
+	 */
+	private static int nextISBN(double[] cdf, ThreadLocalRandom random) {
+		double u = random.nextDouble();
+		int low = 0;
+		int high = cdf.length - 1;
+
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+
+			if (cdf[middle] < u) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+
+		return low + 1;
+	}
+
+	/**
+	 * Runs the buying threads on a new store for the given duration.
+	 *
+	 * @param numThreads
+	 *            the number of threads
+	 * @param cdf
+	 *            the cumulative distribution of the books bought
+	 * @param numHotBooks
+	 *            the number of books designated as hot
+	 * @param millis
+	 *            the duration of the run
+	 * @return the number of orders completed
+	 * @throws BookStoreException
+	 *             the book store exception
+	 * @throws InterruptedException
+	 *             the interrupted exception
+	 * @throws ExecutionException
+	 *             if a thread failed
+	 */
+	private static long run(int numThreads, double[] cdf, int numHotBooks, long millis)
+			throws BookStoreException, InterruptedException, ExecutionException {
+		CertainBookStore store = new CertainBookStore();
+		Set<StockBook> books = new HashSet<>();
+		Set<Integer> hotBooks = new HashSet<>();
+
+		for (int isbn = 1; isbn <= cdf.length; isbn++) {
+			books.add(new ImmutableStockBook(isbn, "Title " + isbn, "Author " + isbn, 10, NUM_COPIES, 0, 0, 0, false));
+
+			if (isbn <= numHotBooks) {
+				hotBooks.add(isbn);
+			}
+		}
+
+		store.addBooks(books);
+		store.setHotBooks(hotBooks, true);
+
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		List<Future<long[]>> futures = new ArrayList<>();
+		long deadline = System.nanoTime() + millis * 1000000;
+
+		for (int i = 0; i < numThreads; i++) {
+			futures.add(executor.submit(() -> {
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				long numOrders = 0;
+				long numHottestOrders = 0;
+
+				while (System.nanoTime() < deadline) {
+					int isbn = nextISBN(cdf, random);
+					store.buyBooks(Collections.singleton(new BookCopy(isbn, 1)));
+					numOrders++;
+
+					if (isbn == 1) {
+						numHottestOrders++;
+					}
+				}
+
+				return new long[] { numOrders, numHottestOrders };
+			}));
+		}
+
+		long totalOrders = 0;
+		long totalHottestOrders = 0;
+
+		for (Future<long[]> future : futures) {
+			long[] counts = future.get();
+			totalOrders += counts[0];
+			totalHottestOrders += counts[1];
+		}
+
+		executor.shutdown();
+
+		int numCopiesLeft = store.getBooksByISBN(Collections.singleton(1)).get(0).getNumCopies();
+
+		if (numCopiesLeft != NUM_COPIES - totalHottestOrders) {
+			throw new IllegalStateException("ISBN 1 has " + numCopiesLeft + " copies left, "
+					+ (NUM_COPIES - totalHottestOrders) + " expected");
+		}
+
+		return totalOrders;
+	}
+}
@@ -0,0 +1,382 @@
+package com.acertainbookstore.client.workloads;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.ReplicationTopology;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.client.ReplicationAwareBookStoreHTTPProxy;
+import com.acertainbookstore.client.ReplicationAwareStockManagerHTTPProxy;
+import com.acertainbookstore.server.MasterBookStoreHTTPServer;
+import com.acertainbookstore.server.SlaveBookStoreHTTPServer;
+import com.acertainbookstore.utils.BookStoreConstants;
+
+/**
+ * {@link ReplicationTopologyBenchmark} compares the replication topologies
+ * (cf. {@link ReplicationTopology}) on a local cluster: for each topology, a
+ * master and its slaves are started as separate processes, in a temporary
+ * directory holding their properties, and orders of a single copy of a random
+ * book are sent to the master for the given duration. The orders are only
+ * answered once every slave applied them, so that their latency includes the
+ * hops of the topology.
+ *
+ * The throughput, the latency percentiles of the orders, and the number of
+ * streams the master sends each batch on are reported per topology. After
+ * each run the number of copies read back from the slaves is checked against
+ * the number of copies bought.
+ *
+ * Usage: ReplicationTopologyBenchmark [numSlaves] [numThreads] [millisPerRun]
+ * [fanout] [masterPort]
+ */
+public class ReplicationTopologyBenchmark {
+
+	/** The default number of slaves. */
+	private static final int DEFAULT_NUM_SLAVES = 4;
+
+	/** The default number of buying threads. */
+	private static final int DEFAULT_NUM_THREADS = 8;
+
+	/** The default duration of a run. */
+	private static final long DEFAULT_MILLIS_PER_RUN = 5000;
+
+	/** The default fanout of the tree topology. */
+	private static final int DEFAULT_FANOUT = 2;
+
+	/** The default port of the master, the slaves listening on the next ones. */
+	private static final int DEFAULT_MASTER_PORT = 9081;
+
+	/** The time a server is given to start listening. */
+	private static final long SERVER_START_MILLIS = 30000;
+
+	/** The number of books in the catalog. */
+	private static final int NUM_BOOKS = 100;
+
+	/** The number of copies of each book, large enough to never run out. */
+	private static final int NUM_COPIES = 1000000000;
+
+	/** The topologies compared. */
+	private static final List<String> TOPOLOGIES = Arrays.asList("star", "chain", "tree");
+
+	/**
+	 * Instantiates a new {@link ReplicationTopologyBenchmark}.
+	 */
+	private ReplicationTopologyBenchmark() {
+		// Prevent instantiation.
+	}
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args
+	 *            the arguments
+	 * @throws Exception
+	 *             if a run fails
+	 */
+	public static void main(String[] args) throws Exception {
+		int numSlaves = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_NUM_SLAVES;
+		int numThreads = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_NUM_THREADS;
+		long millisPerRun = args.length > 2 ? Long.parseLong(args[2]) : DEFAULT_MILLIS_PER_RUN;
+		int fanout = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_FANOUT;
+		int masterPort = args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_MASTER_PORT;
+
+		System.out.printf("%d cores, %d slaves, %d threads, %d ms per run, tree fanout %d%n",
+				Runtime.getRuntime().availableProcessors(), numSlaves, numThreads, millisPerRun, fanout);
+		System.out.printf("%10s %16s %12s %12s %12s %12s%n", "topology", "master streams", "ops/s", "mean (ms)",
+				"p50 (ms)", "p99 (ms)");
+
+		for (String topology : TOPOLOGIES) {
+			run(topology, numSlaves, numThreads, millisPerRun, fanout, masterPort);
+		}
+	}
+
+	/**
+	 * Starts a cluster replicating with a topology, runs the buying threads
+	 * against it, prints the results and stops the cluster.
+	 *
+	 * @param topology
+	 *            the topology
+	 * @param numSlaves
+	 *            the number of slaves
+	 * @param numThreads
+	 *            the number of buying threads
+	 * @param millis
+	 *            the duration of the run
+	 * @param fanout
+	 *            the fanout of the tree topology
+	 * @param masterPort
+	 *            the port of the master
+	 * @throws Exception
+	 *             if the run fails
+	 */
+	private static void run(String topology, int numSlaves, int numThreads, long millis, int fanout,
+			int masterPort) throws Exception {
+		File directory = Files.createTempDirectory("bookstore-" + topology).toFile();
+		List<String> slaves = new ArrayList<>();
+
+		for (int slave = 1; slave <= numSlaves; slave++) {
+			slaves.add("localhost:" + (masterPort + slave));
+		}
+
+		String slaveAddresses = String.join(BookStoreConstants.SPLIT_SLAVE_REGEX, slaves);
+		Properties serverProps = new Properties();
+		serverProps.setProperty(BookStoreConstants.KEY_MASTER, "localhost:" + masterPort);
+		serverProps.setProperty(BookStoreConstants.KEY_SLAVE, slaveAddresses);
+		serverProps.setProperty(BookStoreConstants.KEY_REPLICATION_TOPOLOGY, topology);
+		serverProps.setProperty(BookStoreConstants.KEY_REPLICATION_FANOUT, Integer.toString(fanout));
+		store(serverProps, new File(directory, "server.properties"));
+
+		Properties proxyProps = new Properties();
+		proxyProps.setProperty(BookStoreConstants.KEY_MASTER, "localhost:" + masterPort);
+		proxyProps.setProperty(BookStoreConstants.KEY_SLAVE, slaveAddresses);
+		File proxyPropsFile = new File(directory, "proxy.properties");
+		store(proxyProps, proxyPropsFile);
+
+		List<Process> servers = new ArrayList<>();
+		ReplicationAwareStockManagerHTTPProxy stockManager = null;
+		ReplicationAwareBookStoreHTTPProxy bookStore = null;
+
+		try {
+			// The slaves listen before the master opens its streams to them.
+			for (int slave = 1; slave <= numSlaves; slave++) {
+				servers.add(startServer(SlaveBookStoreHTTPServer.class, masterPort + slave, directory));
+			}
+
+			for (int slave = 1; slave <= numSlaves; slave++) {
+				awaitServer(masterPort + slave);
+			}
+
+			servers.add(startServer(MasterBookStoreHTTPServer.class, masterPort, directory));
+			awaitServer(masterPort);
+
+			stockManager = new ReplicationAwareStockManagerHTTPProxy(proxyPropsFile.getPath());
+			bookStore = new ReplicationAwareBookStoreHTTPProxy(proxyPropsFile.getPath());
+			Set<StockBook> books = new HashSet<>();
+
+			for (int isbn = 1; isbn <= NUM_BOOKS; isbn++) {
+				books.add(new ImmutableStockBook(isbn, "Title " + isbn, "Author " + isbn, 10, NUM_COPIES, 0, 0, 0,
+						false));
+			}
+
+			stockManager.addBooks(books);
+
+			// A first run warms up the JIT of the servers.
+			long numWarmUpOrders = buy(bookStore, numThreads, millis / 5).length;
+			long[] latencies = buy(bookStore, numThreads, millis);
+			checkCopies(stockManager, numWarmUpOrders + latencies.length);
+
+			ReplicationTopology replicationTopology = ReplicationTopology.fromProperties(serverProps, slaves);
+			long totalNanos = 0;
+
+			for (long latency : latencies) {
+				totalNanos += latency;
+			}
+
+			Arrays.sort(latencies);
+			System.out.printf("%10s %16d %12d %12.2f %12.2f %12.2f%n", topology,
+					replicationTopology.getChildren(ReplicationTopology.MASTER_INDEX).size(),
+					latencies.length * 1000 / millis, totalNanos / 1e6 / Math.max(1, latencies.length),
+					percentile(latencies, 0.5) / 1e6, percentile(latencies, 0.99) / 1e6);
+		} finally {
+			if (bookStore != null) {
+				bookStore.stop();
+			}
+
+			if (stockManager != null) {
+				stockManager.stop();
+			}
+
+			for (Process server : servers) {
+				server.destroy();
+				server.waitFor();
+			}
+		}
+	}
+
+	/**
+	 * Runs the buying threads for the given duration.
+	 *
+	 * @param bookStore
+	 *            the book store
+	 * @param numThreads
+	 *            the number of threads
+	 * @param millis
+	 *            the duration
+	 * @return the latencies of the orders in nanoseconds
+	 * @throws Exception
+	 *             if an order fails
+	 */
+	private static long[] buy(ReplicationAwareBookStoreHTTPProxy bookStore, int numThreads, long millis)
+			throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, numThreads));
+		List<Future<List<Long>>> futures = new ArrayList<>();
+		long deadline = System.nanoTime() + millis * 1000000;
+
+		for (int i = 0; i < numThreads; i++) {
+			futures.add(executor.submit(() -> {
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				List<Long> latencies = new ArrayList<>();
+
+				while (System.nanoTime() < deadline) {
+					int isbn = 1 + random.nextInt(NUM_BOOKS);
+					long start = System.nanoTime();
+					bookStore.buyBooks(Collections.singleton(new BookCopy(isbn, 1)));
+					latencies.add(System.nanoTime() - start);
+				}
+
+				return latencies;
+			}));
+		}
+
+		List<Long> allLatencies = new ArrayList<>();
+
+		for (Future<List<Long>> future : futures) {
+			allLatencies.addAll(future.get());
+		}
+
+		executor.shutdown();
+
+		long[] latencies = new long[allLatencies.size()];
+
+		for (int i = 0; i < latencies.length; i++) {
+			latencies[i] = allLatencies.get(i);
+		}
+
+		return latencies;
+	}
+
+	/**
+	 * Checks the number of copies left, read from the slaves, against the
+	 * number of copies bought.
+	 *
+	 * @param stockManager
+	 *            the stock manager
+	 * @param numOrders
+	 *            the number of orders of a single copy
+	 * @throws Exception
+	 *             if the books cannot be read
+	 */
+	private static void checkCopies(ReplicationAwareStockManagerHTTPProxy stockManager, long numOrders)
+			throws Exception {
+		long numCopiesLeft = 0;
+
+		for (StockBook book : stockManager.getBooks()) {
+			numCopiesLeft += book.getNumCopies();
+		}
+
+		long numCopiesExpected = (long) NUM_BOOKS * NUM_COPIES - numOrders;
+
+		if (numCopiesLeft != numCopiesExpected) {
+			throw new IllegalStateException(numCopiesLeft + " copies left, " + numCopiesExpected + " expected");
+		}
+	}
+
+	/**
+	 * Gets a percentile of sorted latencies.
+	 *
+	 * @param sortedLatencies
+	 *            the sorted latencies
+	 * @param fraction
+	 *            the fraction of the latencies below the percentile
+	 * @return the percentile, 0 if there is no latency
+	 */
+	private static long percentile(long[] sortedLatencies, double fraction) {
+		if (sortedLatencies.length == 0) {
+			return 0;
+		}
+
+		return sortedLatencies[(int) Math.min(sortedLatencies.length - 1, fraction * sortedLatencies.length)];
+	}
+
+	/**
+	 * Writes properties to a file.
+	 *
+	 * @param props
+	 *            the properties
+	 * @param file
+	 *            the file
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private static void store(Properties props, File file) throws IOException {
+		try (OutputStream out = new FileOutputStream(file)) {
+			props.store(out, null);
+		}
+	}
+
+	/**
+	 * Starts a server in a new process, which reads its properties from the
+	 * given directory and logs to a file there.
+	 *
+	 * @param serverClass
+	 *            the class of the server
+	 * @param port
+	 *            the port the server listens on
+	 * @param directory
+	 *            the working directory of the server
+	 * @return the process
+	 * @throws IOException
+	 *             if the process cannot be started
+	 */
+	private static Process startServer(Class<?> serverClass, int port, File directory) throws IOException {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		List<String> classPath = new ArrayList<>();
+
+		// The servers run in another directory than the benchmark.
+		for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+			if (!entry.isEmpty()) {
+				classPath.add(new File(entry).getAbsolutePath());
+			}
+		}
+
+		ProcessBuilder builder = new ProcessBuilder(java,
+				"-D" + BookStoreConstants.PROPERTY_KEY_SERVER_PORT + "=" + port, "-cp",
+				String.join(File.pathSeparator, classPath), serverClass.getName());
+		builder.directory(directory);
+		builder.redirectErrorStream(true);
+		builder.redirectOutput(new File(directory, "server-" + port + ".log"));
+		return builder.start();
+	}
+
+	/**
+	 * Waits for a server to listen on a port.
+	 *
+	 * @param port
+	 *            the port
+	 * @throws Exception
+	 *             if the server does not listen in time
+	 */
+	private static void awaitServer(int port) throws Exception {
+		long deadline = System.currentTimeMillis() + SERVER_START_MILLIS;
+
+		while (true) {
+			try (Socket socket = new Socket()) {
+				socket.connect(new InetSocketAddress("localhost", port));
+				return;
+			} catch (IOException ex) {
+				if (System.currentTimeMillis() > deadline) {
+					throw new IllegalStateException("No server listening on port " + port, ex);
+				}
+
+				Thread.sleep(100);
+			}
+		}
+	}
+}
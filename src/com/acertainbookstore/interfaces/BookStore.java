@@ -24,6 +24,42 @@ public interface BookStore {
 	 */
 	public void buyBooks(Set<BookCopy> booksToBuy) throws BookStoreException;
 
+	/**
+	 * Reserves the sets of books specified: the copies are held, i.e. no
+	 * longer available to other buyers, until the reservation is committed or
+	 * cancelled, or until its time to live elapses, which cancels it.
+	 *
+	 * @param booksToReserve
+	 *            the books to reserve
+	 * @param ttlMillis
+	 *            the time to live of the reservation in milliseconds
+	 * @return the reservation id
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public long reserveBooks(Set<BookCopy> booksToReserve, long ttlMillis) throws BookStoreException;
+
+	/**
+	 * Commits a pending reservation, i.e. buys the copies it holds.
+	 *
+	 * @param reservationId
+	 *            the reservation id
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public void commitReservation(long reservationId) throws BookStoreException;
+
+	/**
+	 * Cancels a pending reservation, i.e. makes the copies it holds available
+	 * again.
+	 *
+	 * @param reservationId
+	 *            the reservation id
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public void cancelReservation(long reservationId) throws BookStoreException;
+
 	/**
 	 * Applies the BookRatings in the set, i.e. rates each book with their
 	 * respective rating.
@@ -57,6 +93,43 @@ public interface BookStore {
 	 */
 	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException;
 
+	/**
+	 * Searches the books whose title and author contain words starting with
+	 * each word of the query. The books are returned by increasing ISBN, one
+	 * page at a time.
+	 *
+	 * @param query
+	 *            the query
+	 * @param afterISBN
+	 *            the last ISBN of the previous page, or 0 for the first page
+	 * @param numBooks
+	 *            the maximum number of books in the page
+	 * @return the books
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public List<Book> searchBooks(String query, int afterISBN, int numBooks) throws BookStoreException;
+
+	/**
+	 * Gets the books whose price is between minPrice and maxPrice, inclusive.
+	 * The books are returned by increasing price then ISBN, one page at a time.
+	 *
+	 * @param minPrice
+	 *            the minimum price
+	 * @param maxPrice
+	 *            the maximum price
+	 * @param cursor
+	 *            the price cursor of the last book of the previous page (cf.
+	 *            BookStoreUtility#getPriceCursor), or 0 for the first page
+	 * @param numBooks
+	 *            the maximum number of books in the page
+	 * @return the books
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public List<Book> getBooksByPriceRange(float minPrice, float maxPrice, long cursor, int numBooks)
+			throws BookStoreException;
+
 	/**
 	 * Gets the list of books containing numBooks editor picks.
 	 *
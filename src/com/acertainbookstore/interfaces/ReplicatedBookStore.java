@@ -25,6 +25,42 @@ public interface ReplicatedBookStore extends ReplicatedReadOnlyBookStore {
 	 */
 	public BookStoreResult buyBooks(Set<BookCopy> booksToBuy) throws BookStoreException;
 
+	/**
+	 * Reserves the sets of books specified until the reservation is committed,
+	 * cancelled or expired.
+	 *
+	 * @param booksToReserve
+	 *            the books to reserve
+	 * @param ttlMillis
+	 *            the time to live of the reservation in milliseconds
+	 * @return the book store result, holding the reservation id
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public BookStoreResult reserveBooks(Set<BookCopy> booksToReserve, long ttlMillis) throws BookStoreException;
+
+	/**
+	 * Commits a pending reservation.
+	 *
+	 * @param reservationId
+	 *            the reservation id
+	 * @return the book store result
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public BookStoreResult commitReservation(long reservationId) throws BookStoreException;
+
+	/**
+	 * Cancels a pending reservation.
+	 *
+	 * @param reservationId
+	 *            the reservation id
+	 * @return the book store result
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public BookStoreResult cancelReservation(long reservationId) throws BookStoreException;
+
 	/**
 	 * Applies the BookRatings in the set, i.e. rates each book with their
 	 * respective rating.
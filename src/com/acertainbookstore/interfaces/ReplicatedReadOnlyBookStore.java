@@ -45,4 +45,40 @@ public interface ReplicatedReadOnlyBookStore {
 	 *             the book store exception
 	 */
 	public BookStoreResult getEditorPicks(int numBooks) throws BookStoreException;
+
+	/**
+	 * Returns a page of the books whose title and author contain words
+	 * starting with each word of the query, by increasing ISBN.
+	 *
+	 * @param query
+	 *            the query
+	 * @param afterISBN
+	 *            the last ISBN of the previous page, or 0 for the first page
+	 * @param numBooks
+	 *            the maximum number of books in the page
+	 * @return the books
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public BookStoreResult searchBooks(String query, int afterISBN, int numBooks) throws BookStoreException;
+
+	/**
+	 * Returns a page of the books whose price is between minPrice and
+	 * maxPrice, inclusive, by increasing price then ISBN.
+	 *
+	 * @param minPrice
+	 *            the minimum price
+	 * @param maxPrice
+	 *            the maximum price
+	 * @param cursor
+	 *            the price cursor of the last book of the previous page, or 0
+	 *            for the first page
+	 * @param numBooks
+	 *            the maximum number of books in the page
+	 * @return the books
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public BookStoreResult getBooksByPriceRange(float minPrice, float maxPrice, long cursor, int numBooks)
+			throws BookStoreException;
 }
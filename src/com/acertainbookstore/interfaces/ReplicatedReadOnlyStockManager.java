@@ -21,6 +21,20 @@ public interface ReplicatedReadOnlyStockManager {
 	 */
 	public BookStoreResult getBooks() throws BookStoreException;
 
+	/**
+	 * Returns a page of the books in the bookstore, by increasing ISBN, read
+	 * from a single snapshot.
+	 *
+	 * @param afterISBN
+	 *            the last ISBN of the previous page, or 0 for the first page
+	 * @param numBooks
+	 *            the maximum number of books in the page
+	 * @return the books
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public BookStoreResult getBooks(int afterISBN, int numBooks) throws BookStoreException;
+
 	/**
 	 * Returns the books matching the set of ISBNs given, is different to
 	 * getBooks in the BookStore interface because of the return type of the
@@ -1,5 +1,7 @@
 package com.acertainbookstore.interfaces;
 
+import java.util.concurrent.CompletableFuture;
+
 import com.acertainbookstore.business.ReplicationRequest;
 import com.acertainbookstore.business.ReplicationResult;
 import com.acertainbookstore.utils.BookStoreException;
@@ -18,4 +20,23 @@ public interface Replication {
 	 * @throws BookStoreException the book store exception
 	 */
 	ReplicationResult replicate(ReplicationRequest req) throws BookStoreException;
+
+	/**
+	 * Replicates without blocking the caller. The default implementation
+	 * replicates on the calling thread.
+	 *
+	 * @param req the req
+	 * @return the future replication result
+	 */
+	default CompletableFuture<ReplicationResult> replicateAsync(ReplicationRequest req) {
+		CompletableFuture<ReplicationResult> future = new CompletableFuture<>();
+
+		try {
+			future.complete(replicate(req));
+		} catch (BookStoreException | RuntimeException ex) {
+			future.completeExceptionally(ex);
+		}
+
+		return future;
+	}
 }
@@ -23,6 +23,18 @@ public interface Replicator {
 	 */
 	public List<Future<ReplicationResult>> replicate(ReplicationRequest request);
 
+	/**
+	 * Waits for as many slave servers to acknowledge a replicated request as
+	 * the acknowledgement policy requires, then for the slave servers lagging
+	 * too far behind to catch up. The slave servers which failed to apply the
+	 * request are marked as faulty, and if too many failed, the waiting ends
+	 * once all of them answered.
+	 *
+	 * @param replicatedSlaveFutures
+	 *            the futures returned by {@link #replicate(ReplicationRequest)}
+	 */
+	public void awaitAcknowledgements(List<Future<ReplicationResult>> replicatedSlaveFutures);
+
 	/**
 	 * Is invoked to update the configuration of active servers in the
 	 * {@link Replicator} without forcing the replicate method to explicitly
@@ -43,6 +43,20 @@ public interface StockManager {
 	 */
 	public List<StockBook> getBooks() throws BookStoreException;
 
+	/**
+	 * Gets a page of the books in the bookstore, by increasing ISBN. Each page
+	 * is read from a single snapshot of the bookstore.
+	 *
+	 * @param afterISBN
+	 *            the last ISBN of the previous page, or 0 for the first page
+	 * @param numBooks
+	 *            the maximum number of books in the page
+	 * @return the books
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public List<StockBook> getBooks(int afterISBN, int numBooks) throws BookStoreException;
+
 	/**
 	 * Gets the books matching the set of ISBNs given, is different to getBooks
 	 * in the BookStore interface because of the return type of the books.
@@ -14,6 +14,7 @@ import org.eclipse.jetty.server.handler.AbstractHandler;
 
 import com.acertainbookstore.business.BookCopy;
 import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookRating;
 import com.acertainbookstore.business.MasterCertainBookStore;
 import com.acertainbookstore.business.StockBook;
 import com.acertainbookstore.utils.BookStoreKryoSerializer;
@@ -114,6 +115,14 @@ public class MasterBookStoreHTTPMessageHandler extends AbstractHandler {
                     listBooks(response);
                     break;
 
+                case SNAPSHOT:
+                    snapshot(response);
+                    break;
+
+                case LISTBOOKSPAGE:
+                    listBooksPage(request, response);
+                    break;
+
                 case UPDATEEDITORPICKS:
                     updateEditorPicks(request, response);
                     break;
@@ -122,6 +131,22 @@ public class MasterBookStoreHTTPMessageHandler extends AbstractHandler {
                     buyBooks(request, response);
                     break;
 
+                case RESERVEBOOKS:
+                    reserveBooks(request, response);
+                    break;
+
+                case COMMITRESERVATION:
+                    commitReservation(request, response);
+                    break;
+
+                case CANCELRESERVATION:
+                    cancelReservation(request, response);
+                    break;
+
+                case RATEBOOKS:
+                    rateBooks(request, response);
+                    break;
+
                 case GETBOOKS:
                     getBooks(request, response);
                     break;
@@ -130,10 +155,26 @@ public class MasterBookStoreHTTPMessageHandler extends AbstractHandler {
                     getEditorPicks(request, response);
                     break;
 
+                case GETTOPRATEDBOOKS:
+                    getTopRatedBooks(request, response);
+                    break;
+
+                case SEARCHBOOKS:
+                    searchBooks(request, response);
+                    break;
+
+                case GETBOOKSBYPRICERANGE:
+                    getBooksByPriceRange(request, response);
+                    break;
+
                 case GETSTOCKBOOKSBYISBN:
                     getStockBooksByISBN(request, response);
                     break;
 
+                case GETBOOKSINDEMAND:
+                    getBooksInDemand(response);
+                    break;
+
                 case DIE:
                     handleDying(request, response);
                     try {
@@ -214,6 +255,85 @@ public class MasterBookStoreHTTPMessageHandler extends AbstractHandler {
         response.getOutputStream().write(serializedResponseContent);
     }
 
+    /**
+     * Gets the top rated books.
+     *
+     * @param request  the request
+     * @param response the response
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private void getTopRatedBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String numBooksString = URLDecoder.decode(request.getParameter(BookStoreConstants.BOOK_NUM_PARAM), "UTF-8");
+        BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+        try {
+            int numBooks = BookStoreUtility.convertStringToInt(numBooksString);
+            BookStoreResult bookStoreResult = myBookStore.getTopRatedBooks(numBooks);
+            bookStoreResponse.setResult(bookStoreResult);
+        } catch (BookStoreException ex) {
+            bookStoreResponse.setException(ex);
+        }
+
+        byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+        response.getOutputStream().write(serializedResponseContent);
+    }
+
+    /**
+     * Searches the books.
+     *
+     * @param request  the request
+     * @param response the response
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private void searchBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String query = request.getParameter(BookStoreConstants.SEARCH_QUERY_PARAM);
+        String afterISBNString = request.getParameter(BookStoreConstants.AFTER_ISBN_PARAM);
+        String numBooksString = request.getParameter(BookStoreConstants.BOOK_NUM_PARAM);
+        BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+        try {
+            int afterISBN = BookStoreUtility.convertStringToInt(afterISBNString);
+            int numBooks = BookStoreUtility.convertStringToInt(numBooksString);
+            BookStoreResult bookStoreResult = myBookStore.searchBooks(query, afterISBN, numBooks);
+            bookStoreResponse.setResult(bookStoreResult);
+        } catch (BookStoreException ex) {
+            bookStoreResponse.setException(ex);
+        }
+
+        byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+        response.getOutputStream().write(serializedResponseContent);
+    }
+
+    /**
+     * Gets the books in a price range.
+     *
+     * @param request  the request
+     * @param response the response
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private void getBooksByPriceRange(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String minPriceString = request.getParameter(BookStoreConstants.MIN_PRICE_PARAM);
+        String maxPriceString = request.getParameter(BookStoreConstants.MAX_PRICE_PARAM);
+        String cursorString = request.getParameter(BookStoreConstants.CURSOR_PARAM);
+        String numBooksString = request.getParameter(BookStoreConstants.BOOK_NUM_PARAM);
+        BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+        try {
+            // A malformed price is parsed as NaN, which the store rejects.
+            float minPrice = BookStoreUtility.convertStringToFloat(minPriceString, Float.NaN);
+            float maxPrice = BookStoreUtility.convertStringToFloat(maxPriceString, Float.NaN);
+            long cursor = BookStoreUtility.convertStringToLong(cursorString);
+            int numBooks = BookStoreUtility.convertStringToInt(numBooksString);
+            BookStoreResult bookStoreResult = myBookStore.getBooksByPriceRange(minPrice, maxPrice, cursor, numBooks);
+            bookStoreResponse.setResult(bookStoreResult);
+        } catch (BookStoreException ex) {
+            bookStoreResponse.setException(ex);
+        }
+
+        byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+        response.getOutputStream().write(serializedResponseContent);
+    }
+
     /**
      * Gets the books.
      *
@@ -264,6 +384,106 @@ public class MasterBookStoreHTTPMessageHandler extends AbstractHandler {
         response.getOutputStream().write(serializedResponseContent);
     }
 
+    /**
+     * Reserves books.
+     *
+     * @param request  the request
+     * @param response the response
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    @SuppressWarnings("unchecked")
+    private void reserveBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String ttlString = request.getParameter(BookStoreConstants.TTL_PARAM);
+        byte[] serializedRequestContent = getSerializedRequestContent(request);
+
+        Set<BookCopy> bookCopiesToReserve = (Set<BookCopy>) serializer.get().deserialize(serializedRequestContent);
+        BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+        try {
+            long ttlMillis = BookStoreUtility.convertStringToLong(ttlString);
+            BookStoreResult bookStoreResult = myBookStore.reserveBooks(bookCopiesToReserve, ttlMillis);
+            bookStoreResponse.setResult(bookStoreResult);
+        } catch (BookStoreException ex) {
+            bookStoreResponse.setException(ex);
+        }
+
+        byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+        response.getOutputStream().write(serializedResponseContent);
+    }
+
+    /**
+     * Commits a reservation.
+     *
+     * @param request  the request
+     * @param response the response
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private void commitReservation(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        byte[] serializedRequestContent = getSerializedRequestContent(request);
+
+        long reservationId = (Long) serializer.get().deserialize(serializedRequestContent);
+        BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+        try {
+            BookStoreResult bookStoreResult = myBookStore.commitReservation(reservationId);
+            bookStoreResponse.setResult(bookStoreResult);
+        } catch (BookStoreException ex) {
+            bookStoreResponse.setException(ex);
+        }
+
+        byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+        response.getOutputStream().write(serializedResponseContent);
+    }
+
+    /**
+     * Cancels a reservation.
+     *
+     * @param request  the request
+     * @param response the response
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private void cancelReservation(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        byte[] serializedRequestContent = getSerializedRequestContent(request);
+
+        long reservationId = (Long) serializer.get().deserialize(serializedRequestContent);
+        BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+        try {
+            BookStoreResult bookStoreResult = myBookStore.cancelReservation(reservationId);
+            bookStoreResponse.setResult(bookStoreResult);
+        } catch (BookStoreException ex) {
+            bookStoreResponse.setException(ex);
+        }
+
+        byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+        response.getOutputStream().write(serializedResponseContent);
+    }
+
+    /**
+     * Rates books.
+     *
+     * @param request  the request
+     * @param response the response
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    @SuppressWarnings("unchecked")
+    private void rateBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        byte[] serializedRequestContent = getSerializedRequestContent(request);
+
+        Set<BookRating> bookRatings = (Set<BookRating>) serializer.get().deserialize(serializedRequestContent);
+        BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+        try {
+            BookStoreResult bookStoreResult = myBookStore.rateBooks(bookRatings);
+            bookStoreResponse.setResult(bookStoreResult);
+        } catch (BookStoreException ex) {
+            bookStoreResponse.setException(ex);
+        }
+
+        byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+        response.getOutputStream().write(serializedResponseContent);
+    }
+
     /**
      * Updates editor picks.
      *
@@ -290,6 +510,22 @@ public class MasterBookStoreHTTPMessageHandler extends AbstractHandler {
         response.getOutputStream().write(serializedResponseContent);
     }
 
+    /**
+     * Streams a snapshot of the catalog, from which a slave is bootstrapped
+     * (cf. {@link ReplicationSnapshot}). A snapshot which cannot be read is
+     * cut short, and fails to load.
+     *
+     * @param response the response
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private void snapshot(HttpServletResponse response) throws IOException {
+        try {
+            ReplicationSnapshot.write(myBookStore, response.getOutputStream());
+        } catch (BookStoreException ex) {
+            throw new IOException(ex);
+        }
+    }
+
     /**
      * Lists the books.
      *
@@ -310,6 +546,51 @@ public class MasterBookStoreHTTPMessageHandler extends AbstractHandler {
         response.getOutputStream().write(serializedResponseContent);
     }
 
+    /**
+     * Lists a page of the books.
+     *
+     * @param request  the request
+     * @param response the response
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private void listBooksPage(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String afterISBNString = request.getParameter(BookStoreConstants.AFTER_ISBN_PARAM);
+        String numBooksString = request.getParameter(BookStoreConstants.BOOK_NUM_PARAM);
+        BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+        try {
+            int afterISBN = BookStoreUtility.convertStringToInt(afterISBNString);
+            int numBooks = BookStoreUtility.convertStringToInt(numBooksString);
+            BookStoreResult bookStoreResult = myBookStore.getBooks(afterISBN, numBooks);
+            bookStoreResponse.setResult(bookStoreResult);
+        } catch (BookStoreException ex) {
+            bookStoreResponse.setException(ex);
+        }
+
+        byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+        response.getOutputStream().write(serializedResponseContent);
+    }
+
+    /**
+     * Gets the books in demand.
+     *
+     * @param response the response
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private void getBooksInDemand(HttpServletResponse response) throws IOException {
+        BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+        try {
+            BookStoreResult bookStoreResult = myBookStore.getBooksInDemand();
+            bookStoreResponse.setResult(bookStoreResult);
+        } catch (BookStoreException e) {
+            bookStoreResponse.setException(e);
+        }
+
+        byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+        response.getOutputStream().write(serializedResponseContent);
+    }
+
     /**
      * Adds the copies.
      *
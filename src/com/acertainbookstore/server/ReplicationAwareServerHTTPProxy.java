@@ -1,5 +1,7 @@
 package com.acertainbookstore.server;
 
+import java.util.concurrent.CompletableFuture;
+
 import com.acertainbookstore.business.ReplicationRequest;
 import com.acertainbookstore.business.ReplicationResult;
 import com.acertainbookstore.client.BookStoreClientConstants;
@@ -13,7 +15,8 @@ import org.eclipse.jetty.util.thread.QueuedThreadPool;
 /**
  * {@link ReplicationAwareServerHTTPProxy} implements the client side code for
  * replicate RPC, invoked by the master bookstore to propagate updates to
- * slaves, there is one proxy for each destination slave server.
+ * slaves, there is one proxy for each destination slave server. The proxies
+ * of a master share a single {@link HttpClient}.
  */
 public class ReplicationAwareServerHTTPProxy implements Replication {
 
@@ -22,6 +25,9 @@ public class ReplicationAwareServerHTTPProxy implements Replication {
 	/** The client. */
 	protected HttpClient client;
 
+	/** Whether the client was started by the proxy, and is stopped with it. */
+	private final boolean ownsClient;
+
 	protected String destinationServerAddress;
 
 	/**
@@ -31,6 +37,34 @@ public class ReplicationAwareServerHTTPProxy implements Replication {
 	 *            the destination server address
 	 */
 	public ReplicationAwareServerHTTPProxy(String destinationServerAddress) throws Exception {
+		this(destinationServerAddress, newHttpClient(), true);
+	}
+
+	/**
+	 * Instantiates a new replication aware server HTTP proxy sending its
+	 * requests with a client shared with other proxies, which stopping the
+	 * proxy leaves running.
+	 *
+	 * @param destinationServerAddress
+	 *            the destination server address
+	 * @param sharedClient
+	 *            the started client
+	 */
+	public ReplicationAwareServerHTTPProxy(String destinationServerAddress, HttpClient sharedClient) {
+		this(destinationServerAddress, sharedClient, false);
+	}
+
+	/**
+	 * Instantiates a new replication aware server HTTP proxy.
+	 *
+	 * @param destinationServerAddress
+	 *            the destination server address
+	 * @param client
+	 *            the started client
+	 * @param ownsClient
+	 *            true, if the proxy stops the client
+	 */
+	private ReplicationAwareServerHTTPProxy(String destinationServerAddress, HttpClient client, boolean ownsClient) {
 		// Setup the type of serializer.
 		if (BookStoreConstants.BINARY_SERIALIZATION) {
 			serializer = ThreadLocal.withInitial(BookStoreKryoSerializer::new);
@@ -39,7 +73,19 @@ public class ReplicationAwareServerHTTPProxy implements Replication {
 		}
 
 		this.destinationServerAddress = destinationServerAddress;
-		client = new HttpClient();
+		this.client = client;
+		this.ownsClient = ownsClient;
+	}
+
+	/**
+	 * Creates and starts a client for the replicate RPCs.
+	 *
+	 * @return the client
+	 * @throws Exception
+	 *             if the client cannot be started
+	 */
+	public static HttpClient newHttpClient() throws Exception {
+		HttpClient client = new HttpClient();
 
 		// Max concurrent connections to every address.
 		client.setMaxConnectionsPerDestination(BookStoreClientConstants.CLIENT_MAX_CONNECTION_ADDRESS);
@@ -51,6 +97,7 @@ public class ReplicationAwareServerHTTPProxy implements Replication {
 		client.setConnectTimeout(BookStoreClientConstants.CLIENT_MAX_TIMEOUT_MILLISECS);
 
 		client.start();
+		return client;
 	}
 
 	/*
@@ -62,7 +109,7 @@ public class ReplicationAwareServerHTTPProxy implements Replication {
 	@Override
 	public ReplicationResult replicate(ReplicationRequest req) throws BookStoreException {
 		String urlString = destinationServerAddress + "/" + req.getMessageType();
-		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, req.getDataSet());
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, req);
 		BookStoreResponse response;
 		try {
 			response = BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
@@ -75,10 +122,30 @@ public class ReplicationAwareServerHTTPProxy implements Replication {
 			return new ReplicationResult(destinationServerAddress,false);
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.Replication#replicateAsync(com.
+	 * acertainbookstore.business.ReplicationRequest)
+	 */
+	@Override
+	public CompletableFuture<ReplicationResult> replicateAsync(ReplicationRequest req) {
+		String urlString = destinationServerAddress + "/" + req.getMessageType();
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, req);
+
+		// No thread waits for the response, the slave failing or not.
+		return BookStoreUtility.performHttpExchangeAsync(client, bookStoreRequest, serializer::get)
+				.handle((response, ex) -> new ReplicationResult(destinationServerAddress, ex == null));
+	}
+
 	/**
-	 * Stop.
+	 * Stop, the shared client is left running.
 	 */
 	public void stop() {
+		if (!ownsClient) {
+			return;
+		}
+
 		try {
 			client.stop();
 		} catch (Exception ex) {
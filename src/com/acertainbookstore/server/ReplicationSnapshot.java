@@ -0,0 +1,214 @@
+package com.acertainbookstore.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.interfaces.ReplicatedReadOnlyStockManager;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreResult;
+
+/**
+ * {@link ReplicationSnapshot} implements the snapshot of the catalog the
+ * master streams to bootstrap a slave: the id of the snapshot, followed by
+ * pages of books, each an int counting its books followed by the fields of
+ * each book, and by -1 after the last page, the whole being compressed with
+ * gzip.
+ *
+ * The pages are read by increasing ISBN, each in the latest snapshot of the
+ * store when it is read, without locking the catalog, so that the writes go on
+ * during the dump. A page leaves out the books added since its snapshot, and
+ * may be short although more books follow, so the dump ends on an empty page.
+ * The snapshot id is the id of the first page: the books are at least as
+ * recent as the snapshot, and may include changes committed after it. Since
+ * the replicated batches set the state of the books, a slave which loaded the
+ * snapshot and then applies the batches following the snapshot id reaches the
+ * state of the master.
+ *
+ * The books are loaded page by page as they are read, into a new store which
+ * indexes them at once after the last page, and which replaces the store of
+ * the slave once the snapshot is loaded.
+ */
+public final class ReplicationSnapshot {
+
+	/** The number of books read from the store and written at once. */
+	private static final int PAGE_BOOKS = 4096;
+
+	/** The size of the buffers of the compressed streams. */
+	private static final int BUFFER_BYTES = 64 * 1024;
+
+	/** The number of books written after the last page. */
+	private static final int END_OF_SNAPSHOT = -1;
+
+	/**
+	 * Prevents the instantiation of a new {@link ReplicationSnapshot}.
+	 */
+	private ReplicationSnapshot() {
+		// Prevent instances from being created.
+	}
+
+	/**
+	 * Writes a snapshot of the catalog of a store.
+	 *
+	 * @param store
+	 *            the store
+	 * @param out
+	 *            the stream, which is not closed
+	 * @return the number of books written
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 * @throws BookStoreException
+	 *             if the books cannot be read
+	 */
+	@SuppressWarnings("unchecked")
+	public static long write(ReplicatedReadOnlyStockManager store, OutputStream out)
+			throws IOException, BookStoreException {
+		GZIPOutputStream compressedOut = new GZIPOutputStream(out, BUFFER_BYTES);
+		DataOutputStream dataOut = new DataOutputStream(new BufferedOutputStream(compressedOut, BUFFER_BYTES));
+		BookStoreResult page = store.getBooks(0, PAGE_BOOKS);
+		long numBooks = 0;
+
+		dataOut.writeLong(page.getSnapshotId());
+
+		while (!page.getList().isEmpty()) {
+			List<StockBook> books = (List<StockBook>) page.getList();
+			dataOut.writeInt(books.size());
+
+			for (StockBook book : books) {
+				writeBook(dataOut, book);
+			}
+
+			numBooks += books.size();
+			page = store.getBooks(books.get(books.size() - 1).getISBN(), PAGE_BOOKS);
+		}
+
+		dataOut.writeInt(END_OF_SNAPSHOT);
+		dataOut.flush();
+		compressedOut.finish();
+		return numBooks;
+	}
+
+	/**
+	 * Reads a snapshot into a new store, page by page, the books being indexed
+	 * once all the pages are read.
+	 *
+	 * @param in
+	 *            the stream
+	 * @return the store holding the books of the snapshot, whose snapshot id
+	 *         is the id of the snapshot
+	 * @throws IOException
+	 *             if the stream ends before the snapshot, or is invalid
+	 */
+	public static CertainBookStore read(InputStream in) throws IOException {
+		DataInputStream dataIn = new DataInputStream(
+				new BufferedInputStream(new GZIPInputStream(in, BUFFER_BYTES), BUFFER_BYTES));
+		CertainBookStore store = new CertainBookStore();
+		long snapshotId = dataIn.readLong();
+		List<StockBook> books = new ArrayList<>();
+		int numBooks;
+
+		while ((numBooks = dataIn.readInt()) != END_OF_SNAPSHOT) {
+			if (numBooks < 0) {
+				throw new IOException("Invalid snapshot page of " + numBooks + " books");
+			}
+
+			for (int i = 0; i < numBooks; i++) {
+				books.add(readBook(dataIn));
+			}
+
+			store.loadBooks(books, snapshotId);
+			books.clear();
+		}
+
+		store.publishLoadedBooks(snapshotId);
+		return store;
+	}
+
+	/**
+	 * Writes the fields of a book.
+	 *
+	 * @param out
+	 *            the stream
+	 * @param book
+	 *            the book
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private static void writeBook(DataOutputStream out, StockBook book) throws IOException {
+		out.writeInt(book.getISBN());
+		writeString(out, book.getTitle());
+		writeString(out, book.getAuthor());
+		out.writeFloat(book.getPrice());
+		out.writeInt(book.getNumCopies());
+		out.writeInt(book.getNumHeldCopies());
+		out.writeLong(book.getNumSaleMisses());
+		out.writeLong(book.getNumTimesRated());
+		out.writeLong(book.getTotalRating());
+		out.writeBoolean(book.isEditorPick());
+	}
+
+	/**
+	 * Reads the fields of a book.
+	 *
+	 * @param in
+	 *            the stream
+	 * @return the book
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private static StockBook readBook(DataInputStream in) throws IOException {
+		return new ImmutableStockBook(in.readInt(), readString(in), readString(in), in.readFloat(), in.readInt(),
+				in.readInt(), in.readLong(), in.readLong(), in.readLong(), in.readBoolean());
+	}
+
+	/**
+	 * Writes a string as the number of its UTF-8 bytes followed by the bytes,
+	 * since {@link DataOutputStream#writeUTF(String)} is limited to 65535
+	 * bytes while the titles and authors are not.
+	 *
+	 * @param out
+	 *            the stream
+	 * @param string
+	 *            the string
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private static void writeString(DataOutputStream out, String string) throws IOException {
+		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Reads a string written by {@link #writeString(DataOutputStream, String)}.
+	 *
+	 * @param in
+	 *            the stream
+	 * @return the string
+	 * @throws IOException
+	 *             if the stream ends before the string, or is invalid
+	 */
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+
+		if (length < 0) {
+			throw new IOException("Invalid snapshot string of " + length + " bytes");
+		}
+
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
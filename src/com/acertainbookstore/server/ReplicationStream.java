@@ -0,0 +1,391 @@
+package com.acertainbookstore.server;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.client.util.DeferredContentProvider;
+
+import com.acertainbookstore.business.ReplicationRequest;
+import com.acertainbookstore.business.ReplicationResult;
+import com.acertainbookstore.business.ReplicationTopology;
+import com.acertainbookstore.interfaces.BookStoreSerializer;
+import com.acertainbookstore.interfaces.Replication;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreKryoSerializer;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+import com.acertainbookstore.utils.BookStoreXStreamSerializer;
+
+/**
+ * {@link ReplicationStream} implements the client side of the replication
+ * stream to a slave: a single long-lived chunked HTTP request, which carries
+ * the batches of the master in the order of their sequence numbers, while the
+ * response carries the acknowledgements of the slave.
+ *
+ * The batches queued while a frame is written are coalesced into the next
+ * frame, up to a size or time limit. A frame is an int counting its records,
+ * followed by each serialized batch prefixed by its length, an empty frame
+ * being sent when the stream is idle so that the connection stays open. The
+ * slave answers each frame with a long: the sequence number of the latest
+ * batch it applied, which acknowledges all the batches up to it, or a
+ * negative number if it failed to apply a batch, which ends the stream. A
+ * slave which acknowledges nothing for a while, e.g. during a long garbage
+ * collection pause, ends the stream as well.
+ *
+ * A batch sent to several slaves is encoded once, by
+ * {@link #encodeRecord(ReplicationRequest, BookStoreSerializer)}, and the
+ * same read-only buffer is framed by the stream of every slave.
+ */
+public class ReplicationStream implements Replication {
+
+	/** The size of a frame above which no batch is added to it. */
+	private static final int MAX_FRAME_BYTES = 64 * 1024;
+
+	/** The time a frame waits for more batches before it is sent. */
+	private static final long MAX_FRAME_DELAY_MILLIS = 1;
+
+	/** The time after which an idle stream sends an empty frame. */
+	private static final long HEARTBEAT_MILLIS = 5000;
+
+	/** The time the slave has to acknowledge a batch sent to it. */
+	private static final long ACK_TIMEOUT_MILLIS = 10000;
+
+	/** The serializer of the batches not encoded by the caller. */
+	private final ThreadLocal<BookStoreSerializer> serializer;
+
+	/** The destination server address. */
+	private final String destinationServerAddress;
+
+	/** The content of the request, to which the frames are offered. */
+	private final DeferredContentProvider content = new DeferredContentProvider();
+
+	/** The encoded batches waiting to be framed. */
+	private final BlockingQueue<ByteBuffer> pendingRecords = new LinkedBlockingQueue<>();
+
+	/** The results of the batches not acknowledged yet, by sequence number. */
+	private final NavigableMap<Long, CompletableFuture<ReplicationResult>> unackedBatches = new ConcurrentSkipListMap<>();
+
+	/** The bytes of an acknowledgement received in several pieces. */
+	private final ByteBuffer ackBuffer = ByteBuffer.allocate(Long.BYTES);
+
+	/** Whether the stream failed or was stopped. */
+	private boolean closed = false;
+
+	/**
+	 * The time the slave last acknowledged a batch, or was sent a batch while
+	 * it had none to acknowledge.
+	 */
+	private volatile long lastProgressNanos = System.nanoTime();
+
+	/**
+	 * Instantiates a new replication stream, and opens it.
+	 *
+	 * @param destinationServerAddress
+	 *            the destination server address
+	 * @param client
+	 *            the started client
+	 */
+	public ReplicationStream(String destinationServerAddress, HttpClient client) {
+		this(destinationServerAddress, client, null, 0);
+	}
+
+	/**
+	 * Instantiates a new replication stream to a slave of a topology, and
+	 * opens it. The slave is told its place in the topology, so that it relays
+	 * the batches to its children.
+	 *
+	 * @param destinationServerAddress
+	 *            the destination server address
+	 * @param client
+	 *            the started client
+	 * @param topology
+	 *            the replication topology, null if the slave relays nothing
+	 * @param index
+	 *            the index of the slave in the topology
+	 */
+	public ReplicationStream(String destinationServerAddress, HttpClient client, ReplicationTopology topology,
+			int index) {
+		// Setup the type of serializer.
+		if (BookStoreConstants.BINARY_SERIALIZATION) {
+			serializer = ThreadLocal.withInitial(BookStoreKryoSerializer::new);
+		} else {
+			serializer = ThreadLocal.withInitial(BookStoreXStreamSerializer::new);
+		}
+
+		this.destinationServerAddress = destinationServerAddress;
+
+		String urlString = destinationServerAddress + "/" + BookStoreMessageTag.REPLICATESTREAM
+				+ topologyQuery(topology, index);
+
+		client.POST(urlString).content(content)
+				.send(new Response.Listener.Adapter() {
+					@Override
+					public void onContent(Response response, ByteBuffer buffer) {
+						receiveAcknowledgements(buffer);
+					}
+
+					@Override
+					public void onComplete(Result result) {
+						close();
+					}
+				});
+
+		Thread sender = new Thread(this::runSender, "ReplicationStream " + destinationServerAddress);
+		sender.setDaemon(true);
+		sender.start();
+	}
+
+	/**
+	 * Builds the query telling a slave the slaves it relays the batches to,
+	 * sent with the requests opening a stream to the slave or asking for its
+	 * replication status.
+	 *
+	 * @param topology
+	 *            the replication topology, null if the slave relays nothing
+	 * @param index
+	 *            the index of the slave in the topology
+	 * @return the query, empty if the slave has no children
+	 */
+	public static String topologyQuery(ReplicationTopology topology, int index) {
+		if (topology == null || topology.getChildren(index).isEmpty()) {
+			return "";
+		}
+
+		try {
+			return "?" + BookStoreConstants.REPLICATION_SLAVES_PARAM + "="
+					+ URLEncoder.encode(String.join(BookStoreConstants.SPLIT_SLAVE_REGEX, topology.getSlaveServers()),
+							"UTF-8")
+					+ "&" + BookStoreConstants.REPLICATION_FANOUT_PARAM + "=" + topology.getFanout() + "&"
+					+ BookStoreConstants.REPLICATION_INDEX_PARAM + "=" + index;
+		} catch (UnsupportedEncodingException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.Replication#replicate(com.
+	 * acertainbookstore.business.ReplicationRequest)
+	 */
+	@Override
+	public ReplicationResult replicate(ReplicationRequest req) {
+		return replicateAsync(req).join();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.Replication#replicateAsync(com.
+	 * acertainbookstore.business.ReplicationRequest)
+	 */
+	@Override
+	public CompletableFuture<ReplicationResult> replicateAsync(ReplicationRequest req) {
+		try {
+			return replicateAsync(req.getSequenceNumber(), encodeRecord(req, serializer.get()));
+		} catch (BookStoreException ex) {
+			ex.printStackTrace();
+			return CompletableFuture.completedFuture(new ReplicationResult(destinationServerAddress, false));
+		}
+	}
+
+	/**
+	 * Replicates a batch encoded already, without blocking the caller. The
+	 * record is not modified, and may be sent to other slaves concurrently.
+	 *
+	 * @param sequenceNumber
+	 *            the sequence number of the batch
+	 * @param record
+	 *            the batch, encoded by
+	 *            {@link #encodeRecord(ReplicationRequest, BookStoreSerializer)}
+	 * @return the future replication result
+	 */
+	public CompletableFuture<ReplicationResult> replicateAsync(long sequenceNumber, ByteBuffer record) {
+		CompletableFuture<ReplicationResult> future = new CompletableFuture<>();
+
+		synchronized (this) {
+			if (!closed) {
+				if (unackedBatches.isEmpty()) {
+					lastProgressNanos = System.nanoTime();
+				}
+
+				unackedBatches.put(sequenceNumber, future);
+				pendingRecords.add(record.duplicate());
+				return future;
+			}
+		}
+
+		future.complete(new ReplicationResult(destinationServerAddress, false));
+		return future;
+	}
+
+	/**
+	 * Encodes a batch into a record of the stream: the serialized batch
+	 * prefixed by its length.
+	 *
+	 * @param req
+	 *            the batch
+	 * @param serializer
+	 *            the serializer
+	 * @return the read-only record
+	 * @throws BookStoreException
+	 *             if the batch cannot be serialized
+	 */
+	public static ByteBuffer encodeRecord(ReplicationRequest req, BookStoreSerializer serializer)
+			throws BookStoreException {
+		try {
+			return encodeRecord(serializer.serialize(req));
+		} catch (IOException ex) {
+			throw new BookStoreException("Serialization error", ex);
+		}
+	}
+
+	/**
+	 * Encodes a serialized batch into a record of the stream.
+	 *
+	 * @param serializedRequest
+	 *            the serialized batch
+	 * @return the read-only record
+	 */
+	public static ByteBuffer encodeRecord(byte[] serializedRequest) {
+		ByteBuffer record = ByteBuffer.allocate(Integer.BYTES + serializedRequest.length);
+		record.putInt(serializedRequest.length).put(serializedRequest).flip();
+		return record.asReadOnlyBuffer();
+	}
+
+	/**
+	 * Frames the pending records and offers the frames to the request, until
+	 * the stream is closed. The records are offered as they are, after the
+	 * count of records of their frame.
+	 */
+	private void runSender() {
+		List<ByteBuffer> records = new ArrayList<>();
+
+		while (!isClosed()) {
+			try {
+				ByteBuffer record = pendingRecords.poll(HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+				long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_FRAME_DELAY_MILLIS);
+				int frameBytes = 0;
+
+				while (record != null) {
+					records.add(record);
+					frameBytes += record.remaining();
+
+					if (frameBytes >= MAX_FRAME_BYTES) {
+						break;
+					}
+
+					record = pendingRecords.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+				}
+
+				ByteBuffer header = ByteBuffer.allocate(Integer.BYTES);
+				header.putInt(records.size()).flip();
+				content.offer(header);
+
+				for (ByteBuffer frameRecord : records) {
+					content.offer(frameRecord);
+				}
+
+				records.clear();
+
+				if (!unackedBatches.isEmpty() && TimeUnit.NANOSECONDS
+						.toMillis(System.nanoTime() - lastProgressNanos) > ACK_TIMEOUT_MILLIS) {
+					System.err.println("Replication to " + destinationServerAddress + " timed out");
+					close();
+				}
+			} catch (InterruptedException | RuntimeException ex) {
+				ex.printStackTrace();
+				close();
+			}
+		}
+	}
+
+	/**
+	 * Reads the acknowledgements in the content of the response, and completes
+	 * the batches they acknowledge.
+	 *
+	 * @param buffer
+	 *            the content received
+	 */
+	private void receiveAcknowledgements(ByteBuffer buffer) {
+		while (buffer.hasRemaining()) {
+			ackBuffer.put(buffer.get());
+
+			if (ackBuffer.hasRemaining()) {
+				continue;
+			}
+
+			long ackedSequenceNumber = ackBuffer.getLong(0);
+			ackBuffer.clear();
+			lastProgressNanos = System.nanoTime();
+
+			if (ackedSequenceNumber < 0) {
+				close();
+				return;
+			}
+
+			Map<Long, CompletableFuture<ReplicationResult>> ackedBatches = unackedBatches.headMap(ackedSequenceNumber,
+					true);
+
+			for (Long sequenceNumber : ackedBatches.keySet()) {
+				CompletableFuture<ReplicationResult> future = ackedBatches.remove(sequenceNumber);
+
+				if (future != null) {
+					future.complete(new ReplicationResult(destinationServerAddress, true));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks if the stream is closed.
+	 *
+	 * @return true, if the stream failed or was stopped
+	 */
+	private synchronized boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Closes the stream, failing the batches not acknowledged yet.
+	 */
+	private void close() {
+		synchronized (this) {
+			closed = true;
+		}
+
+		content.close();
+		pendingRecords.clear();
+
+		// The futures are completed without holding the lock, since their
+		// completion is handled by the replicator.
+		while (!unackedBatches.isEmpty()) {
+			Map.Entry<Long, CompletableFuture<ReplicationResult>> entry = unackedBatches.pollFirstEntry();
+
+			if (entry != null) {
+				entry.getValue().complete(new ReplicationResult(destinationServerAddress, false));
+			}
+		}
+	}
+
+	/**
+	 * Stops the stream, the slave applying the batches it received already.
+	 */
+	public void stop() {
+		close();
+	}
+}
@@ -1,20 +1,42 @@
 package com.acertainbookstore.server;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.client.util.InputStreamResponseListener;
+import org.eclipse.jetty.http.HttpStatus;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.handler.AbstractHandler;
 
+import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.business.CertainBookStoreReplicator;
+import com.acertainbookstore.business.ReplicationAckPolicy;
 import com.acertainbookstore.business.ReplicationRequest;
 import com.acertainbookstore.business.ReplicationResult;
+import com.acertainbookstore.business.ReplicationTopology;
 import com.acertainbookstore.business.SlaveCertainBookStore;
 import com.acertainbookstore.interfaces.BookStoreSerializer;
 import com.acertainbookstore.utils.BookStoreConstants;
@@ -36,6 +58,21 @@ import com.esotericsoftware.kryo.io.Input;
  */
 public class SlaveBookStoreHTTPMessageHandler extends AbstractHandler {
 
+	/** The time the master has to start streaming a snapshot. */
+	private static final long SNAPSHOT_TIMEOUT_MILLIS = 30000;
+
+	/**
+	 * The time the children have to answer for their replication status,
+	 * shorter than the time the master waits for the heartbeat.
+	 */
+	private static final long STATUS_TIMEOUT_MILLIS = 500;
+
+	/**
+	 * The time the children have to load a snapshot, shorter than the time the
+	 * master waits for the slave to load it.
+	 */
+	private static final long BOOTSTRAP_TIMEOUT_MILLIS = 300000;
+
 	/** The book store. */
 	private SlaveCertainBookStore myBookStore = null;
 
@@ -88,37 +125,31 @@ public class SlaveBookStoreHTTPMessageHandler extends AbstractHandler {
 			System.err.println("No message tag.");
 		} else {
 			switch (messageTag) {
-			case ADDBOOKS:
+			// The tag for a batch of changes committed by the master.
+			case REPLICATEBATCH:
 				replicateHandler(request, response, messageTag);
 				break;
 
-			/** The tag for the add copies message. */
-			case ADDCOPIES:
-				replicateHandler(request,response, messageTag);
+			case REPLICATESTREAM:
+				replicateStream(request, response);
 				break;
 
-			/** The tag for the buy books message. */
-			case BUYBOOKS:
-				replicateHandler(request, response, messageTag);
+			case REPLICATIONSTATUS:
+				replicationStatus(request, response);
 				break;
 
-			/** The tag for the update editor picks message. */
-			case UPDATEEDITORPICKS:
-				replicateHandler(request,response, messageTag);
-				break;
-			/** The tag for the remove all books message. */
-			case REMOVEALLBOOKS:
-				replicateHandler(request,response, messageTag);
-				break;
-			/** The tag for the remove books message. */
-			case REMOVEBOOKS:
-				replicateHandler(request,response, messageTag);
+			case REPLICATIONBOOTSTRAP:
+				bootstrap(request, response);
 				break;
-				
+
 			case LISTBOOKS:
 				listBooks(response);
 				break;
 
+			case LISTBOOKSPAGE:
+				listBooksPage(request, response);
+				break;
+
 			case GETBOOKS:
 				getBooks(request, response);
 				break;
@@ -127,10 +158,26 @@ public class SlaveBookStoreHTTPMessageHandler extends AbstractHandler {
 				getEditorPicks(request, response);
 				break;
 
+			case GETTOPRATEDBOOKS:
+				getTopRatedBooks(request, response);
+				break;
+
+			case SEARCHBOOKS:
+				searchBooks(request, response);
+				break;
+
+			case GETBOOKSBYPRICERANGE:
+				getBooksByPriceRange(request, response);
+				break;
+
 			case GETSTOCKBOOKSBYISBN:
 				getStockBooksByISBN(request, response);
 				break;
 
+			case GETBOOKSINDEMAND:
+				getBooksInDemand(response);
+				break;
+
 			case DIE:
 				handleDying(request, response);
 				System.out.println("Goodbye cruel world");
@@ -160,9 +207,7 @@ public class SlaveBookStoreHTTPMessageHandler extends AbstractHandler {
 
 	private void replicateHandler(HttpServletRequest request, HttpServletResponse response, BookStoreMessageTag messageTag) throws IOException {
 		byte[] serializedRequestContent = getSerializedRequestContent(request);
-		Set<?> dataSet = (Set<?>) serializer.get().deserialize(serializedRequestContent);
-		
-		ReplicationRequest req = new ReplicationRequest(dataSet, messageTag);
+		ReplicationRequest req = (ReplicationRequest) serializer.get().deserialize(serializedRequestContent);
 		BookStoreResponse bookStoreResult = new BookStoreResponse();
 		try {
 			ReplicationResult res = myBookStore.replicate(req);
@@ -180,7 +225,274 @@ public class SlaveBookStoreHTTPMessageHandler extends AbstractHandler {
 		response.getOutputStream().write(serializedResponseContent);
 	}
 
-	
+
+	/**
+	 * Applies the batches of the replication stream of the master, or of the
+	 * slave relaying them, frame by frame until the stream is closed. The
+	 * batches are relayed as they were received to the children of the slave
+	 * in the replication topology, if the stream gives it a place there. Each
+	 * frame is answered with the sequence number of its last batch once the
+	 * batch is applied and acknowledged by the children, which acknowledges
+	 * every batch up to it, or with -1 if a batch could not be applied, which
+	 * ends the stream. See {@link ReplicationStream} for the format of the
+	 * frames.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void replicateStream(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		DataInputStream in = new DataInputStream(request.getInputStream());
+		DataOutputStream out = new DataOutputStream(response.getOutputStream());
+		StreamAcknowledger acknowledger = new StreamAcknowledger(out);
+		CertainBookStoreReplicator relay = newRelay(request);
+		int numChildren = relay == null ? 0 : relay.getNumSlaves();
+
+		// The upstream server reads the acknowledgements while it sends the
+		// frames.
+		response.flushBuffer();
+
+		try {
+			while (!acknowledger.isFailed()) {
+				int numRecords;
+
+				try {
+					numRecords = in.readInt();
+				} catch (EOFException ex) {
+					break;
+				}
+
+				if (numRecords == 0) {
+					acknowledger.acknowledgeAgain();
+					continue;
+				}
+
+				long sequenceNumber = 0;
+				List<Future<ReplicationResult>> relayedFutures = new ArrayList<>();
+
+				for (int record = 0; record < numRecords && !acknowledger.isFailed(); record++) {
+					byte[] serializedRecord = new byte[in.readInt()];
+					in.readFully(serializedRecord);
+					ReplicationRequest req = (ReplicationRequest) serializer.get().deserialize(serializedRecord);
+
+					// The children apply the batch while the slave does.
+					if (relay != null) {
+						relayedFutures.addAll(relay.replicate(req, ReplicationStream.encodeRecord(serializedRecord)));
+					}
+
+					try {
+						if (!myBookStore.replicate(req).isReplicationSuccessful()) {
+							acknowledger.fail();
+						}
+					} catch (BookStoreException ex) {
+						ex.printStackTrace();
+						acknowledger.fail();
+					}
+
+					sequenceNumber = req.getSequenceNumber();
+				}
+
+				// The children acknowledge the batches in order. A child failing
+				// any batch of the frame is dropped by the relay, which does not
+				// retain the batches to catch it up: the stream fails, so that
+				// the subtree is marked faulty upstream and caught up by the
+				// master.
+				long ackedSequenceNumber = sequenceNumber;
+				CompletableFuture.allOf(relayedFutures.toArray(new CompletableFuture<?>[relayedFutures.size()]))
+						.thenRun(() -> {
+							if (isReplicationSuccessful(relayedFutures)
+									&& (relay == null || relay.getNumSlaves() == numChildren)) {
+								acknowledger.acknowledge(ackedSequenceNumber);
+							} else {
+								acknowledger.fail();
+							}
+						});
+			}
+		} finally {
+			if (relay != null) {
+				relay.stop();
+			}
+		}
+	}
+
+	/**
+	 * Checks if the children applied a relayed batch.
+	 *
+	 * @param relayedFutures
+	 *            the futures of the results of the children, all done
+	 * @return true, if every child applied the batch
+	 */
+	private static boolean isReplicationSuccessful(List<Future<ReplicationResult>> relayedFutures) {
+		for (Future<ReplicationResult> relayedFuture : relayedFutures) {
+			try {
+				if (!relayedFuture.get().isReplicationSuccessful()) {
+					return false;
+				}
+			} catch (InterruptedException | ExecutionException ex) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Creates the replicator relaying the batches of a replication stream to
+	 * the children of the slave.
+	 *
+	 * @param request
+	 *            the request opening the stream
+	 * @return the replicator, null if the slave has no children
+	 * @throws IOException
+	 *             if the replicator cannot be created
+	 */
+	private CertainBookStoreReplicator newRelay(HttpServletRequest request) throws IOException {
+		try {
+			ReplicationTopology topology = getRelayTopology(request);
+
+			if (topology == null) {
+				return null;
+			}
+
+			return new CertainBookStoreReplicator(topology, getRelayIndex(request),
+					new ReplicationAckPolicy("all", Long.MAX_VALUE, Long.MAX_VALUE));
+		} catch (Exception ex) {
+			throw new IOException(ex);
+		}
+	}
+
+	/**
+	 * Reads the topology of the slaves the slave relays the batches to.
+	 *
+	 * @param request
+	 *            the request opening the stream or asking for the replication
+	 *            status
+	 * @return the topology, null if the slave has no children
+	 * @throws BookStoreException
+	 *             if the topology is invalid
+	 */
+	private ReplicationTopology getRelayTopology(HttpServletRequest request) throws BookStoreException {
+		String slaves = request.getParameter(BookStoreConstants.REPLICATION_SLAVES_PARAM);
+
+		if (slaves == null) {
+			return null;
+		}
+
+		int fanout = BookStoreUtility
+				.convertStringToInt(request.getParameter(BookStoreConstants.REPLICATION_FANOUT_PARAM));
+		return new ReplicationTopology(Arrays.asList(slaves.split(BookStoreConstants.SPLIT_SLAVE_REGEX)), fanout);
+	}
+
+	/**
+	 * Reads the index of the slave in the topology of the slaves it relays the
+	 * batches to.
+	 *
+	 * @param request
+	 *            the request opening the stream or asking for the replication
+	 *            status
+	 * @return the index
+	 * @throws BookStoreException
+	 *             if the index is invalid
+	 */
+	private int getRelayIndex(HttpServletRequest request) throws BookStoreException {
+		int index = BookStoreUtility
+				.convertStringToInt(request.getParameter(BookStoreConstants.REPLICATION_INDEX_PARAM));
+
+		// A slave never relays to the children of the master.
+		if (index < 0) {
+			throw new BookStoreException(BookStoreConstants.REPLICATION_INDEX_PARAM + " " + index
+					+ BookStoreConstants.INVALID);
+		}
+
+		return index;
+	}
+
+	/**
+	 * {@link StreamAcknowledger} writes the acknowledgements of a replication
+	 * stream, which are sent by the threads of the relay as well as by the
+	 * thread reading the stream.
+	 */
+	private static class StreamAcknowledger {
+
+		/** The content of the response. */
+		private final DataOutputStream out;
+
+		/** The sequence number of the latest batch acknowledged. */
+		private long ackedSequenceNumber = 0;
+
+		/** Whether a batch could not be applied. */
+		private boolean failed = false;
+
+		/**
+		 * Instantiates a new {@link StreamAcknowledger}.
+		 *
+		 * @param out
+		 *            the content of the response
+		 */
+		StreamAcknowledger(DataOutputStream out) {
+			this.out = out;
+		}
+
+		/**
+		 * Acknowledges the batches up to a sequence number.
+		 *
+		 * @param sequenceNumber
+		 *            the sequence number
+		 */
+		synchronized void acknowledge(long sequenceNumber) {
+			if (!failed) {
+				ackedSequenceNumber = Math.max(ackedSequenceNumber, sequenceNumber);
+				write(ackedSequenceNumber);
+			}
+		}
+
+		/**
+		 * Acknowledges the batches acknowledged already, answering an empty
+		 * frame.
+		 */
+		synchronized void acknowledgeAgain() {
+			acknowledge(ackedSequenceNumber);
+		}
+
+		/**
+		 * Answers that a batch could not be applied, which ends the stream.
+		 */
+		synchronized void fail() {
+			if (!failed) {
+				failed = true;
+				write(-1);
+			}
+		}
+
+		/**
+		 * Checks if a batch could not be applied.
+		 *
+		 * @return true, if the stream failed
+		 */
+		synchronized boolean isFailed() {
+			return failed;
+		}
+
+		/**
+		 * Writes an acknowledgement.
+		 *
+		 * @param sequenceNumber
+		 *            the sequence number, -1 if the stream failed
+		 */
+		private void write(long sequenceNumber) {
+			try {
+				out.writeLong(sequenceNumber);
+				out.flush();
+			} catch (IOException ex) {
+
+				// The upstream server closed the stream.
+				failed = true;
+			}
+		}
+	}
 
 	/**
 	 * Gets the stock books by ISBN.
@@ -238,6 +550,94 @@ public class SlaveBookStoreHTTPMessageHandler extends AbstractHandler {
 		response.getOutputStream().write(serializedResponseContent);
 	}
 
+	/**
+	 * Gets the top rated books.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void getTopRatedBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		String numBooksString = URLDecoder.decode(request.getParameter(BookStoreConstants.BOOK_NUM_PARAM), "UTF-8");
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			int numBooks = BookStoreUtility.convertStringToInt(numBooksString);
+			BookStoreResult bookStoreResult = myBookStore.getTopRatedBooks(numBooks);
+			bookStoreResponse.setResult(bookStoreResult);
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+		response.getOutputStream().write(serializedResponseContent);
+	}
+
+	/**
+	 * Searches the books.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void searchBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		String query = request.getParameter(BookStoreConstants.SEARCH_QUERY_PARAM);
+		String afterISBNString = request.getParameter(BookStoreConstants.AFTER_ISBN_PARAM);
+		String numBooksString = request.getParameter(BookStoreConstants.BOOK_NUM_PARAM);
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			int afterISBN = BookStoreUtility.convertStringToInt(afterISBNString);
+			int numBooks = BookStoreUtility.convertStringToInt(numBooksString);
+			BookStoreResult bookStoreResult = myBookStore.searchBooks(query, afterISBN, numBooks);
+			bookStoreResponse.setResult(bookStoreResult);
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+		response.getOutputStream().write(serializedResponseContent);
+	}
+
+	/**
+	 * Gets the books in a price range.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void getBooksByPriceRange(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		String minPriceString = request.getParameter(BookStoreConstants.MIN_PRICE_PARAM);
+		String maxPriceString = request.getParameter(BookStoreConstants.MAX_PRICE_PARAM);
+		String cursorString = request.getParameter(BookStoreConstants.CURSOR_PARAM);
+		String numBooksString = request.getParameter(BookStoreConstants.BOOK_NUM_PARAM);
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			// A malformed price is parsed as NaN, which the store rejects.
+			float minPrice = BookStoreUtility.convertStringToFloat(minPriceString, Float.NaN);
+			float maxPrice = BookStoreUtility.convertStringToFloat(maxPriceString, Float.NaN);
+			long cursor = BookStoreUtility.convertStringToLong(cursorString);
+			int numBooks = BookStoreUtility.convertStringToInt(numBooksString);
+			BookStoreResult bookStoreResult = myBookStore.getBooksByPriceRange(minPrice, maxPrice, cursor, numBooks);
+			bookStoreResponse.setResult(bookStoreResult);
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+		response.getOutputStream().write(serializedResponseContent);
+	}
+
 	/**
 	 * Gets the books.
 	 *
@@ -267,6 +667,255 @@ public class SlaveBookStoreHTTPMessageHandler extends AbstractHandler {
 		response.getOutputStream().write(serializedResponseContent);
 	}
 
+	/**
+	 * Answers the heartbeat of the master with the sequence number of the
+	 * latest batch applied, as the snapshot id of an empty result. A slave
+	 * relaying the batches answers for its whole subtree, with the latest
+	 * batch all of it applied, and fails the heartbeat unless all of it
+	 * answers.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void replicationStatus(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			bookStoreResponse.setResult(new BookStoreResult(new LinkedList<>(), getSubtreeSequenceNumber(request)));
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+		response.getOutputStream().write(serializedResponseContent);
+	}
+
+	/**
+	 * Gets the sequence number of the latest batch applied by the slave and by
+	 * all the slaves it relays the batches to, asking its children for theirs.
+	 *
+	 * @param request
+	 *            the request asking for the replication status
+	 * @return the sequence number
+	 * @throws BookStoreException
+	 *             if a child does not answer
+	 */
+	private long getSubtreeSequenceNumber(HttpServletRequest request) throws BookStoreException {
+		ReplicationTopology topology = getRelayTopology(request);
+
+		if (topology == null) {
+			return myBookStore.getAppliedSequenceNumber();
+		}
+
+		HttpClient client = newRelayClient();
+
+		try {
+			List<CompletableFuture<BookStoreResponse>> childFutures = sendToChildren(client, topology,
+					getRelayIndex(request), BookStoreMessageTag.REPLICATIONSTATUS, "");
+			long appliedSequenceNumber = myBookStore.getAppliedSequenceNumber();
+			return Math.min(appliedSequenceNumber, awaitChildren(childFutures, STATUS_TIMEOUT_MILLIS));
+		} finally {
+			stopRelayClient(client);
+		}
+	}
+
+	/**
+	 * Sends a request to the children of the slave, which forward it to their
+	 * own children along with the topology.
+	 *
+	 * @param client
+	 *            the client
+	 * @param topology
+	 *            the topology of the slaves the slave relays the batches to
+	 * @param index
+	 *            the index of the slave in the topology
+	 * @param messageTag
+	 *            the message tag of the request
+	 * @param parameters
+	 *            the other parameters of the request, empty if none
+	 * @return the futures of the responses of the children
+	 */
+	private List<CompletableFuture<BookStoreResponse>> sendToChildren(HttpClient client, ReplicationTopology topology,
+			int index, BookStoreMessageTag messageTag, String parameters) {
+		List<CompletableFuture<BookStoreResponse>> childFutures = new ArrayList<>();
+
+		for (int child : topology.getChildren(index)) {
+			String query = ReplicationStream.topologyQuery(topology, child);
+
+			if (!parameters.isEmpty()) {
+				query += (query.isEmpty() ? "?" : "&") + parameters;
+			}
+
+			childFutures.add(BookStoreUtility.performHttpExchangeAsync(client, BookStoreRequest
+					.newGetRequest(topology.getSlaveServers().get(child) + "/" + messageTag + query), serializer::get));
+		}
+
+		return childFutures;
+	}
+
+	/**
+	 * Waits for the responses of the children to a request, each answering a
+	 * sequence number as the snapshot id of an empty result.
+	 *
+	 * @param childFutures
+	 *            the futures of the responses of the children
+	 * @param timeoutMillis
+	 *            the time the children have to answer
+	 * @return the lowest sequence number answered, Long.MAX_VALUE if the
+	 *         slave has no children
+	 * @throws BookStoreException
+	 *             if a child does not answer or fails the request
+	 */
+	private static long awaitChildren(List<CompletableFuture<BookStoreResponse>> childFutures, long timeoutMillis)
+			throws BookStoreException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		long sequenceNumber = Long.MAX_VALUE;
+
+		for (CompletableFuture<BookStoreResponse> childFuture : childFutures) {
+			BookStoreResponse childResponse;
+
+			try {
+				childResponse = childFuture.get(Math.max(0, deadline - System.currentTimeMillis()),
+						TimeUnit.MILLISECONDS);
+			} catch (InterruptedException | ExecutionException | TimeoutException ex) {
+				throw new BookStoreException("A child of the slave did not answer", ex);
+			}
+
+			if (childResponse.getException() != null) {
+				throw childResponse.getException();
+			}
+
+			sequenceNumber = Math.min(sequenceNumber, childResponse.getResult().getSnapshotId());
+		}
+
+		return sequenceNumber;
+	}
+
+	/**
+	 * Creates a client for the requests forwarded to the children.
+	 *
+	 * @return the started client
+	 * @throws BookStoreException
+	 *             if the client cannot be started
+	 */
+	private static HttpClient newRelayClient() throws BookStoreException {
+		try {
+			return ReplicationAwareServerHTTPProxy.newHttpClient();
+		} catch (Exception ex) {
+			throw new BookStoreException(ex);
+		}
+	}
+
+	/**
+	 * Stops a client created by {@link #newRelayClient()}.
+	 *
+	 * @param client
+	 *            the client
+	 */
+	private static void stopRelayClient(HttpClient client) {
+		try {
+			client.stop();
+		} catch (Exception ex) {
+			ex.printStackTrace();
+		}
+	}
+
+	/**
+	 * Replaces the state of the slave with a snapshot of the master, at the
+	 * request of the master, which then sends the slave the batches following
+	 * the snapshot. The snapshot is loaded as it is received, and the request
+	 * is answered with its id once it is loaded. A slave relaying the batches
+	 * has all its subtree load a snapshot meanwhile, and answers with the
+	 * oldest snapshot id of its subtree.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void bootstrap(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		String masterServer = request.getParameter(BookStoreConstants.REPLICATION_MASTER_PARAM);
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+		HttpClient client = null;
+
+		try {
+			ReplicationTopology topology = getRelayTopology(request);
+			List<CompletableFuture<BookStoreResponse>> childFutures = Collections.emptyList();
+
+			// A missing master address fails the snapshot of the slave.
+			if (topology != null && !BookStoreUtility.isEmpty(masterServer)) {
+				client = newRelayClient();
+				childFutures = sendToChildren(client, topology, getRelayIndex(request),
+						BookStoreMessageTag.REPLICATIONBOOTSTRAP, BookStoreConstants.REPLICATION_MASTER_PARAM + "="
+								+ URLEncoder.encode(masterServer, "UTF-8"));
+			}
+
+			long snapshotId = myBookStore.installSnapshot(loadSnapshot(masterServer));
+			snapshotId = Math.min(snapshotId, awaitChildren(childFutures, BOOTSTRAP_TIMEOUT_MILLIS));
+			bookStoreResponse.setResult(new BookStoreResult(new LinkedList<>(), snapshotId));
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		} finally {
+			if (client != null) {
+				stopRelayClient(client);
+			}
+		}
+
+		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+		response.getOutputStream().write(serializedResponseContent);
+	}
+
+	/**
+	 * Loads the snapshot streamed by the master into a new store.
+	 *
+	 * @param masterServer
+	 *            the master server address
+	 * @return the store
+	 * @throws BookStoreException
+	 *             if the snapshot cannot be loaded
+	 */
+	private CertainBookStore loadSnapshot(String masterServer) throws BookStoreException {
+		if (BookStoreUtility.isEmpty(masterServer)) {
+			throw new BookStoreException(BookStoreConstants.REPLICATION_MASTER_PARAM + BookStoreConstants.INVALID);
+		}
+
+		HttpClient client = null;
+
+		try {
+			client = ReplicationAwareServerHTTPProxy.newHttpClient();
+			InputStreamResponseListener listener = new InputStreamResponseListener();
+			client.newRequest(masterServer + "/" + BookStoreMessageTag.SNAPSHOT).send(listener);
+			Response snapshotResponse = listener.get(SNAPSHOT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+
+			if (snapshotResponse.getStatus() != HttpStatus.OK_200) {
+				throw new BookStoreException("Snapshot of " + masterServer + " unavailable: "
+						+ snapshotResponse.getStatus());
+			}
+
+			try (InputStream in = listener.getInputStream()) {
+				return ReplicationSnapshot.read(in);
+			}
+		} catch (BookStoreException ex) {
+			throw ex;
+		} catch (Exception ex) {
+			throw new BookStoreException("Snapshot of " + masterServer + " not loaded", ex);
+		} finally {
+			if (client != null) {
+				try {
+					client.stop();
+				} catch (Exception ex) {
+					ex.printStackTrace();
+				}
+			}
+		}
+	}
+
 	/**
 	 * Lists the books.
 	 *
@@ -289,6 +938,56 @@ public class SlaveBookStoreHTTPMessageHandler extends AbstractHandler {
 		response.getOutputStream().write(serializedResponseContent);
 	}
 
+	/**
+	 * Lists a page of the books.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void listBooksPage(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		String afterISBNString = request.getParameter(BookStoreConstants.AFTER_ISBN_PARAM);
+		String numBooksString = request.getParameter(BookStoreConstants.BOOK_NUM_PARAM);
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			int afterISBN = BookStoreUtility.convertStringToInt(afterISBNString);
+			int numBooks = BookStoreUtility.convertStringToInt(numBooksString);
+			BookStoreResult bookStoreResult = myBookStore.getBooks(afterISBN, numBooks);
+			bookStoreResponse.setResult(bookStoreResult);
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+		response.getOutputStream().write(serializedResponseContent);
+	}
+
+	/**
+	 * Gets the books in demand.
+	 *
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void getBooksInDemand(HttpServletResponse response) throws IOException {
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			BookStoreResult bookStoreResult = myBookStore.getBooksInDemand();
+			bookStoreResponse.setResult(bookStoreResult);
+		} catch (BookStoreException e) {
+			bookStoreResponse.setException(e);
+		}
+
+		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+		response.getOutputStream().write(serializedResponseContent);
+	}
+
 	/**
 	 * Gets the serialized request content.
 	 *
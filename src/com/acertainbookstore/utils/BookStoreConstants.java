@@ -22,6 +22,36 @@ public final class BookStoreConstants {
 	/** The Constant XMLSTRINGLEN_PARAM. */
 	public static final String XMLSTRINGLEN_PARAM = "len";
 
+	/** The Constant SEARCH_QUERY_PARAM. */
+	public static final String SEARCH_QUERY_PARAM = "query";
+
+	/** The Constant AFTER_ISBN_PARAM. */
+	public static final String AFTER_ISBN_PARAM = "after_isbn";
+
+	/** The Constant MIN_PRICE_PARAM. */
+	public static final String MIN_PRICE_PARAM = "min_price";
+
+	/** The Constant MAX_PRICE_PARAM. */
+	public static final String MAX_PRICE_PARAM = "max_price";
+
+	/** The Constant CURSOR_PARAM. */
+	public static final String CURSOR_PARAM = "cursor";
+
+	/** The Constant TTL_PARAM. */
+	public static final String TTL_PARAM = "ttl_millis";
+
+	/** The Constant REPLICATION_SLAVES_PARAM. */
+	public static final String REPLICATION_SLAVES_PARAM = "slaves";
+
+	/** The Constant REPLICATION_FANOUT_PARAM. */
+	public static final String REPLICATION_FANOUT_PARAM = "fanout";
+
+	/** The Constant REPLICATION_INDEX_PARAM. */
+	public static final String REPLICATION_INDEX_PARAM = "index";
+
+	/** The Constant REPLICATION_MASTER_PARAM. */
+	public static final String REPLICATION_MASTER_PARAM = "master";
+
 	/**
 	 * The Constant INVALID_PARAMS used as error code when converting numbers to
 	 * integer.
@@ -51,6 +81,18 @@ public final class BookStoreConstants {
 	/** The Constant RATING. */
 	public static final String RATING = "The rating: ";
 
+	/** The Constant PRICE. */
+	public static final String PRICE = "The price: ";
+
+	/** The Constant NUM_BOOKS. */
+	public static final String NUM_BOOKS = "The number of books: ";
+
+	/** The Constant RESERVATION. */
+	public static final String RESERVATION = "The reservation: ";
+
+	/** The Constant TTL. */
+	public static final String TTL = "The time to live: ";
+
 	/** The Constant NULL_INPUT. */
 	public static final String NULL_INPUT = "null input parameters";
 
@@ -63,6 +105,33 @@ public final class BookStoreConstants {
 	/** The Constant SPLIT_SLAVE_REGEX. */
 	public static final String SPLIT_SLAVE_REGEX = ";";
 
+	/**
+	 * The Constant KEY_REPLICATION_ACKS: all, majority, async or the number of
+	 * slave acknowledgements a write waits for.
+	 */
+	public static final String KEY_REPLICATION_ACKS = "replication_acks";
+
+	/** The Constant KEY_REPLICATION_MAX_LAG_OPS. */
+	public static final String KEY_REPLICATION_MAX_LAG_OPS = "replication_max_lag_ops";
+
+	/** The Constant KEY_REPLICATION_MAX_LAG_MILLIS. */
+	public static final String KEY_REPLICATION_MAX_LAG_MILLIS = "replication_max_lag_millis";
+
+	/** The Constant KEY_REPLICATION_TOPOLOGY: star, chain or tree. */
+	public static final String KEY_REPLICATION_TOPOLOGY = "replication_topology";
+
+	/** The Constant KEY_REPLICATION_FANOUT of the tree topology. */
+	public static final String KEY_REPLICATION_FANOUT = "replication_fanout";
+
+	/**
+	 * The Constant KEY_HOT_BOOKS: the ISBNs of the books whose copies the
+	 * master splits over per-core shards, separated by SPLIT_HOT_BOOKS_REGEX.
+	 */
+	public static final String KEY_HOT_BOOKS = "hot_books";
+
+	/** The Constant SPLIT_HOT_BOOKS_REGEX. */
+	public static final String SPLIT_HOT_BOOKS_REGEX = ";";
+
 	/** The Constant PROPERTY_KEY_LOCAL_TEST. */
 	public static final String PROPERTY_KEY_LOCAL_TEST = "localtest";
 
@@ -36,6 +36,48 @@ public enum BookStoreMessageTag {
 	/** The tag for the get stock books by ISBN message. */
 	GETSTOCKBOOKSBYISBN,
 
+	/** The tag for the rate books message. */
+	RATEBOOKS,
+
+	/** The tag for the top rated books message. */
+	GETTOPRATEDBOOKS,
+
+	/** The tag for the books in demand message. */
+	GETBOOKSINDEMAND,
+
+	/** The tag for the search books message. */
+	SEARCHBOOKS,
+
+	/** The tag for the books by price range message. */
+	GETBOOKSBYPRICERANGE,
+
+	/** The tag for the list books page message. */
+	LISTBOOKSPAGE,
+
+	/** The tag for the reserve books message. */
+	RESERVEBOOKS,
+
+	/** The tag for the commit reservation message. */
+	COMMITRESERVATION,
+
+	/** The tag for the cancel reservation message. */
+	CANCELRESERVATION,
+
+	/** The tag for a batch of replicated writes. */
+	REPLICATEBATCH,
+
+	/** The tag for the stream of batches sent to a slave. */
+	REPLICATESTREAM,
+
+	/** The tag for the replication status of a slave. */
+	REPLICATIONSTATUS,
+
+	/** The tag for bootstrapping a slave from a snapshot of the master. */
+	REPLICATIONBOOTSTRAP,
+
+	/** The tag for the snapshot of the catalog streamed by the master. */
+	SNAPSHOT,
+
 	/** The tag for killing current server. */
 	DIE;
 }
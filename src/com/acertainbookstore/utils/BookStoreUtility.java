@@ -3,13 +3,17 @@ package com.acertainbookstore.utils;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.UnsupportedEncodingException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
 
 import org.eclipse.jetty.client.HttpClient;
 import org.eclipse.jetty.client.api.ContentProvider;
 import org.eclipse.jetty.client.api.ContentResponse;
 import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.client.util.BufferingResponseListener;
 import org.eclipse.jetty.client.util.BytesContentProvider;
 import org.eclipse.jetty.http.HttpMethod;
 
@@ -74,6 +78,23 @@ public final class BookStoreUtility {
 		return copies < 1;
 	}
 
+	/**
+	 * Gets the position of a book in the order of increasing price then ISBN,
+	 * as used to page through the books in a price range. The bits of a
+	 * positive float grow with its value, so the price is stored in the high
+	 * bits and the ISBN in the low bits.
+	 *
+	 * @param price
+	 *            the price of the book
+	 * @param isbn
+	 *            the ISBN of the book
+	 * @return the cursor
+	 */
+	public static long getPriceCursor(float price, int isbn) {
+		// Adding 0 turns -0.0 into 0.0, whose bits are all zero.
+		return ((long) Float.floatToIntBits(price + 0.0f) << 32) | (isbn & 0xffffffffL);
+	}
+
 	/**
 	 * Checks if a string is empty or null.
 	 *
@@ -130,6 +151,28 @@ public final class BookStoreUtility {
 		return returnValue;
 	}
 
+	/**
+	 * Converts a string to a long if possible else it throws a
+	 * {@link BookStoreException}.
+	 *
+	 * @param str
+	 *            the string
+	 * @return the long
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public static long convertStringToLong(String str) throws BookStoreException {
+		long returnValue = 0;
+
+		try {
+			returnValue = Long.parseLong(str);
+		} catch (Exception ex) {
+			throw new BookStoreException(ex);
+		}
+
+		return returnValue;
+	}
+
 	/**
 	 * Convert a request URI to the message tags supported in CertainBookStore.
 	 *
@@ -171,44 +214,119 @@ public final class BookStoreUtility {
 	 */
 	public static BookStoreResponse performHttpExchange(HttpClient client, BookStoreRequest bookStoreRequest,
 			BookStoreSerializer serializer) throws BookStoreException {
+		Request request = newHttpRequest(client, bookStoreRequest, serializer);
+		ContentResponse response;
+
+		try {
+			response = request.send();
+		} catch (InterruptedException ex) {
+			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_SENDING, ex);
+		} catch (TimeoutException ex) {
+			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_TIMEOUT, ex);
+		} catch (ExecutionException ex) {
+			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_EXCEPTION, ex);
+		}
+
+		return toBookStoreResponse(response.getContent(), serializer);
+	}
+
+	/**
+	 * Performs an HTTP exchange without blocking: the request is sent, and the
+	 * response is deserialized, on the threads of the client. The serializer
+	 * is looked up on the thread which deserializes the response.
+	 *
+	 * @param client
+	 *            the client
+	 * @param bookStoreRequest
+	 *            the book store request
+	 * @param serializer
+	 *            the serializer of the current thread
+	 * @return the future book store response, failing with a
+	 *         {@link BookStoreException} if the exchange fails
+	 */
+	public static CompletableFuture<BookStoreResponse> performHttpExchangeAsync(HttpClient client,
+			BookStoreRequest bookStoreRequest, Supplier<BookStoreSerializer> serializer) {
+		CompletableFuture<BookStoreResponse> future = new CompletableFuture<>();
 		Request request;
 
+		try {
+			request = newHttpRequest(client, bookStoreRequest, serializer.get());
+		} catch (BookStoreException ex) {
+			future.completeExceptionally(ex);
+			return future;
+		}
+
+		request.send(new BufferingResponseListener() {
+			@Override
+			public void onComplete(Result result) {
+				if (result.isFailed()) {
+					future.completeExceptionally(new BookStoreException(
+							BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_EXCEPTION, result.getFailure()));
+					return;
+				}
+
+				try {
+					future.complete(toBookStoreResponse(getContent(), serializer.get()));
+				} catch (BookStoreException ex) {
+					future.completeExceptionally(ex);
+				}
+			}
+		});
+
+		return future;
+	}
+
+	/**
+	 * Creates the HTTP request of a book store request.
+	 *
+	 * @param client
+	 *            the client
+	 * @param bookStoreRequest
+	 *            the book store request
+	 * @param serializer
+	 *            the serializer
+	 * @return the HTTP request
+	 * @throws BookStoreException
+	 *             if the input value cannot be serialized
+	 */
+	private static Request newHttpRequest(HttpClient client, BookStoreRequest bookStoreRequest,
+			BookStoreSerializer serializer) throws BookStoreException {
 		switch (bookStoreRequest.getMethod()) {
 		case GET:
-			request = client.newRequest(bookStoreRequest.getURLString()).method(HttpMethod.GET);
-			break;
+			return client.newRequest(bookStoreRequest.getURLString()).method(HttpMethod.GET);
 
 		case POST:
 			try {
 				byte[] serializedValue = serializer.serialize(bookStoreRequest.getInputValue());
 				ContentProvider contentProvider = new BytesContentProvider(serializedValue);
-				request = client.POST(bookStoreRequest.getURLString()).content(contentProvider);
+				return client.POST(bookStoreRequest.getURLString()).content(contentProvider);
 			} catch (IOException ex) {
 				throw new BookStoreException("Serialization error", ex);
 			}
 
-			break;
-
 		default:
 			throw new IllegalArgumentException("HTTP Method not supported.");
 		}
+	}
 
-		ContentResponse response;
-
-		try {
-			response = request.send();
-		} catch (InterruptedException ex) {
-			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_SENDING, ex);
-		} catch (TimeoutException ex) {
-			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_TIMEOUT, ex);
-		} catch (ExecutionException ex) {
-			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_EXCEPTION, ex);
-		}
-
+	/**
+	 * Deserializes the content of an HTTP response.
+	 *
+	 * @param content
+	 *            the content
+	 * @param serializer
+	 *            the serializer
+	 * @return the book store response
+	 * @throws BookStoreException
+	 *             if the response cannot be deserialized, or holds an
+	 *             exception
+	 */
+	private static BookStoreResponse toBookStoreResponse(byte[] content, BookStoreSerializer serializer)
+			throws BookStoreException {
 		BookStoreResponse bookStoreResponse;
 
 		try {
-			bookStoreResponse = (BookStoreResponse) serializer.deserialize(response.getContent());
+			bookStoreResponse = (BookStoreResponse) serializer.deserialize(content);
 		} catch (IOException ex) {
 			throw new BookStoreException("Deserialization error", ex);
 		}
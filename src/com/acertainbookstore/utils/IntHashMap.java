@@ -0,0 +1,405 @@
+package com.acertainbookstore.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * {@link IntHashMap} is a hash map from primitive int keys to non null values,
+ * using open addressing with linear probing. Lookups neither box the keys nor
+ * allocate, and an entry only costs a slot in two arrays.
+ *
+ * The table is grown incrementally: when it gets too full a table of twice the
+ * size is allocated, and every later insertion moves a few entries of the old
+ * table into the new one, so that no single insertion pays for rehashing the
+ * whole map. Lookups search both tables while the move is in progress.
+ *
+ * The map has a single writer at a time, but any number of readers running
+ * concurrently with it. A slot is never reused once its entry is removed,
+ * the removed entries being dropped when the table is moved, and a moved
+ * entry stays in the old table until the move is done, so that a lookup never
+ * misses an entry moving from a slot to another. A lookup running during a
+ * write sees the map as it is either before or after the write.
+ *
+ * @param <V>
+ *            the type of the values
+ */
+public class IntHashMap<V> {
+
+	/** The default initial capacity. */
+	private static final int DEFAULT_CAPACITY = 16;
+
+	/** The maximum number of used slots per slot before the table is moved. */
+	private static final float LOAD_FACTOR = 0.75f;
+
+	/**
+	 * The number of slots of the old table moved at every insertion, at least
+	 * 1 / LOAD_FACTOR so that the move is done before the new table is full.
+	 */
+	private static final int MIGRATION_STEP = 4;
+
+	/** The marker of the slots whose entry was removed. */
+	private static final Object REMOVED = new Object();
+
+	/** The table. */
+	private volatile Table table;
+
+	/** The table being moved, null when no move is in progress. */
+	private volatile Table oldTable;
+
+	/** The next slot of the old table to move. */
+	private int migrationIndex;
+
+	/** The number of entries. */
+	private volatile int size;
+
+	/**
+	 * Instantiates a new {@link IntHashMap} with the default capacity.
+	 */
+	public IntHashMap() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Instantiates a new {@link IntHashMap}.
+	 *
+	 * @param expectedSize
+	 *            the number of entries expected in the map
+	 */
+	public IntHashMap(int expectedSize) {
+		int capacity = Integer.highestOneBit(Math.max(DEFAULT_CAPACITY, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+		table = new Table(capacity);
+	}
+
+	/**
+	 * Gets the number of entries.
+	 *
+	 * @return the number of entries
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Checks if the map is empty.
+	 *
+	 * @return true if the map is empty
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Checks if the map contains the key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return true if the map contains the key
+	 */
+	public boolean containsKey(int key) {
+		return get(key) != null;
+	}
+
+	/**
+	 * Gets the value of the key. The old table is searched first: an entry
+	 * removed from it was moved or removed from the table before.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the value, or null if the map does not contain the key
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(int key) {
+		// The table is read first, a move starts by publishing the old table.
+		Table current = table;
+		Table old = oldTable;
+
+		if (old != null) {
+			int slot = old.find(key);
+
+			if (slot >= 0) {
+				Object value = old.values.get(slot);
+
+				if (value != REMOVED) {
+					return (V) value;
+				}
+			}
+		}
+
+		int slot = current.find(key);
+
+		if (slot >= 0) {
+			Object value = current.values.get(slot);
+
+			if (value != REMOVED) {
+				return (V) value;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Associates the value with the key.
+	 *
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value, must not be null
+	 * @return the previous value of the key, or null
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(int key, V value) {
+		if (value == null) {
+			throw new NullPointerException("The values of an IntHashMap cannot be null");
+		}
+
+		if (oldTable == null && table.usedSlots >= table.threshold) {
+			startMigration();
+		}
+
+		if (oldTable != null) {
+			migrate();
+		}
+
+		Table current = table;
+		Table old = oldTable;
+		V previous = null;
+		int slot = current.find(key);
+
+		if (slot >= 0) {
+			previous = (V) current.values.get(slot);
+			current.values.set(slot, value);
+		} else {
+			current.insert(key, value);
+		}
+
+		// The copy left in the old table is stale now.
+		if (old != null) {
+			int oldSlot = old.find(key);
+
+			if (oldSlot >= 0) {
+				if (previous == null) {
+					previous = (V) old.values.get(oldSlot);
+				}
+
+				old.values.set(oldSlot, REMOVED);
+			}
+		}
+
+		if (previous == null) {
+			size++;
+		}
+
+		return previous;
+	}
+
+	/**
+	 * Removes the key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the value of the key, or null if the map did not contain it
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(int key) {
+		V previous = null;
+
+		// The table is marked first, a lookup finding the entry removed from
+		// the old table finds it removed from the table too.
+		int slot = table.find(key);
+
+		if (slot >= 0) {
+			previous = (V) table.values.get(slot);
+			table.values.set(slot, REMOVED);
+		}
+
+		Table old = oldTable;
+
+		if (old != null) {
+			int oldSlot = old.find(key);
+
+			if (oldSlot >= 0) {
+				if (previous == null) {
+					previous = (V) old.values.get(oldSlot);
+				}
+
+				old.values.set(oldSlot, REMOVED);
+			}
+		}
+
+		if (previous != null) {
+			size--;
+		}
+
+		return previous;
+	}
+
+	/**
+	 * Removes all the entries.
+	 */
+	public void clear() {
+		table = new Table(DEFAULT_CAPACITY);
+		oldTable = null;
+		size = 0;
+	}
+
+	/**
+	 * Gets a copy of the values.
+	 *
+	 * @return the values
+	 */
+	@SuppressWarnings("unchecked")
+	public List<V> values() {
+		Table current = table;
+		Table old = oldTable;
+		List<V> list = new ArrayList<>(size);
+
+		for (int slot = 0; slot < current.keys.length; slot++) {
+			Object value = current.values.get(slot);
+
+			if (value != null && value != REMOVED) {
+				list.add((V) value);
+			}
+		}
+
+		// The entries of the old table which were moved are in the table.
+		if (old != null) {
+			for (int slot = 0; slot < old.keys.length; slot++) {
+				Object value = old.values.get(slot);
+
+				if (value != null && value != REMOVED && current.find(old.keys[slot]) < 0) {
+					list.add((V) value);
+				}
+			}
+		}
+
+		return list;
+	}
+
+	/**
+	 * Replaces the table by a new table, twice as large unless most of its
+	 * used slots are removed entries, the entries of the old table being moved
+	 * by the next insertions.
+	 */
+	private void startMigration() {
+		int capacity = table.keys.length;
+
+		while (size >= capacity * LOAD_FACTOR / 2) {
+			capacity <<= 1;
+		}
+
+		migrationIndex = 0;
+		oldTable = table;
+		table = new Table(capacity);
+	}
+
+	/**
+	 * Copies the next slots of the old table into the table.
+	 */
+	private void migrate() {
+		Table old = oldTable;
+		int end = Math.min(migrationIndex + MIGRATION_STEP, old.keys.length);
+
+		for (; migrationIndex < end; migrationIndex++) {
+			Object value = old.values.get(migrationIndex);
+
+			if (value != null && value != REMOVED && table.find(old.keys[migrationIndex]) < 0) {
+				table.insert(old.keys[migrationIndex], value);
+			}
+		}
+
+		if (migrationIndex == old.keys.length) {
+			oldTable = null;
+		}
+	}
+
+	/**
+	 * Maps a key to its home slot, spreading consecutive keys over the table.
+	 *
+	 * @param key
+	 *            the key
+	 * @param capacity
+	 *            the capacity of the table, a power of two
+	 * @return the home slot
+	 */
+	private static int indexOf(int key, int capacity) {
+		int hash = key * 0x9E3779B9;
+		return (hash ^ (hash >>> 16)) & (capacity - 1);
+	}
+
+	/**
+	 * {@link Table} is a table of slots. The key of a slot is written before
+	 * its value, so that a reader finding the value finds the key.
+	 */
+	private static final class Table {
+
+		/** The keys of the slots. */
+		private final int[] keys;
+
+		/** The values of the slots, null for an empty slot. */
+		private final AtomicReferenceArray<Object> values;
+
+		/** The number of used slots triggering a move. */
+		private final int threshold;
+
+		/** The number of used slots, including the removed entries. */
+		private int usedSlots = 0;
+
+		/**
+		 * Instantiates a new empty {@link Table}.
+		 *
+		 * @param capacity
+		 *            the capacity, a power of two
+		 */
+		private Table(int capacity) {
+			keys = new int[capacity];
+			values = new AtomicReferenceArray<>(capacity);
+			threshold = (int) (capacity * LOAD_FACTOR);
+		}
+
+		/**
+		 * Finds the slot of the key.
+		 *
+		 * @param key
+		 *            the key
+		 * @return the slot, or -1 if the table does not contain the key
+		 */
+		private int find(int key) {
+			int mask = keys.length - 1;
+			int slot = indexOf(key, keys.length);
+			Object value;
+
+			while ((value = values.get(slot)) != null) {
+				if (value != REMOVED && keys[slot] == key) {
+					return slot;
+				}
+
+				slot = (slot + 1) & mask;
+			}
+
+			return -1;
+		}
+
+		/**
+		 * Inserts an entry in the first empty slot of the run of its key.
+		 *
+		 * @param key
+		 *            the key, which must not be in the table
+		 * @param value
+		 *            the value
+		 */
+		private void insert(int key, Object value) {
+			int mask = keys.length - 1;
+			int slot = indexOf(key, keys.length);
+
+			while (values.get(slot) != null) {
+				slot = (slot + 1) & mask;
+			}
+
+			keys[slot] = key;
+			values.set(slot, value);
+			usedSlots++;
+		}
+	}
+}
@@ -0,0 +1,173 @@
+package com.acertainbookstore.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+
+/**
+ * {@link TimerWheel} is a hashed timing wheel expiring ids after a delay. The
+ * time is cut into ticks, and a timer is put in the slot of the tick it expires
+ * at, modulo the number of slots, so that scheduling a timer is O(1) and each
+ * tick only looks at the timers of a single slot, whatever the number of
+ * timers pending. Timers expiring more than a turn of the wheel away simply
+ * stay in their slot until their tick comes.
+ *
+ * Timers are not cancelled: the expiry handler is expected to ignore the ids
+ * which have been dealt with in the meantime. Expiry is precise to a tick, and
+ * the handler runs on the single thread of the wheel, which is only started
+ * once the first timer is scheduled.
+ */
+public class TimerWheel {
+
+	/** The duration of a tick in nanoseconds. */
+	private final long tickNanos;
+
+	/** The timers of each slot, the number of slots being a power of two. */
+	private final List<Timer>[] slots;
+
+	/** The handler of the expired ids. */
+	private final LongConsumer expiryHandler;
+
+	/** The time of tick 0. */
+	private final long startNanos = System.nanoTime();
+
+	/** The last tick processed. */
+	private long lastTick;
+
+	/** The thread advancing the wheel, null until a timer is scheduled. */
+	private ScheduledExecutorService ticker;
+
+	/**
+	 * {@link Timer} is a pending id and the tick it expires at.
+	 */
+	private static class Timer {
+
+		/** The id. */
+		private final long id;
+
+		/** The tick the id expires at. */
+		private final long deadlineTick;
+
+		/**
+		 * Instantiates a new {@link Timer}.
+		 *
+		 * @param id
+		 *            the id
+		 * @param deadlineTick
+		 *            the tick the id expires at
+		 */
+		Timer(long id, long deadlineTick) {
+			this.id = id;
+			this.deadlineTick = deadlineTick;
+		}
+	}
+
+	/**
+	 * Instantiates a new {@link TimerWheel}.
+	 *
+	 * @param tickMillis
+	 *            the duration of a tick in milliseconds
+	 * @param numSlots
+	 *            the number of slots, rounded up to a power of two
+	 * @param expiryHandler
+	 *            the handler of the expired ids
+	 */
+	@SuppressWarnings("unchecked")
+	public TimerWheel(long tickMillis, int numSlots, LongConsumer expiryHandler) {
+		this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+		this.slots = (List<Timer>[]) new List<?>[Integer.highestOneBit(Math.max(1, numSlots - 1)) << 1];
+		this.expiryHandler = expiryHandler;
+
+		for (int slot = 0; slot < slots.length; slot++) {
+			slots[slot] = new ArrayList<>();
+		}
+	}
+
+	/**
+	 * Schedules the expiry of an id.
+	 *
+	 * @param id
+	 *            the id
+	 * @param delayMillis
+	 *            the delay in milliseconds before the id expires
+	 */
+	public synchronized void schedule(long id, long delayMillis) {
+		long delayTicks = Math.max(1, (TimeUnit.MILLISECONDS.toNanos(delayMillis) + tickNanos - 1) / tickNanos);
+		long deadlineTick = Math.max(currentTick(), lastTick) + delayTicks;
+
+		slots[(int) deadlineTick & (slots.length - 1)].add(new Timer(id, deadlineTick));
+
+		if (ticker == null) {
+			ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "TimerWheel");
+				thread.setDaemon(true);
+				return thread;
+			});
+			ticker.scheduleAtFixedRate(this::advance, tickNanos, tickNanos, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	/**
+	 * Stops the wheel, the pending ids never expire.
+	 */
+	public synchronized void stop() {
+		if (ticker != null) {
+			ticker.shutdownNow();
+		}
+
+		for (List<Timer> slot : slots) {
+			slot.clear();
+		}
+	}
+
+	/**
+	 * Processes the slots of the ticks elapsed since the last call, and hands
+	 * the expired ids to the handler.
+	 */
+	private void advance() {
+		List<Timer> expired = new ArrayList<>();
+
+		synchronized (this) {
+			long nowTick = currentTick();
+
+			// After a turn of the wheel every slot has been looked at.
+			for (long tick = lastTick + 1; tick <= Math.min(nowTick, lastTick + slots.length); tick++) {
+				List<Timer> slot = slots[(int) tick & (slots.length - 1)];
+				int numPending = 0;
+
+				for (Timer timer : slot) {
+					if (timer.deadlineTick <= nowTick) {
+						expired.add(timer);
+					} else {
+						slot.set(numPending++, timer);
+					}
+				}
+
+				slot.subList(numPending, slot.size()).clear();
+			}
+
+			lastTick = Math.max(lastTick, nowTick);
+		}
+
+		for (Timer timer : expired) {
+			try {
+				expiryHandler.accept(timer.id);
+			} catch (RuntimeException ex) {
+				// The other ids must expire anyway.
+				ex.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Gets the current tick.
+	 *
+	 * @return the tick
+	 */
+	private long currentTick() {
+		return (System.nanoTime() - startNanos) / tickNanos;
+	}
+}